@@ -3,11 +3,22 @@ package com.fitcoach.api;
 import com.fitcoach.infrastructure.ai.common.AIResponse;
 import com.fitcoach.infrastructure.ai.router.AIRequestType;
 import com.fitcoach.infrastructure.ai.router.LLMRouterService;
+import com.fitcoach.model.AiUsageRollup;
+import com.fitcoach.service.AiUsageLedger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
@@ -21,10 +32,15 @@ public class AIRouterController {
     
     private static final Logger log = LoggerFactory.getLogger(AIRouterController.class);
     
+    // Потоковый ответ не дольше крайнего срока чата с запасом на медленного клиента
+    private static final long STREAM_TIMEOUT_MS = 60_000;
+    
     private final LLMRouterService llmRouterService;
+    private final AiUsageLedger usageLedger;
     
-    public AIRouterController(LLMRouterService llmRouterService) {
+    public AIRouterController(LLMRouterService llmRouterService, AiUsageLedger usageLedger) {
         this.llmRouterService = llmRouterService;
+        this.usageLedger = usageLedger;
     }
     
     /**
@@ -200,13 +216,69 @@ public class AIRouterController {
                 });
     }
     
+    /**
+     * Потоковый ответ чата (text/event-stream): события delta с фрагментами текста,
+     * затем done с итоговым ответом (токены, стоимость) или error
+     *
+     * Отключение клиента или таймаут эмиттера прерывают генерацию; токены,
+     * потраченные до обрыва, учитываются роутером.
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChat(
+            @RequestBody Map<String, String> request,
+            @RequestParam String userId) {
+        
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        emitter.onTimeout(emitter::complete);
+        String content = request.get("content");
+        if (content == null || content.trim().isEmpty()) {
+            sendEvent(emitter, "error", AIResponse.error("Вопрос не может быть пустым"));
+            emitter.complete();
+            return emitter;
+        }
+        
+        log.info("💬 API: Потоковый чат для пользователя {}", userId);
+        
+        llmRouterService.streamChatAsync(content, userId, delta -> sendEvent(emitter, "delta", delta))
+                .whenComplete((response, ex) -> {
+                    try {
+                        if (ex != null) {
+                            log.error("❌ Ошибка потокового чата: {}", ex.getMessage());
+                            sendEvent(emitter, "error", AIResponse.error("Ошибка потоковой обработки"));
+                        } else {
+                            sendEvent(emitter, response.isSuccessful() ? "done" : "error", response);
+                        }
+                        emitter.complete();
+                    } catch (UncheckedIOException e) {
+                        // Клиент уже отключился
+                        emitter.completeWithError(e.getCause());
+                    } catch (IllegalStateException e) {
+                        // Эмиттер уже завершен (таймаут)
+                        emitter.complete();
+                    }
+                });
+        return emitter;
+    }
+    
+    /**
+     * Отправка события SSE; ошибка записи (клиент отключился) или
+     * IllegalStateException завершенного эмиттера (таймаут) прерывает генерацию
+     */
+    private static void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
     /**
      * Статистика использования провайдеров AI
      */
     @GetMapping("/statistics")
     public ResponseEntity<Map<String, Object>> getStatistics() {
         try {
-            String stats = llmRouterService.getUsageStatistics();
+            Map<String, Object> stats = llmRouterService.getUsageStatistics();
             return ResponseEntity.ok(Map.of(
                     "statistics", stats,
                     "estimated_savings", "75% экономия vs только GPT-4",
@@ -219,6 +291,70 @@ public class AIRouterController {
         }
     }
     
+    /**
+     * Токены и стоимость AI пользователя по интервалам (время в UTC, по умолчанию - последние сутки)
+     * 
+     * @param granularity MINUTE, HOUR или DAY
+     */
+    @GetMapping("/usage/users/{userId}")
+    public ResponseEntity<Map<String, Object>> getUserUsage(
+            @PathVariable String userId,
+            @RequestParam(defaultValue = "HOUR") AiUsageRollup.Granularity granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            LocalDateTime end = to != null ? to : LocalDateTime.now(ZoneOffset.UTC);
+            LocalDateTime start = from != null ? from : end.minusDays(1);
+            
+            List<Map<String, Object>> buckets = usageLedger.getUsage(userId, granularity, start, end).stream()
+                    .map(rollup -> {
+                        Map<String, Object> bucket = new LinkedHashMap<>();
+                        bucket.put("bucket_start", rollup.getBucketStart());
+                        bucket.put("provider", rollup.getProvider());
+                        bucket.put("request_type", rollup.getRequestType());
+                        bucket.put("calls", rollup.getCalls());
+                        bucket.put("tokens", rollup.getTotalTokens());
+                        bucket.put("cost_usd", rollup.getCostUsd());
+                        return bucket;
+                    })
+                    .toList();
+            
+            Map<String, Object> usage = new LinkedHashMap<>();
+            usage.put("user_id", userId);
+            usage.put("granularity", granularity);
+            usage.put("from", start);
+            usage.put("to", end);
+            usage.put("today_cost_usd", usageLedger.getTodayCost(userId));
+            usage.put("daily_budget_usd", usageLedger.getDailyBudgetUsd());
+            usage.put("buckets", buckets);
+            return ResponseEntity.ok(usage);
+        } catch (Exception e) {
+            log.error("❌ Ошибка получения использования AI пользователя {}: {}", userId, e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    /**
+     * Пользователи с наибольшей стоимостью AI за последние дни (days=1 - сегодня, UTC)
+     */
+    @GetMapping("/usage/top")
+    public ResponseEntity<Map<String, Object>> getTopUsers(
+            @RequestParam(defaultValue = "1") int days,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC);
+            LocalDateTime start = end.toLocalDate().minusDays(Math.max(1, days) - 1).atStartOfDay();
+            return ResponseEntity.ok(Map.of(
+                    "from", start,
+                    "to", end,
+                    "users", usageLedger.getTopUsers(start, end, limit)
+            ));
+        } catch (Exception e) {
+            log.error("❌ Ошибка получения топа пользователей AI: {}", e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
     /**
      * Очистка кэша AI запросов
      */
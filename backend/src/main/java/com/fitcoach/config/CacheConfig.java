@@ -0,0 +1,84 @@
+package com.fitcoach.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitcoach.infrastructure.ai.cache.CacheCodec;
+import com.fitcoach.infrastructure.ai.cache.CachedValue;
+import com.fitcoach.infrastructure.ai.cache.CachedValueCodec;
+import com.fitcoach.infrastructure.ai.cache.JacksonCacheCodec;
+import com.fitcoach.infrastructure.ai.cache.TwoTierCache;
+import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.infrastructure.nutrition.NutritionInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+
+/**
+ * Конфигурация кэшей ответов (L1 в памяти + Redis L2) и их кодеков
+ */
+@Configuration
+public class CacheConfig {
+
+    /**
+     * Подписки Redis pub/sub (инвалидация L1 между узлами)
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    /**
+     * Redis с двоичными значениями для кэшей с CacheCodec (ключи - строки)
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> binaryRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /**
+     * Кодек NutritionInfo (кэш поиска FatSecret)
+     */
+    @Bean
+    public CacheCodec<NutritionInfo> nutritionInfoCodec(
+            ObjectMapper objectMapper,
+            @Value("${app.cache.codec.compress-threshold:1024}") int compressThreshold) {
+        return new JacksonCacheCodec<>(objectMapper, NutritionInfo.class, compressThreshold);
+    }
+
+    /**
+     * Кодек NutritionInfo с мягким сроком (общий кэш питания)
+     */
+    @Bean
+    public CacheCodec<CachedValue<NutritionInfo>> nutritionCacheCodec(CacheCodec<NutritionInfo> nutritionInfoCodec) {
+        return new CachedValueCodec<>(nutritionInfoCodec);
+    }
+
+    /**
+     * Кэш ответов LLM роутера (с мягким сроком для stale-while-revalidate)
+     */
+    @Bean
+    public TwoTierCache<CachedValue<AIResponse>> aiResponseCache(
+            RedisTemplate<String, byte[]> binaryRedisTemplate,
+            RedisMessageListenerContainer listenerContainer,
+            MeterRegistry meterRegistry,
+            ObjectMapper objectMapper,
+            @Value("${app.ai.cache.l1.max-entries:10000}") int l1MaxEntries,
+            @Value("${app.ai.cache.l1.max-ttl:5m}") Duration l1MaxTtl,
+            @Value("${app.cache.codec.compress-threshold:1024}") int compressThreshold) {
+        CacheCodec<AIResponse> responseCodec = new JacksonCacheCodec<>(objectMapper, AIResponse.class, compressThreshold);
+        return new TwoTierCache<>("ai", binaryRedisTemplate, listenerContainer, meterRegistry,
+                l1MaxEntries, l1MaxTtl, new CachedValueCodec<>(responseCodec));
+    }
+}
@@ -0,0 +1,269 @@
+package com.fitcoach.infrastructure.ai;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Конвейер обработки одного изображения: заголовок → декодирование → ресайз → JPEG
+ *
+ * Изображение декодируется ровно один раз, дальше по стадиям передается
+ * один и тот же растр. Для валидации читается только заголовок (размеры
+ * через ImageReader без декодирования пикселей).
+ *
+ * Объект одноразовый и не потокобезопасный: один конвейер на один запрос.
+ */
+public class ImagePipeline implements AutoCloseable {
+
+    // Запас над целевым размером при прореживании: билинейный ресайз
+    // без алиасинга работает при уменьшении не более чем в 2 раза
+    private static final int SUBSAMPLING_HEADROOM = 2;
+
+    private final byte[] source;
+    private final JpegEncoder encoder;
+    private final StageTimings timings = new StageTimings();
+
+    private ImageInputStream input;
+    private ImageReader reader;
+    private ImageHeader header;
+    private BufferedImage raster;
+    private boolean resized;
+    private int subsampling = 1;
+
+    ImagePipeline(byte[] source, JpegEncoder encoder) {
+        this.source = source;
+        this.encoder = encoder;
+    }
+
+    /**
+     * Читает заголовок изображения (формат и размеры) без декодирования пикселей
+     *
+     * @return заголовок или null, если формат не распознан
+     */
+    public ImageHeader readHeader() throws IOException {
+        if (header != null) {
+            return header;
+        }
+
+        long start = System.nanoTime();
+        try {
+            input = ImageIO.createImageInputStream(new ByteArrayInputStream(source));
+            if (input == null) {
+                return null;
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            reader = readers.next();
+            reader.setInput(input, true, true);
+
+            header = new ImageHeader(reader.getFormatName(), reader.getWidth(0), reader.getHeight(0));
+            return header;
+        } finally {
+            timings.headerNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Декодирует пиксели в полном разрешении (единственный раз за жизнь конвейера)
+     */
+    public BufferedImage decode() throws IOException {
+        return decode(0, 0);
+    }
+
+    /**
+     * Декодирует пиксели с прореживанием под целевой размер
+     *
+     * Целочисленный шаг прореживания считается по заголовку так, чтобы
+     * растр остался не меньше SUBSAMPLING_HEADROOM × цели: финальный
+     * качественный ресайз идет уже от близкого размера, а 12 МП фото
+     * не разворачивается в память целиком.
+     *
+     * @param targetWidth целевая ширина (0 - без прореживания)
+     * @param targetHeight целевая высота (0 - без прореживания)
+     */
+    public BufferedImage decode(int targetWidth, int targetHeight) throws IOException {
+        if (raster != null) {
+            return raster;
+        }
+        ImageHeader imageHeader = readHeader();
+        if (imageHeader == null) {
+            throw new IllegalArgumentException("Не удалось загрузить изображение");
+        }
+
+        long start = System.nanoTime();
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            subsampling = calculateSubsampling(imageHeader, targetWidth, targetHeight);
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            raster = reader.read(0, param);
+            return raster;
+        } finally {
+            timings.decodeNanos = System.nanoTime() - start;
+            releaseReader();
+        }
+    }
+
+    /**
+     * Вписывает растр в заданные границы с сохранением пропорций
+     *
+     * Результат всегда TYPE_INT_RGB с белым фоном вместо прозрачности,
+     * поэтому кодировщику JPEG не нужна дополнительная копия.
+     */
+    public BufferedImage resize(int maxWidth, int maxHeight) throws IOException {
+        BufferedImage image = decode(maxWidth, maxHeight);
+
+        long start = System.nanoTime();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (width > maxWidth || height > maxHeight) {
+            double ratio = Math.min((double) maxWidth / width, (double) maxHeight / height);
+            raster = drawRgb(image, Math.max(1, (int) (width * ratio)), Math.max(1, (int) (height * ratio)));
+            resized = true;
+        } else if (!isJpegCompatible(image)) {
+            raster = drawRgb(image, width, height);
+        }
+
+        timings.resizeNanos = System.nanoTime() - start;
+        return raster;
+    }
+
+    /**
+     * Кодирует текущий растр в JPEG с максимальным качеством, укладывающимся в бюджет
+     */
+    public JpegEncoder.EncodedJpeg encode(long maxBytes, float minQuality, float maxQuality) throws IOException {
+        BufferedImage image = decode();
+        if (!isJpegCompatible(image)) {
+            image = resize(image.getWidth(), image.getHeight());
+        }
+
+        long start = System.nanoTime();
+        try {
+            return encoder.encodeToBudget(image, maxBytes, minQuality, maxQuality);
+        } finally {
+            timings.encodeNanos += System.nanoTime() - start;
+        }
+    }
+
+    public boolean wasResized() { return resized; }
+    public int getSubsampling() { return subsampling; }
+    public StageTimings getTimings() { return timings; }
+
+    @Override
+    public void close() {
+        releaseReader();
+        raster = null;
+    }
+
+    /**
+     * Целочисленный шаг прореживания, при котором изображение остается
+     * не меньше SUBSAMPLING_HEADROOM × целевого размера по ограничивающей стороне
+     */
+    static int calculateSubsampling(ImageHeader header, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        double scale = Math.max(
+            (double) header.getWidth() / targetWidth,
+            (double) header.getHeight() / targetHeight);
+        return Math.max(1, (int) Math.floor(scale / SUBSAMPLING_HEADROOM));
+    }
+
+    /**
+     * Отрисовывает изображение в RGB растр заданного размера
+     */
+    private BufferedImage drawRgb(BufferedImage image, int width, int height) {
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = rgb.createGraphics();
+
+        // Настройки для качественного ресайза
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        g2d.setColor(Color.WHITE); // Белый фон вместо прозрачности
+        g2d.fillRect(0, 0, width, height);
+        g2d.drawImage(image, 0, 0, width, height, null);
+        g2d.dispose();
+
+        return rgb;
+    }
+
+    /**
+     * JPEG кодировщик ImageIO корректно пишет только RGB/серые растры без альфа-канала
+     */
+    private boolean isJpegCompatible(BufferedImage image) {
+        int type = image.getType();
+        return type == BufferedImage.TYPE_INT_RGB
+            || type == BufferedImage.TYPE_3BYTE_BGR
+            || type == BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    private void releaseReader() {
+        if (reader != null) {
+            reader.dispose();
+            reader = null;
+        }
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+                // Поток в памяти, закрытие не может реально упасть
+            }
+            input = null;
+        }
+    }
+
+    /**
+     * Метаданные изображения, прочитанные из заголовка
+     */
+    public static class ImageHeader {
+        private final String format;
+        private final int width;
+        private final int height;
+
+        public ImageHeader(String format, int width, int height) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+
+        public String getFormat() { return format; }
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+    }
+
+    /**
+     * Время выполнения стадий конвейера
+     */
+    public static class StageTimings {
+        private long headerNanos;
+        private long decodeNanos;
+        private long resizeNanos;
+        private long encodeNanos;
+
+        public double getHeaderMs() { return headerNanos / 1_000_000.0; }
+        public double getDecodeMs() { return decodeNanos / 1_000_000.0; }
+        public double getResizeMs() { return resizeNanos / 1_000_000.0; }
+        public double getEncodeMs() { return encodeNanos / 1_000_000.0; }
+        public double getTotalMs() { return getHeaderMs() + getDecodeMs() + getResizeMs() + getEncodeMs(); }
+
+        @Override
+        public String toString() {
+            return String.format("header=%.1fms, decode=%.1fms, resize=%.1fms, encode=%.1fms, total=%.1fms",
+                getHeaderMs(), getDecodeMs(), getResizeMs(), getEncodeMs(), getTotalMs());
+        }
+    }
+}
@@ -4,12 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.Base64;
 
 /**
@@ -26,60 +21,78 @@ public class ImageProcessor {
     private static final int MAX_HEIGHT = 512; // Уменьшено с 2048 для экономии токенов  
     private static final long MAX_FILE_SIZE = 512 * 1024; // 512KB вместо 4MB
     private static final float JPEG_QUALITY = 0.6f; // Больше сжатие для экономии
+    private static final float MIN_JPEG_QUALITY = 0.3f; // Нижняя граница при подборе под MAX_FILE_SIZE
+    
+    private final JpegEncoder jpegEncoder = new JpegEncoder();
+    
+    /**
+     * Открывает конвейер обработки для одного изображения
+     */
+    public ImagePipeline openPipeline(byte[] imageBytes) {
+        return new ImagePipeline(imageBytes, jpegEncoder);
+    }
     
     /**
      * Обрабатывает изображение для оптимального анализа в OpenAI
      */
     public ProcessedImage processImageForAI(byte[] imageBytes, String originalFormat) {
+        try (ImagePipeline pipeline = openPipeline(imageBytes)) {
+            return processImageForAI(pipeline, imageBytes, originalFormat);
+        }
+    }
+    
+    /**
+     * Обрабатывает изображение в уже открытом конвейере (заголовок не перечитывается)
+     */
+    public ProcessedImage processImageForAI(ImagePipeline pipeline, byte[] imageBytes, String originalFormat) {
         try {
             logger.info("🖼️ Начинаю обработку изображения: {} bytes, формат: {}", 
                 imageBytes.length, originalFormat);
             
-            // Загружаем изображение
-            BufferedImage originalImage = ImageIO.read(new ByteArrayInputStream(imageBytes));
-            if (originalImage == null) {
+            ImagePipeline.ImageHeader header = pipeline.readHeader();
+            if (header == null) {
                 throw new IllegalArgumentException("Не удалось загрузить изображение");
             }
+            logger.debug("Исходный размер: {}x{}", header.getWidth(), header.getHeight());
             
-            int originalWidth = originalImage.getWidth();
-            int originalHeight = originalImage.getHeight();
-            logger.debug("Исходный размер: {}x{}", originalWidth, originalHeight);
-            
-            // Проверяем нужно ли изменение размера
-            BufferedImage processedImage = originalImage;
-            boolean wasResized = false;
-            
-            if (originalWidth > MAX_WIDTH || originalHeight > MAX_HEIGHT) {
-                processedImage = resizeImage(originalImage, MAX_WIDTH, MAX_HEIGHT);
-                wasResized = true;
-                logger.info("📏 Изображение изменено до: {}x{}", 
-                    processedImage.getWidth(), processedImage.getHeight());
+            // Единственное декодирование (с прореживанием для больших фото) + ресайз в RGB растр
+            BufferedImage processedImage = pipeline.resize(MAX_WIDTH, MAX_HEIGHT);
+            if (pipeline.wasResized()) {
+                logger.info("📏 Изображение изменено до: {}x{} (прореживание при декодировании: 1/{})", 
+                    processedImage.getWidth(), processedImage.getHeight(), pipeline.getSubsampling());
             }
             
-            // Конвертируем в JPEG для лучшего сжатия
-            byte[] processedBytes = convertToJPEG(processedImage, JPEG_QUALITY);
+            // Конвертируем в JPEG, качество подбирается под MAX_FILE_SIZE
+            JpegEncoder.EncodedJpeg jpeg = pipeline.encode(MAX_FILE_SIZE, MIN_JPEG_QUALITY, JPEG_QUALITY);
+            byte[] processedBytes = jpeg.getBytes();
             
             // Проверяем размер после обработки
             if (processedBytes.length > MAX_FILE_SIZE) {
-                logger.warn("⚠️ Файл все еще большой после сжатия: {} bytes", processedBytes.length);
-                // Дополнительное сжатие
-                processedBytes = convertToJPEG(processedImage, 0.6f);
+                logger.warn("⚠️ Файл все еще большой при минимальном качестве {}: {} bytes", 
+                    MIN_JPEG_QUALITY, processedBytes.length);
+            } else if (jpeg.getAttempts() > 1) {
+                logger.info("🗜️ Качество JPEG снижено до {} за {} попыток", 
+                    String.format("%.2f", jpeg.getQuality()), jpeg.getAttempts());
             }
             
-            // Конвертируем в base64
-            String base64Image = Base64.getEncoder().encodeToString(processedBytes);
+            // Перцептивный хэш по уже уменьшенному растру - ключ кэша анализов
+            long perceptualHash = PerceptualHash.dHash(processedImage);
             
             ProcessedImage result = new ProcessedImage(
-                base64Image,
+                processedBytes,
                 processedImage.getWidth(),
                 processedImage.getHeight(),
                 processedBytes.length,
-                wasResized,
-                calculateCompressionRatio(imageBytes.length, processedBytes.length)
+                pipeline.wasResized(),
+                calculateCompressionRatio(imageBytes.length, processedBytes.length),
+                jpeg.getQuality(),
+                perceptualHash,
+                pipeline.getTimings()
             );
             
-            logger.info("✅ Обработка завершена: {}x{}, {} bytes, сжатие: {:.1f}%", 
-                result.getWidth(), result.getHeight(), result.getFileSize(), result.getCompressionRatio());
+            logger.info("✅ Обработка завершена: {}x{}, {} bytes, сжатие: {}%, стадии: {}", 
+                result.getWidth(), result.getHeight(), result.getFileSize(), 
+                String.format("%.1f", result.getCompressionRatio()), result.getTimings());
             
             return result;
             
@@ -90,58 +103,18 @@ public class ImageProcessor {
     }
     
     /**
-     * Изменяет размер изображения с сохранением пропорций
-     */
-    private BufferedImage resizeImage(BufferedImage original, int maxWidth, int maxHeight) {
-        int originalWidth = original.getWidth();
-        int originalHeight = original.getHeight();
-        
-        // Вычисляем новые размеры с сохранением пропорций
-        double widthRatio = (double) maxWidth / originalWidth;
-        double heightRatio = (double) maxHeight / originalHeight;
-        double ratio = Math.min(widthRatio, heightRatio);
-        
-        int newWidth = (int) (originalWidth * ratio);
-        int newHeight = (int) (originalHeight * ratio);
-        
-        BufferedImage resized = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = resized.createGraphics();
-        
-        // Настройки для качественного ресайза
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        g2d.drawImage(original, 0, 0, newWidth, newHeight, null);
-        g2d.dispose();
-        
-        return resized;
-    }
-    
-    /**
-     * Конвертирует изображение в JPEG с заданным качеством
+     * Проводит предварительную валидацию изображения
      */
-    private byte[] convertToJPEG(BufferedImage image, float quality) throws IOException {
-        // Создаем RGB изображение (JPEG не поддерживает прозрачность)
-        BufferedImage rgbImage = new BufferedImage(
-            image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-        
-        Graphics2D g2d = rgbImage.createGraphics();
-        g2d.setColor(Color.WHITE); // Белый фон вместо прозрачности
-        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
-        g2d.drawImage(image, 0, 0, null);
-        g2d.dispose();
-        
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(rgbImage, "jpg", baos);
-        
-        return baos.toByteArray();
+    public ImageValidationResult validateImage(byte[] imageBytes, String fileName) {
+        try (ImagePipeline pipeline = openPipeline(imageBytes)) {
+            return validateImage(pipeline, imageBytes, fileName);
+        }
     }
     
     /**
-     * Проводит предварительную валидацию изображения
+     * Валидация по заголовку изображения, пиксели не декодируются
      */
-    public ImageValidationResult validateImage(byte[] imageBytes, String fileName) {
+    public ImageValidationResult validateImage(ImagePipeline pipeline, byte[] imageBytes, String fileName) {
         try {
             if (imageBytes == null || imageBytes.length == 0) {
                 return new ImageValidationResult(false, "Файл пустой");
@@ -154,13 +127,13 @@ public class ImageProcessor {
             }
             
             // Проверяем что это изображение
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
-            if (image == null) {
+            ImagePipeline.ImageHeader header = pipeline.readHeader();
+            if (header == null) {
                 return new ImageValidationResult(false, "Файл не является изображением");
             }
             
-            int width = image.getWidth();
-            int height = image.getHeight();
+            int width = header.getWidth();
+            int height = header.getHeight();
             
             if (width < 100 || height < 100) {
                 return new ImageValidationResult(false, 
@@ -191,30 +164,45 @@ public class ImageProcessor {
      * Результат обработки изображения
      */
     public static class ProcessedImage {
-        private final String base64Data;
+        private final byte[] jpegBytes;
         private final int width;
         private final int height;
         private final long fileSize;
         private final boolean wasResized;
         private final double compressionRatio;
+        private final float jpegQuality;
+        private final long perceptualHash;
+        private final ImagePipeline.StageTimings timings;
         
-        public ProcessedImage(String base64Data, int width, int height, long fileSize, 
-                            boolean wasResized, double compressionRatio) {
-            this.base64Data = base64Data;
+        public ProcessedImage(byte[] jpegBytes, int width, int height, long fileSize, 
+                            boolean wasResized, double compressionRatio, float jpegQuality,
+                            long perceptualHash, ImagePipeline.StageTimings timings) {
+            this.jpegBytes = jpegBytes;
             this.width = width;
             this.height = height;
             this.fileSize = fileSize;
             this.wasResized = wasResized;
             this.compressionRatio = compressionRatio;
+            this.jpegQuality = jpegQuality;
+            this.perceptualHash = perceptualHash;
+            this.timings = timings;
         }
         
         // Getters
-        public String getBase64Data() { return base64Data; }
+        public byte[] getJpegBytes() { return jpegBytes; }
+        
+        /**
+         * base64 строится по требованию: для отправки в OpenAI используйте getJpegBytes()
+         */
+        public String getBase64Data() { return Base64.getEncoder().encodeToString(jpegBytes); }
         public int getWidth() { return width; }
         public int getHeight() { return height; }
         public long getFileSize() { return fileSize; }
         public boolean wasResized() { return wasResized; }
         public double getCompressionRatio() { return compressionRatio; }
+        public float getJpegQuality() { return jpegQuality; }
+        public long getPerceptualHash() { return perceptualHash; }
+        public ImagePipeline.StageTimings getTimings() { return timings; }
     }
     
     /**
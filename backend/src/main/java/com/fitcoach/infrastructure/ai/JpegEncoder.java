@@ -0,0 +1,138 @@
+package com.fitcoach.infrastructure.ai;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * JPEG кодировщик с явным качеством сжатия и подбором качества под лимит размера
+ *
+ * ImageWriter берется из общего ограниченного пула и возвращается в него
+ * после записи: пул не привязан к потокам (в виртуальных и короткоживущих
+ * потоках ThreadLocal создавал бы кодировщик на каждую задачу). Лишний
+ * кодировщик сверх емкости пула освобождается через dispose() - его
+ * нативные буферы libjpeg не ждут сборщика мусора.
+ *
+ * Подбор качества - двоичный поиск максимального качества, при котором
+ * результат укладывается в заданный бюджет байт.
+ */
+public class JpegEncoder {
+
+    // Точность двоичного поиска качества
+    private static final float QUALITY_PRECISION = 0.05f;
+
+    private static final BlockingQueue<ImageWriter> IDLE_WRITERS =
+        new ArrayBlockingQueue<>(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Кодирует растр с заданным качеством (0.0 - 1.0)
+     */
+    public byte[] encode(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = IDLE_WRITERS.poll();
+        if (writer == null) {
+            writer = createWriter();
+        }
+
+        JPEGImageWriteParam param = new JPEGImageWriteParam(null);
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        param.setOptimizeHuffmanTables(true);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(estimateSize(image, quality));
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(baos)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.reset();
+            if (!IDLE_WRITERS.offer(writer)) {
+                writer.dispose();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Подбирает максимальное качество в диапазоне [minQuality, maxQuality],
+     * при котором JPEG не превышает maxBytes
+     *
+     * Если даже минимальное качество не укладывается в бюджет, возвращается
+     * результат с минимальным качеством.
+     */
+    public EncodedJpeg encodeToBudget(BufferedImage image, long maxBytes,
+                                      float minQuality, float maxQuality) throws IOException {
+        byte[] bytes = encode(image, maxQuality);
+        int attempts = 1;
+        if (bytes.length <= maxBytes) {
+            return new EncodedJpeg(bytes, maxQuality, attempts);
+        }
+
+        byte[] best = null;
+        float bestQuality = minQuality;
+        float low = minQuality;
+        float high = maxQuality;
+
+        while (high - low > QUALITY_PRECISION) {
+            float mid = (low + high) / 2;
+            byte[] candidate = encode(image, mid);
+            attempts++;
+            if (candidate.length <= maxBytes) {
+                best = candidate;
+                bestQuality = mid;
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+
+        if (best == null) {
+            best = encode(image, minQuality);
+            attempts++;
+        }
+        return new EncodedJpeg(best, bestQuality, attempts);
+    }
+
+    /**
+     * Грубая оценка размера для начальной емкости буфера (0.1 + q/3 байта на пиксель: ~0.3 байта, 2.4 бита при q=0.6)
+     */
+    private int estimateSize(BufferedImage image, float quality) {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(8 * 1024, pixels * (0.1 + quality / 3)));
+    }
+
+    private static ImageWriter createWriter() {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IllegalStateException("JPEG кодировщик недоступен в ImageIO");
+        }
+        return writers.next();
+    }
+
+    /**
+     * Результат кодирования с выбранным качеством
+     */
+    public static class EncodedJpeg {
+        private final byte[] bytes;
+        private final float quality;
+        private final int attempts;
+
+        public EncodedJpeg(byte[] bytes, float quality, int attempts) {
+            this.bytes = bytes;
+            this.quality = quality;
+            this.attempts = attempts;
+        }
+
+        public byte[] getBytes() { return bytes; }
+        public float getQuality() { return quality; }
+        public int getAttempts() { return attempts; }
+    }
+}
@@ -3,30 +3,41 @@ package com.fitcoach.infrastructure.ai;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.completion.chat.ChatMessageRole;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
-import com.theokanning.openai.image.ImageResult;
 import com.theokanning.openai.service.OpenAiService;
-import java.net.URI;
-import java.net.http.HttpClient;
+import com.fitcoach.infrastructure.ai.cache.FoodAnalysisCache;
+import com.fitcoach.infrastructure.ai.common.ChatStreamListener;
+import com.fitcoach.infrastructure.ai.common.Deadline;
+import com.fitcoach.infrastructure.ai.common.RequestCoalescer;
+import com.fitcoach.infrastructure.ai.common.TokenCounter;
+import com.fitcoach.infrastructure.ai.http.AiHttpClient;
+import com.fitcoach.infrastructure.ai.http.AiProvider;
+import com.fitcoach.infrastructure.ai.http.AiRateLimitedException;
+import com.fitcoach.service.AiUsageLedger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Сервис для работы с OpenAI API
@@ -37,11 +48,35 @@ public class OpenAIService {
     
     private static final Logger logger = LoggerFactory.getLogger(OpenAIService.class);
     
-    private final OpenAiService openAiService;
+    // Маппер с настройками OpenAI DTO (snake_case, без null полей)
+    private static final ObjectMapper OPENAI_MAPPER = OpenAiService.defaultObjectMapper();
+    
+    private final AiHttpClient httpClient;
     private final ObjectMapper objectMapper;
     private final ImageProcessor imageProcessor;
+    private final FoodAnalysisCache foodAnalysisCache;
+    private final RequestCoalescer requestCoalescer;
+    private final AiUsageLedger usageLedger;
+    private final VisionTokenEstimator visionTokenEstimator;
+    private final TokenCounter tokenCounter;
+    private final MeterRegistry meterRegistry;
     private final String apiKey;
     
+    // GPT-4o: $2.50 за 1M входящих и $10 за 1M исходящих токенов
+    private static final String VISION_MODEL = "gpt-4o";
+    private static final double VISION_PROMPT_PRICE = 2.50 / 1_000_000;
+    private static final double VISION_COMPLETION_PRICE = 10.0 / 1_000_000;
+    // GPT-4o-mini (чат-бот): $0.15 за 1M входящих и $0.60 за 1M исходящих токенов
+    private static final String CHAT_MODEL = "gpt-4o-mini";
+    private static final double CHAT_PROMPT_PRICE = 0.15 / 1_000_000;
+    private static final double CHAT_COMPLETION_PRICE = 0.60 / 1_000_000;
+    private static final String STREAM_DONE = "[DONE]";
+    // Служебные токены на сообщение чата (роль и границы)
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    // Вопрос в чат-бот длиннее обрезается (ответ ограничен 400 токенами)
+    private static final int CHAT_MAX_INPUT_TOKENS = 2000;
+    private static final int DEFAULT_CHAT_MAX_TOKENS = 1000;
+    
     // Точный русский промпт для OpenAI (v7.0)
     private static final String NUTRITION_ANALYSIS_PROMPT = """
         Ты эксперт по питанию. Внимательно проанализируй фото еды и дай точную оценку калорийности.
@@ -54,25 +89,70 @@ public class OpenAIService {
         
         ВАЖНО: Используй реальные калории из базы данных, не завышай. ТОЛЬКО JSON без пояснений!
         """;
+    
+    // Промпт в одну строку для запроса с изображением (меньше токенов)
+    private static final String VISION_PROMPT = NUTRITION_ANALYSIS_PROMPT.replace("\n", " ");
 
-    public OpenAIService(@Value("${openai.api-key}") String apiKey, ImageProcessor imageProcessor) {
+    public OpenAIService(@Value("${openai.api-key}") String apiKey, ImageProcessor imageProcessor,
+                         AiHttpClient httpClient, FoodAnalysisCache foodAnalysisCache,
+                         RequestCoalescer requestCoalescer, AiUsageLedger usageLedger,
+                         VisionTokenEstimator visionTokenEstimator, TokenCounter tokenCounter,
+                         MeterRegistry meterRegistry) {
         this.apiKey = apiKey;
-        this.openAiService = new OpenAiService(apiKey, Duration.ofSeconds(60));
+        this.meterRegistry = meterRegistry;
+        this.tokenCounter = tokenCounter;
+        this.usageLedger = usageLedger;
+        this.visionTokenEstimator = visionTokenEstimator;
+        this.foodAnalysisCache = foodAnalysisCache;
+        this.requestCoalescer = requestCoalescer;
+        this.httpClient = httpClient;
         this.objectMapper = new ObjectMapper();
         this.imageProcessor = imageProcessor;
     }
 
     /**
      * Анализирует фото еды и возвращает питательную информацию
-     * Результат кэшируется для повышения производительности
+     * Без кэша: кэширование по перцептивному хэшу - в analyzeFoodImageFromBytes
+     * Одновременные запросы с тем же изображением выполняются одним вызовом OpenAI
      */
-    @Cacheable(value = "nutritionAnalysis", key = "#imageBase64.hashCode()")
     public NutritionAnalysis analyzeFoodImage(String imageBase64) {
+        return requestCoalescer.execute(RequestCoalescer.key("vision", imageBase64),
+            () -> analyzeFoodImage(VisionRequestBody.ofBase64(imageBase64),
+                visionTokenEstimator.planForProcessed(VISION_PROMPT), null));
+    }
+    
+    /**
+     * Анализирует уже обработанное JPEG изображение (base64 кодируется потоково при отправке)
+     */
+    public NutritionAnalysis analyzeFoodImage(byte[] jpegBytes) {
+        return analyzeFoodImage(jpegBytes, null);
+    }
+    
+    /**
+     * То же с учетом токенов на пользователя (объединенный вызов учитывается на первого)
+     */
+    public NutritionAnalysis analyzeFoodImage(byte[] jpegBytes, String userId) {
+        return requestCoalescer.execute(RequestCoalescer.key("vision", jpegBytes),
+            () -> analyzeFoodImage(VisionRequestBody.ofJpeg(jpegBytes),
+                visionTokenEstimator.planForProcessed(VISION_PROMPT), userId));
+    }
+    
+    /**
+     * Анализ изображения после ImageProcessor: detail и max_tokens по его размерам
+     */
+    private NutritionAnalysis analyzeProcessedImage(ImageProcessor.ProcessedImage image, String userId) {
+        return requestCoalescer.execute(RequestCoalescer.key("vision", image.getJpegBytes()),
+            () -> analyzeFoodImage(VisionRequestBody.ofJpeg(image.getJpegBytes()),
+                visionTokenEstimator.plan(VISION_PROMPT, image.getWidth(), image.getHeight()), userId));
+    }
+    
+    private NutritionAnalysis analyzeFoodImage(VisionRequestBody.Builder requestBuilder,
+                                               VisionTokenEstimator.VisionPlan plan, String userId) {
         try {
-            logger.info("Начинаю анализ изображения еды через OpenAI GPT-4V");
+            logger.info("Начинаю анализ изображения еды через OpenAI GPT-4V (detail={})", plan.getDetail());
             
             // Используем прямой HTTP запрос для правильной отправки изображений
-            String httpResponse = sendImageToOpenAI(imageBase64);
+            String httpResponse = sendImageToOpenAI(visionRequest(requestBuilder, plan), plan.getEstimatedTotalTokens());
             
             if (httpResponse == null || httpResponse.trim().isEmpty()) {
                 logger.warn("Получен пустой ответ от OpenAI");
@@ -82,13 +162,10 @@ public class OpenAIService {
             // Парсим ответ как ChatCompletion результат
             JsonNode jsonResponse = objectMapper.readTree(httpResponse);
             
-            // Логируем использование токенов если есть
+            // Учитываем использование токенов если есть
             if (jsonResponse.has("usage")) {
-                JsonNode usage = jsonResponse.get("usage");
-                logger.info("Использовано токенов - Входящие: {}, Исходящие: {}, Всего: {}", 
-                    usage.get("prompt_tokens").asInt(),
-                    usage.get("completion_tokens").asInt(),
-                    usage.get("total_tokens").asInt());
+                recordVisionUsage(jsonResponse.get("usage"), userId);
+                visionTokenEstimator.recordActual(plan, jsonResponse.get("usage").path("prompt_tokens").asInt());
             }
             
             if (jsonResponse.has("choices") && jsonResponse.get("choices").size() > 0) {
@@ -139,6 +216,10 @@ public class OpenAIService {
                 return createErrorAnalysis("OpenAI не вернул ответ. Проверьте подключение и попробуйте снова.");
             }
             
+        } catch (AiRateLimitedException e) {
+            long seconds = Math.max(1, e.getRetryAfter().toSeconds());
+            logger.warn("🐢 Анализ изображения отложен лимитом OpenAI: {}", e.getMessage());
+            return createErrorAnalysis("⏳ Сервис анализа фото сейчас перегружен. Повторите через " + seconds + " с.");
         } catch (Exception e) {
             logger.error("Ошибка при анализе изображения еды: {}", e.getMessage(), e);
             
@@ -166,6 +247,17 @@ public class OpenAIService {
         }
     }
 
+    private void recordVisionUsage(JsonNode usage, String userId) {
+        int promptTokens = usage.path("prompt_tokens").asInt();
+        int completionTokens = usage.path("completion_tokens").asInt();
+        int totalTokens = usage.path("total_tokens").asInt(promptTokens + completionTokens);
+        logger.info("Использовано токенов - Входящие: {}, Исходящие: {}, Всего: {}", 
+            promptTokens, completionTokens, totalTokens);
+        usageLedger.record(userId, AiProvider.OPENAI.getKey(), VISION_MODEL, "FOOD_ANALYSIS",
+            promptTokens, completionTokens, totalTokens,
+            promptTokens * VISION_PROMPT_PRICE + completionTokens * VISION_COMPLETION_PRICE);
+    }
+
     /**
      * Анализирует фото еды из файла с обработкой изображения
      */
@@ -184,28 +276,53 @@ public class OpenAIService {
     
     /**
      * Анализирует фото еды из массива байт с предварительной обработкой
+     * Одинаковые одновременные загрузки обрабатываются и анализируются один раз
      */
     public NutritionAnalysis analyzeFoodImageFromBytes(byte[] imageBytes, String fileName) {
-        try {
+        return analyzeFoodImageFromBytes(imageBytes, fileName, null);
+    }
+    
+    /**
+     * То же с учетом токенов на пользователя
+     */
+    public NutritionAnalysis analyzeFoodImageFromBytes(byte[] imageBytes, String fileName, String userId) {
+        return requestCoalescer.execute(RequestCoalescer.key("photo", imageBytes),
+            () -> processAndAnalyze(imageBytes, fileName, userId));
+    }
+    
+    private NutritionAnalysis processAndAnalyze(byte[] imageBytes, String fileName, String userId) {
+        try (ImagePipeline pipeline = imageProcessor.openPipeline(imageBytes)) {
             logger.info("🔍 Анализ изображения: {}, размер: {} bytes", fileName, imageBytes.length);
             
-            // Валидируем изображение
-            ImageProcessor.ImageValidationResult validation = imageProcessor.validateImage(imageBytes, fileName);
+            // Валидируем изображение (только заголовок, без декодирования)
+            ImageProcessor.ImageValidationResult validation = imageProcessor.validateImage(pipeline, imageBytes, fileName);
             if (!validation.isValid()) {
                 logger.warn("❌ Валидация изображения не пройдена: {}", validation.getMessage());
                 return createErrorAnalysis("Некорректное изображение: " + validation.getMessage());
             }
             
-            // Обрабатываем изображение для OpenAI
+            // Обрабатываем изображение для OpenAI в том же конвейере
             ImageProcessor.ProcessedImage processedImage = imageProcessor.processImageForAI(
-                imageBytes, getFileExtension(fileName));
+                pipeline, imageBytes, getFileExtension(fileName));
             
-            logger.info("✅ Изображение обработано: {}x{}, {} bytes, сжатие: {:.1f}%", 
+            logger.info("✅ Изображение обработано: {}x{}, {} bytes, стадии: {}", 
                 processedImage.getWidth(), processedImage.getHeight(), 
-                processedImage.getFileSize(), processedImage.getCompressionRatio());
+                processedImage.getFileSize(), processedImage.getTimings());
+            
+            // Похожее фото уже анализировали - отвечаем из кэша без вызова OpenAI
+            long perceptualHash = processedImage.getPerceptualHash();
+            Optional<NutritionAnalysis> cached = foodAnalysisCache.get(perceptualHash);
+            if (cached.isPresent()) {
+                logger.info("✅ Анализ найден в кэше по перцептивному хэшу {}", Long.toHexString(perceptualHash));
+                return cached.get();
+            }
             
             // Анализируем обработанное изображение
-            return analyzeFoodImage(processedImage.getBase64Data());
+            NutritionAnalysis analysis = analyzeProcessedImage(processedImage, userId);
+            if (analysis.getDetectedFoods() != null && !analysis.getDetectedFoods().isEmpty()) {
+                foodAnalysisCache.put(perceptualHash, analysis);
+            }
+            return analysis;
             
         } catch (Exception e) {
             logger.error("❌ Ошибка при обработке изображения: {}", e.getMessage(), e);
@@ -230,49 +347,7 @@ public class OpenAIService {
         try {
             logger.info("Обработка сообщения пользователя: {}", userMessage);
             
-            String systemPrompt = """
-                Ты - персональный фитнес тренер и нутрициолог в приложении FitCoach. Обращайся к пользователю на "ты".
-                
-                📋 СТРУКТУРА ОТВЕТОВ:
-                
-                🎯 **Главное:** [краткий ответ]
-                
-                📊 **Детали:**
-                • Пункт 1
-                • Пункт 2  
-                • Пункт 3
-                
-                💡 **Рекомендации:**
-                ✅ Что делать
-                ❌ Чего избегать
-                
-                🚀 **Следующий шаг:** [конкретное действие]
-                
-                ТВОЯ РОЛЬ КАК ТРЕНЕРА:
-                - Мотивируй и поддерживай 
-                - Давай конкретные планы действий
-                - Объясняй "почему" за каждым советом
-                - Адаптируй советы под цели пользователя
-                - Отслеживай прогресс и корректируй подход
-                
-                Контекст пользователя: """ + (userContext != null ? userContext : "Новый подопечный") + """
-                
-                Пиши по-русски, будь мотивирующим но реалистичным. Используй эмодзи для структуры.
-                """;
-
-            List<ChatMessage> messages = Arrays.asList(
-                new ChatMessage(ChatMessageRole.SYSTEM.value(), systemPrompt),
-                new ChatMessage(ChatMessageRole.USER.value(), userMessage)
-            );
-
-            ChatCompletionRequest chatRequest = ChatCompletionRequest.builder()
-                    .model("gpt-4o-mini") // GPT-4o-mini для чата - в 4 раза дешевле GPT-4
-                    .messages(messages)
-                    .maxTokens(400) // Оптимизировано для экономии
-                    .temperature(0.7) // Умеренная креативность
-                    .build();
-
-            var completion = openAiService.createChatCompletion(chatRequest);
+            var completion = createChatCompletion(nutritionBotRequest(userMessage, userContext));
             String response = completion.getChoices().get(0).getMessage().getContent();
             
             logger.info("Ответ чат-бота: {}", response);
@@ -283,6 +358,173 @@ public class OpenAIService {
             return "Извините, произошла ошибка при обработке вашего запроса. Попробуйте позже.";
         }
     }
+    
+    /**
+     * Чат-бот с потоковым ответом (stream: true): фрагменты текста уходят в listener
+     * по мере генерации, время до первого токена - метрика ai.stream.ttft
+     *
+     * Если поток прерван (клиент отключился), ответ-ошибка несет последнее
+     * полученное usage, а без него - оценку по запросу и уже полученному тексту:
+     * прерванная генерация тоже оплачена.
+     *
+     * @return итоговый ответ с полным текстом и использованием токенов
+     */
+    public com.fitcoach.infrastructure.ai.common.AIResponse streamChatWithNutritionBot(
+            String userMessage, String userContext, ChatStreamListener listener) {
+        long start = System.nanoTime();
+        StreamState state = new StreamState();
+        ChatCompletionRequest chatRequest = null;
+        try {
+            logger.info("Потоковая обработка сообщения пользователя: {}", userMessage);
+            
+            chatRequest = nutritionBotRequest(userMessage, userContext);
+            chatRequest.setStream(true);
+            // Последнее событие потока - usage (без него токены потокового ответа неизвестны)
+            ObjectNode body = OPENAI_MAPPER.valueToTree(chatRequest);
+            body.putObject("stream_options").put("include_usage", true);
+            
+            HttpRequest request = httpClient.newRequest(AiProvider.OPENAI, "/v1/chat/completions")
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(OPENAI_MAPPER.writeValueAsBytes(body)))
+                .build();
+            
+            httpClient.stream(AiProvider.OPENAI, request, data -> {
+                if (STREAM_DONE.equals(data)) {
+                    return;
+                }
+                JsonNode chunk = readStreamChunk(data);
+                String delta = chunk.path("choices").path(0).path("delta").path("content").asText("");
+                if (!delta.isEmpty()) {
+                    if (state.text.isEmpty()) {
+                        streamTimer("ai.stream.ttft", "Время до первого токена потокового ответа")
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                    state.text.append(delta);
+                    listener.onDelta(delta);
+                }
+                if (chunk.hasNonNull("usage")) {
+                    state.usage = chunk.get("usage");
+                }
+            }, estimateTokens(chatRequest));
+            
+            streamTimer("ai.stream.duration", "Длительность потокового ответа")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (state.text.isEmpty()) {
+                return com.fitcoach.infrastructure.ai.common.AIResponse.error("Пустой ответ от OpenAI", "openai");
+            }
+            int tokensUsed = state.usage != null ? state.usage.path("total_tokens").asInt() : 0;
+            double cost = state.usage != null
+                ? state.usage.path("prompt_tokens").asInt() * CHAT_PROMPT_PRICE
+                    + state.usage.path("completion_tokens").asInt() * CHAT_COMPLETION_PRICE
+                : 0.0;
+            logger.info("Потоковый ответ чат-бота: {} символов, {} токенов", state.text.length(), tokensUsed);
+            return com.fitcoach.infrastructure.ai.common.AIResponse
+                .success(state.text.toString(), "openai", CHAT_MODEL)
+                .withUsage(tokensUsed, cost);
+            
+        } catch (Exception e) {
+            logger.error("❌ Ошибка потокового ответа чат-бота после {} символов: {}", state.text.length(), e.getMessage());
+            com.fitcoach.infrastructure.ai.common.AIResponse error = com.fitcoach.infrastructure.ai.common.AIResponse
+                .error("Ошибка обработки запроса: " + e.getMessage(), "openai");
+            return chatRequest != null ? withAbortedStreamUsage(error, state, chatRequest) : error;
+        }
+    }
+    
+    /**
+     * Использование прерванного потока: последнее полученное usage или оценка
+     * (запрос + полученный текст), если генерация уже началась
+     */
+    private com.fitcoach.infrastructure.ai.common.AIResponse withAbortedStreamUsage(
+            com.fitcoach.infrastructure.ai.common.AIResponse response, StreamState state,
+            ChatCompletionRequest chatRequest) {
+        long promptTokens;
+        long completionTokens;
+        if (state.usage != null) {
+            promptTokens = state.usage.path("prompt_tokens").asLong();
+            completionTokens = state.usage.path("completion_tokens").asLong();
+        } else if (!state.text.isEmpty()) {
+            promptTokens = promptTokens(chatRequest);
+            completionTokens = tokenCounter.count(state.text.toString());
+        } else {
+            return response;
+        }
+        return response.withUsage((int) (promptTokens + completionTokens),
+            promptTokens * CHAT_PROMPT_PRICE + completionTokens * CHAT_COMPLETION_PRICE);
+    }
+    
+    /**
+     * Запрос к чат-боту: системный промпт тренера + вопрос пользователя
+     */
+    private ChatCompletionRequest nutritionBotRequest(String userMessage, String userContext) {
+        String systemPrompt = """
+            Ты - персональный фитнес тренер и нутрициолог в приложении FitCoach. Обращайся к пользователю на "ты".
+            
+            📋 СТРУКТУРА ОТВЕТОВ:
+            
+            🎯 **Главное:** [краткий ответ]
+            
+            📊 **Детали:**
+            • Пункт 1
+            • Пункт 2  
+            • Пункт 3
+            
+            💡 **Рекомендации:**
+            ✅ Что делать
+            ❌ Чего избегать
+            
+            🚀 **Следующий шаг:** [конкретное действие]
+            
+            ТВОЯ РОЛЬ КАК ТРЕНЕРА:
+            - Мотивируй и поддерживай 
+            - Давай конкретные планы действий
+            - Объясняй "почему" за каждым советом
+            - Адаптируй советы под цели пользователя
+            - Отслеживай прогресс и корректируй подход
+            
+            Контекст пользователя: """ + (userContext != null ? userContext : "Новый подопечный") + """
+            
+            Пиши по-русски, будь мотивирующим но реалистичным. Используй эмодзи для структуры.
+            """;
+
+        List<ChatMessage> messages = Arrays.asList(
+            new ChatMessage(ChatMessageRole.SYSTEM.value(), systemPrompt),
+            new ChatMessage(ChatMessageRole.USER.value(), tokenCounter.truncateToTokens(userMessage, CHAT_MAX_INPUT_TOKENS))
+        );
+
+        return ChatCompletionRequest.builder()
+                .model(CHAT_MODEL) // GPT-4o-mini для чата - в 4 раза дешевле GPT-4
+                .messages(messages)
+                .maxTokens(400) // Оптимизировано для экономии
+                .temperature(0.7) // Умеренная креативность
+                .build();
+    }
+    
+    private static JsonNode readStreamChunk(String data) {
+        try {
+            return OPENAI_MAPPER.readTree(data);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private Timer streamTimer(String name, String description) {
+        return Timer.builder(name)
+            .tag("provider", AiProvider.OPENAI.getKey())
+            .tag("model", CHAT_MODEL)
+            .description(description)
+            .publishPercentiles(0.5, 0.95)
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Накопленный текст и usage потокового ответа
+     */
+    private static class StreamState {
+        private final StringBuilder text = new StringBuilder();
+        private JsonNode usage;
+    }
 
     /**
      * Генерирует персональные рекомендации по питанию
@@ -315,7 +557,7 @@ public class OpenAIService {
                     .temperature(0.8)
                     .build();
 
-            var completion = openAiService.createChatCompletion(chatRequest);
+            var completion = createChatCompletion(chatRequest);
             String response = completion.getChoices().get(0).getMessage().getContent();
             
             // Парсим ответ в список рекомендаций
@@ -426,7 +668,7 @@ public class OpenAIService {
                     .maxTokens(5) // Минимум токенов для теста
                     .build();
 
-            openAiService.createChatCompletion(chatRequest);
+            createChatCompletion(chatRequest);
             return true;
             
         } catch (Exception e) {
@@ -435,71 +677,95 @@ public class OpenAIService {
         }
     }
     
+    /**
+     * Параметры запроса анализа еды (detail и max_tokens - из плана оценки токенов)
+     */
+    private VisionRequestBody visionRequest(VisionRequestBody.Builder builder, VisionTokenEstimator.VisionPlan plan) {
+        return builder
+            .model(VISION_MODEL)
+            .prompt(VISION_PROMPT)
+            .detail(plan.getDetail())
+            .maxTokens(plan.getMaxTokens())
+            .temperature(0.1)
+            .build();
+    }
+    
     /**
      * Отправляет изображение в OpenAI GPT-4V через HTTP API (правильный формат)
      */
-    private String sendImageToOpenAI(String base64Image) {
+    private String sendImageToOpenAI(VisionRequestBody requestBody, long estimatedTokens) {
         try {
-            // Создаем JSON вручную для надежности
-            String cleanPrompt = NUTRITION_ANALYSIS_PROMPT.replace("\"", "\\\"").replace("\n", " ");
-            
-            String requestBody = String.format("""
-                {
-                  "model": "gpt-4o",
-                  "messages": [
-                    {
-                      "role": "user",
-                      "content": [
-                        {
-                          "type": "text",
-                          "text": "%s"
-                        },
-                        {
-                          "type": "image_url",
-                          "image_url": {
-                            "url": "data:image/jpeg;base64,%s"
-                          }
-                        }
-                      ]
-                    }
-                  ],
-                  "max_tokens": 800,
-                  "temperature": 0.1
-                }
-                """, cleanPrompt, base64Image);
+            logger.debug("📤 Отправляемый JSON размер: {} байт", requestBody.contentLength());
             
-            logger.debug("📤 Отправляемый JSON размер: {} символов", requestBody.length());
-            
-            HttpClient client = HttpClient.newHttpClient();
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.openai.com/v1/chat/completions"))
+            HttpRequest request = httpClient.newRequest(AiProvider.OPENAI, "/v1/chat/completions")
                 .header("Content-Type", "application/json")
                 .header("Authorization", "Bearer " + apiKey)
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .POST(requestBody.publisher())
                 .build();
             
             logger.info("Отправляю изображение в OpenAI GPT-4V через HTTP API...");
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            // Тело с base64 изображением не годится для оценки токенов по размеру - оценка из плана
+            HttpResponse<String> response = httpClient.send(AiProvider.OPENAI, request,
+                HttpResponse.BodyHandlers.ofString(), estimatedTokens);
             
             if (response.statusCode() == 200) {
                 logger.info("✅ Успешный ответ от OpenAI GPT-4V");
                 logger.debug("🔍 Полный ответ OpenAI: {}", response.body().substring(0, Math.min(500, response.body().length())));
                 return response.body();
+            } else if (response.statusCode() == 429) {
+                throw new AiRateLimitedException(AiProvider.OPENAI, "429",
+                    Duration.ofSeconds(response.headers().firstValueAsLong("retry-after").orElse(1)));
             } else {
                 logger.error("❌ OpenAI API вернул ошибку: {} - {}", response.statusCode(), response.body());
                 return null;
             }
             
+        } catch (AiRateLimitedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("❌ Ошибка при отправке HTTP запроса в OpenAI: {}", e.getMessage(), e);
             return null;
         }
     }
     
+    /**
+     * Chat Completions через общий HTTP клиент (вместо отдельного OkHttp клиента библиотеки)
+     */
+    private ChatCompletionResult createChatCompletion(ChatCompletionRequest chatRequest) throws IOException, InterruptedException {
+        return createChatCompletion(chatRequest, Deadline.none());
+    }
+    
+    private ChatCompletionResult createChatCompletion(ChatCompletionRequest chatRequest, Deadline deadline) throws IOException, InterruptedException {
+        HttpRequest request = httpClient.newRequest(AiProvider.OPENAI, "/v1/chat/completions", deadline)
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer " + apiKey)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(OPENAI_MAPPER.writeValueAsBytes(chatRequest)))
+            .build();
+        
+        HttpResponse<byte[]> response = AiHttpClient.requireSuccess(AiProvider.OPENAI,
+            httpClient.send(AiProvider.OPENAI, request, HttpResponse.BodyHandlers.ofByteArray(),
+                estimateTokens(chatRequest)));
+        return OPENAI_MAPPER.readValue(response.body(), ChatCompletionResult.class);
+    }
+    
+    /**
+     * Оценка токенов запроса для лимитера OpenAI: сообщения + максимум ответа
+     */
+    private long estimateTokens(ChatCompletionRequest chatRequest) {
+        int maxTokens = chatRequest.getMaxTokens() != null ? chatRequest.getMaxTokens() : DEFAULT_CHAT_MAX_TOKENS;
+        return promptTokens(chatRequest) + maxTokens;
+    }
+    
+    private long promptTokens(ChatCompletionRequest chatRequest) {
+        return chatRequest.getMessages().stream()
+            .mapToLong(message -> tokenCounter.count(message.getContent()) + MESSAGE_OVERHEAD_TOKENS)
+            .sum();
+    }
+    
     /**
      * Обработка текстового запроса для LLM Router
      */
-    public com.fitcoach.infrastructure.ai.common.AIResponse processText(String content, String context) {
+    public com.fitcoach.infrastructure.ai.common.AIResponse processText(String content, String context, Deadline deadline) {
         try {
             logger.info("🧠 OpenAI обработка текста: контекст={}, длина={}", context, content.length());
             
@@ -515,7 +781,7 @@ public class OpenAIService {
                 .maxTokens(500)
                 .build();
                 
-            ChatCompletionResult result = openAiService.createChatCompletion(request);
+            ChatCompletionResult result = createChatCompletion(request, deadline);
             
             if (result != null && !result.getChoices().isEmpty()) {
                 String responseContent = result.getChoices().get(0).getMessage().getContent();
@@ -0,0 +1,61 @@
+package com.fitcoach.infrastructure.ai;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Перцептивный хэш изображения (dHash, 64 бита)
+ *
+ * Изображение усредняется в сетку 9x8 по яркости, каждый бит - знак
+ * разности соседних ячеек в строке. Повторное JPEG сжатие и небольшое
+ * изменение размера меняют лишь несколько бит, поэтому похожие фото
+ * сравниваются по расстоянию Хэмминга.
+ */
+public final class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Вычисляет dHash по уже уменьшенному растру
+     */
+    public static long dHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] sums = new long[GRID_WIDTH * GRID_HEIGHT];
+        int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = (int) ((long) y * GRID_HEIGHT / height) * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luma = (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114) / 1000;
+                int cell = cellRow + (int) ((long) x * GRID_WIDTH / width);
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int left = y * GRID_WIDTH + x;
+                long leftAvg = counts[left] > 0 ? sums[left] / counts[left] : 0;
+                long rightAvg = counts[left + 1] > 0 ? sums[left + 1] / counts[left + 1] : 0;
+                hash = (hash << 1) | (leftAvg > rightAvg ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Расстояние Хэмминга между двумя хэшами (0 - 64)
+     */
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+}
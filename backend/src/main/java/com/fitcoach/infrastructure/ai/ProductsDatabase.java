@@ -5,6 +5,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -16,6 +18,10 @@ public class ProductsDatabase {
     
     private static final Logger logger = LoggerFactory.getLogger(ProductsDatabase.class);
     
+    private static final Pattern DESCRIPTION_SEPARATOR = Pattern.compile("[,;\\n+]|\\s+(?:и|с|со)\\s+");
+    // Единица - отдельное слово: "2 груши" и "100 гречки" - не граммы
+    private static final Pattern GRAMS = Pattern.compile("(\\d+(?:[.,]\\d+)?)\\s*(?:грамм[а-я]*|гр|г)(?![а-яё])\\.?");
+    
     private final Map<String, FoodProduct> productsDB;
     private final Map<String, List<String>> categoryKeywords;
     
@@ -101,6 +107,39 @@ public class ProductsDatabase {
         return analysis;
     }
     
+    /**
+     * Оценка по текстовому описанию без ИИ: "гречневая каша 200г, курица 150 г"
+     * Части описания разделяются запятой, "и", "с"; вес без граммов - 100 г
+     */
+    public Optional<NutritionAnalysis> estimateFromText(String description) {
+        if (description == null || description.isBlank()) {
+            return Optional.empty();
+        }
+        
+        List<NutritionAnalysis.DetectedFood> foods = new ArrayList<>();
+        for (String part : DESCRIPTION_SEPARATOR.split(description.toLowerCase())) {
+            Matcher grams = GRAMS.matcher(part);
+            double weight = grams.find() ? Double.parseDouble(grams.group(1).replace(',', '.')) : 100.0;
+            findProduct(grams.replaceAll(" ")).ifPresent(product -> foods.addAll(
+                createAnalysisFromProduct(product, Math.round(weight) + " г", weight).getDetectedFoods()));
+        }
+        if (foods.isEmpty()) {
+            return Optional.empty();
+        }
+        
+        NutritionAnalysis analysis = new NutritionAnalysis();
+        analysis.setDetectedFoods(foods);
+        analysis.setTotalCalories(foods.stream().mapToDouble(NutritionAnalysis.DetectedFood::getCalories).sum());
+        analysis.setTotalProteins(foods.stream().mapToDouble(NutritionAnalysis.DetectedFood::getProteins).sum());
+        analysis.setTotalFats(foods.stream().mapToDouble(NutritionAnalysis.DetectedFood::getFats).sum());
+        analysis.setTotalCarbs(foods.stream().mapToDouble(NutritionAnalysis.DetectedFood::getCarbs).sum());
+        // Вес и состав угаданы по тексту - уверенность ниже, чем у найденного продукта
+        analysis.setConfidenceLevel(0.6);
+        analysis.setAnalysisNotes("Приблизительная оценка по базе продуктов");
+        analysis.setHealthRecommendations(Collections.emptyList());
+        return Optional.of(analysis);
+    }
+    
     /**
      * Инициализирует базу продуктов
      */
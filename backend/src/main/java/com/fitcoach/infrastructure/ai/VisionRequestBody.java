@@ -0,0 +1,242 @@
+package com.fitcoach.infrastructure.ai;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Потоковое тело запроса к OpenAI Chat Completions с изображением
+ *
+ * JSON собирается из заранее сериализованных префикса и суффикса, а
+ * изображение кодируется в base64 прямо при чтении тела HTTP клиентом.
+ * Полноразмерные промежуточные строки (base64, отформатированный JSON,
+ * копия для BodyPublishers.ofString) не создаются.
+ */
+public class VisionRequestBody {
+
+    private static final byte[] BASE64_ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private final byte[] jpegBytes;
+    private final String base64Image;
+
+    private VisionRequestBody(Builder builder, byte[] jpegBytes, String base64Image) {
+        this.jpegBytes = jpegBytes;
+        this.base64Image = base64Image;
+
+        StringBuilder head = new StringBuilder(256 + builder.prompt.length());
+        head.append("{\"model\":");
+        appendQuoted(head, builder.model);
+        head.append(",\"messages\":[{\"role\":\"user\",\"content\":[{\"type\":\"text\",\"text\":");
+        appendQuoted(head, builder.prompt);
+        head.append("},{\"type\":\"image_url\",\"image_url\":{\"url\":\"data:image/jpeg;base64,");
+        this.prefix = head.toString().getBytes(StandardCharsets.UTF_8);
+
+        StringBuilder tail = new StringBuilder(96);
+        tail.append('"');
+        if (builder.detail != null) {
+            tail.append(",\"detail\":");
+            appendQuoted(tail, builder.detail);
+        }
+        tail.append("}}]}],\"max_tokens\":").append(builder.maxTokens)
+            .append(",\"temperature\":").append(builder.temperature)
+            .append('}');
+        this.suffix = tail.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Тело для сырых JPEG байт (base64 кодируется на лету)
+     */
+    public static Builder ofJpeg(byte[] jpegBytes) {
+        return new Builder(jpegBytes, null);
+    }
+
+    /**
+     * Тело для уже закодированного base64 (строка передается посимвольно, без копии)
+     */
+    public static Builder ofBase64(String base64Image) {
+        return new Builder(null, base64Image);
+    }
+
+    /**
+     * Точная длина тела в байтах
+     */
+    public long contentLength() {
+        return prefix.length + payloadLength() + suffix.length;
+    }
+
+    /**
+     * BodyPublisher для java.net.http с известной длиной тела
+     */
+    public HttpRequest.BodyPublisher publisher() {
+        return HttpRequest.BodyPublishers.fromPublisher(
+            HttpRequest.BodyPublishers.ofInputStream(this::newStream), contentLength());
+    }
+
+    /**
+     * Новый поток тела (каждая отправка запроса читает свой)
+     */
+    InputStream newStream() {
+        return new BodyStream();
+    }
+
+    private long payloadLength() {
+        if (jpegBytes != null) {
+            return 4L * ((jpegBytes.length + 2) / 3);
+        }
+        return base64Image.length();
+    }
+
+    private static void appendQuoted(StringBuilder target, String value) {
+        target.append('"');
+        JsonStringEncoder.getInstance().quoteAsString(value, target);
+        target.append('"');
+    }
+
+    /**
+     * Кодирует группу из 1-3 байт в 4 символа base64 (с дополнением '=')
+     */
+    private static void encodeGroup(byte[] src, int pos, int count, byte[] dst, int dstPos) {
+        int b0 = src[pos] & 0xff;
+        int b1 = count > 1 ? src[pos + 1] & 0xff : 0;
+        int b2 = count > 2 ? src[pos + 2] & 0xff : 0;
+
+        dst[dstPos] = BASE64_ALPHABET[b0 >>> 2];
+        dst[dstPos + 1] = BASE64_ALPHABET[((b0 & 0x03) << 4) | (b1 >>> 4)];
+        dst[dstPos + 2] = count > 1 ? BASE64_ALPHABET[((b1 & 0x0f) << 2) | (b2 >>> 6)] : (byte) '=';
+        dst[dstPos + 3] = count > 2 ? BASE64_ALPHABET[b2 & 0x3f] : (byte) '=';
+    }
+
+    /**
+     * Поток тела: префикс → base64 изображения → суффикс
+     */
+    private class BodyStream extends InputStream {
+        private final byte[] pending = new byte[4];
+        private int pendingPos = pending.length;
+        private int prefixPos;
+        private int payloadPos;
+        private int suffixPos;
+
+        @Override
+        public int read() {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            int written = 0;
+            if (prefixPos < prefix.length) {
+                int n = Math.min(len, prefix.length - prefixPos);
+                System.arraycopy(prefix, prefixPos, b, off, n);
+                prefixPos += n;
+                written += n;
+            }
+
+            written += jpegBytes != null
+                ? readJpeg(b, off + written, len - written)
+                : readBase64(b, off + written, len - written);
+
+            if (written < len && suffixPos < suffix.length) {
+                int n = Math.min(len - written, suffix.length - suffixPos);
+                System.arraycopy(suffix, suffixPos, b, off + written, n);
+                suffixPos += n;
+                written += n;
+            }
+
+            return written == 0 ? -1 : written;
+        }
+
+        private int readJpeg(byte[] b, int off, int len) {
+            int written = 0;
+            while (written < len) {
+                if (pendingPos < pending.length) {
+                    b[off + written++] = pending[pendingPos++];
+                    continue;
+                }
+
+                int remaining = jpegBytes.length - payloadPos;
+                if (remaining <= 0) {
+                    break;
+                }
+
+                if (remaining >= 3 && len - written >= 4) {
+                    encodeGroup(jpegBytes, payloadPos, 3, b, off + written);
+                    payloadPos += 3;
+                    written += 4;
+                } else {
+                    // Хвост буфера или последняя неполная группа - через промежуточные 4 байта
+                    int count = Math.min(3, remaining);
+                    encodeGroup(jpegBytes, payloadPos, count, pending, 0);
+                    payloadPos += count;
+                    pendingPos = 0;
+                }
+            }
+            return written;
+        }
+
+        private int readBase64(byte[] b, int off, int len) {
+            int n = Math.min(len, base64Image.length() - payloadPos);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) base64Image.charAt(payloadPos + i);
+            }
+            payloadPos += n;
+            return n;
+        }
+    }
+
+    /**
+     * Параметры запроса, общие для обоих источников изображения
+     */
+    public static class Builder {
+        private final byte[] jpegBytes;
+        private final String base64Image;
+        private String model = "gpt-4o";
+        private String prompt = "";
+        private String detail;
+        private int maxTokens = 800;
+        private double temperature = 0.1;
+
+        private Builder(byte[] jpegBytes, String base64Image) {
+            this.jpegBytes = jpegBytes;
+            this.base64Image = base64Image;
+        }
+
+        public Builder model(String model) {
+            this.model = model;
+            return this;
+        }
+
+        public Builder prompt(String prompt) {
+            this.prompt = prompt;
+            return this;
+        }
+
+        public Builder detail(String detail) {
+            this.detail = detail;
+            return this;
+        }
+
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder temperature(double temperature) {
+            this.temperature = temperature;
+            return this;
+        }
+
+        public VisionRequestBody build() {
+            return new VisionRequestBody(this, jpegBytes, base64Image);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.fitcoach.infrastructure.ai;
+
+import com.fitcoach.infrastructure.ai.common.TokenCounter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Оценка токенов запроса анализа фото до отправки в GPT-4o
+ *
+ * Изображение считается по формуле плиток OpenAI: detail=low - 85 токенов;
+ * detail=high - изображение вписывается в 2048×2048, короткая сторона
+ * уменьшается до 768, дальше 85 + 170 за каждую плитку 512×512. Промпт
+ * считается локальным BPE токенизатором TokenCounter (cl100k_base: o200k
+ * в jtokkit 0.5 нет, для кириллицы оценка получается с запасом).
+ *
+ * План выбирает detail=high, если запрос укладывается в token-budget,
+ * иначе detail=low; если не укладывается и low - уменьшается max_tokens
+ * (не ниже min-max-tokens). Фактический prompt_tokens из ответа
+ * сравнивается с оценкой (метрика ai.vision.tokens.estimate_ratio).
+ *
+ * Настройки: app.ai.vision.token-budget/max-tokens/min-max-tokens
+ */
+@Component
+public class VisionTokenEstimator {
+
+    private static final Logger logger = LoggerFactory.getLogger(VisionTokenEstimator.class);
+
+    public static final String DETAIL_LOW = "low";
+    public static final String DETAIL_HIGH = "high";
+
+    private static final int LOW_DETAIL_TOKENS = 85;
+    private static final int TILE_TOKENS = 170;
+    private static final int TILE_SIZE = 512;
+    private static final int MAX_SIDE = 2048;
+    private static final int SHORT_SIDE = 768;
+    // Служебные токены чата: роль и границы сообщения + затравка ответа
+    private static final int MESSAGE_OVERHEAD_TOKENS = 7;
+    // Размер после ImageProcessor, когда исходные размеры неизвестны (base64 API)
+    private static final int PROCESSED_SIDE = 512;
+
+    private final TokenCounter tokenCounter;
+    private final int tokenBudget;
+    private final int maxTokens;
+    private final int minMaxTokens;
+    private final MeterRegistry meterRegistry;
+
+    public VisionTokenEstimator(TokenCounter tokenCounter, Environment environment, MeterRegistry meterRegistry) {
+        this.tokenCounter = tokenCounter;
+        this.tokenBudget = environment.getProperty("app.ai.vision.token-budget", Integer.class, 1500);
+        this.maxTokens = environment.getProperty("app.ai.vision.max-tokens", Integer.class, 800);
+        this.minMaxTokens = Math.min(maxTokens, environment.getProperty("app.ai.vision.min-max-tokens", Integer.class, 400));
+        this.meterRegistry = meterRegistry;
+        logger.info("🖼️ Бюджет запроса анализа фото: {} токенов, max_tokens {}..{}", tokenBudget, minMaxTokens, maxTokens);
+    }
+
+    /**
+     * Токены изображения по формуле плиток OpenAI
+     */
+    public static int imageTokens(int width, int height, String detail) {
+        if (DETAIL_LOW.equals(detail) || width <= 0 || height <= 0) {
+            return LOW_DETAIL_TOKENS;
+        }
+        double scale = Math.min(1.0, (double) MAX_SIDE / Math.max(width, height));
+        double scaledWidth = width * scale;
+        double scaledHeight = height * scale;
+        double shortSide = Math.min(scaledWidth, scaledHeight);
+        if (shortSide > SHORT_SIDE) {
+            scaledWidth = scaledWidth * SHORT_SIDE / shortSide;
+            scaledHeight = scaledHeight * SHORT_SIDE / shortSide;
+        }
+        int tiles = (int) Math.ceil(scaledWidth / TILE_SIZE) * (int) Math.ceil(scaledHeight / TILE_SIZE);
+        return LOW_DETAIL_TOKENS + TILE_TOKENS * tiles;
+    }
+
+    /**
+     * Токены текста промпта с учетом служебных токенов сообщения
+     */
+    public int promptTokens(String prompt) {
+        return tokenCounter.count(prompt) + MESSAGE_OVERHEAD_TOKENS;
+    }
+
+    /**
+     * План запроса для изображения заданного размера
+     */
+    public VisionPlan plan(String prompt, int width, int height) {
+        int textTokens = promptTokens(prompt);
+        int highTokens = imageTokens(width, height, DETAIL_HIGH);
+
+        String detail = DETAIL_HIGH;
+        int imageTokens = highTokens;
+        if (textTokens + highTokens + maxTokens > tokenBudget) {
+            detail = DETAIL_LOW;
+            imageTokens = LOW_DETAIL_TOKENS;
+        }
+        int completionTokens = Math.max(minMaxTokens, Math.min(maxTokens, tokenBudget - textTokens - imageTokens));
+
+        VisionPlan plan = new VisionPlan(detail, textTokens + imageTokens, completionTokens);
+        if (plan.getEstimatedTotalTokens() > tokenBudget) {
+            logger.warn("⚠️ Запрос анализа фото {}x{} не укладывается в бюджет: {} > {} токенов",
+                width, height, plan.getEstimatedTotalTokens(), tokenBudget);
+        } else if (!DETAIL_HIGH.equals(detail) || completionTokens < maxTokens) {
+            logger.info("🖼️ Фото {}x{}: detail={}, max_tokens={} (high стоил бы {} токенов)",
+                width, height, detail, completionTokens, highTokens);
+        }
+        return plan;
+    }
+
+    /**
+     * План для изображения после ImageProcessor, когда размеры неизвестны
+     */
+    public VisionPlan planForProcessed(String prompt) {
+        return plan(prompt, PROCESSED_SIDE, PROCESSED_SIDE);
+    }
+
+    /**
+     * Фактические prompt_tokens из ответа OpenAI для калибровки оценки
+     */
+    public void recordActual(VisionPlan plan, int actualPromptTokens) {
+        if (actualPromptTokens <= 0) {
+            return;
+        }
+        tokens("ai.vision.tokens.estimated", plan.getDetail(), "Оценка входных токенов запроса анализа фото")
+            .record(plan.getEstimatedPromptTokens());
+        tokens("ai.vision.tokens.actual", plan.getDetail(), "Фактические входные токены запроса анализа фото")
+            .record(actualPromptTokens);
+        DistributionSummary.builder("ai.vision.tokens.estimate_ratio")
+            .tag("detail", plan.getDetail())
+            .baseUnit("percent")
+            .description("Фактические входные токены в процентах от оценки")
+            .register(meterRegistry)
+            .record(100.0 * actualPromptTokens / plan.getEstimatedPromptTokens());
+        logger.debug("🖼️ Токены фото: оценка {}, факт {} (detail={})",
+            plan.getEstimatedPromptTokens(), actualPromptTokens, plan.getDetail());
+    }
+
+    private DistributionSummary tokens(String name, String detail, String description) {
+        return DistributionSummary.builder(name)
+            .tag("detail", detail)
+            .baseUnit("tokens")
+            .description(description)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Выбранные параметры запроса и его оценка в токенах
+     */
+    public static class VisionPlan {
+        private final String detail;
+        private final int estimatedPromptTokens;
+        private final int maxTokens;
+
+        VisionPlan(String detail, int estimatedPromptTokens, int maxTokens) {
+            this.detail = detail;
+            this.estimatedPromptTokens = estimatedPromptTokens;
+            this.maxTokens = maxTokens;
+        }
+
+        public String getDetail() { return detail; }
+        /** Промпт + изображение + служебные токены */
+        public int getEstimatedPromptTokens() { return estimatedPromptTokens; }
+        public int getMaxTokens() { return maxTokens; }
+        public int getEstimatedTotalTokens() { return estimatedPromptTokens + maxTokens; }
+    }
+}
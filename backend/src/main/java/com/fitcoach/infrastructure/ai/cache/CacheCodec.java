@@ -0,0 +1,18 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+/**
+ * Кодек значений кэша в Redis
+ *
+ * Первый байт записи - версия формата: узел, встретивший незнакомую
+ * (более новую) версию при поэтапном обновлении, считает запись
+ * промахом. Записи старого текстового формата читаются как раньше.
+ */
+public interface CacheCodec<V> {
+
+    byte[] encode(V value);
+
+    /**
+     * Значение или null, если формат записи этому узлу неизвестен
+     */
+    V decode(byte[] data);
+}
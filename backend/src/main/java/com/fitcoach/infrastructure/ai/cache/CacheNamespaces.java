@@ -0,0 +1,321 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Поколения пространств имен кэша: очистка за O(1) без удаления по маске
+ *
+ * Ключ содержит номер поколения пространства ({namespace}:v{gen}:...).
+ * Очистка увеличивает счетчик cache:gen:{namespace} в Redis, после чего
+ * старые записи больше не читаются и истекают по своему TTL. Поколение
+ * кэшируется локально на refresh-interval, а о сбросе остальные узлы
+ * узнают через канал cache:namespace:bump.
+ *
+ * Память от старых поколений раньше TTL возвращает фоновый сборщик:
+ * SCAN по пространству и UNLINK пачками с ограничением скорости. Паузы
+ * между пачками идут в собственном потоке сборщика: общий поток
+ * планировщика Spring (сброс AiUsageLedger и др.) не блокируется.
+ *
+ * Настройки: app.cache.namespaces.refresh-interval, app.cache.reaper.*
+ */
+@Component
+public class CacheNamespaces {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheNamespaces.class);
+
+    public static final String AI_RESPONSES = "ai:cache";
+    public static final String NUTRITION = "nutrition:global";
+    public static final String FATSECRET_SEARCH = "fatsecret:search";
+
+    private static final List<String> NAMESPACES = List.of(AI_RESPONSES, NUTRITION, FATSECRET_SEARCH);
+    private static final String GENERATION_PREFIX = "cache:gen:";
+    private static final String CHANNEL = "cache:namespace:bump";
+    private static final String REAPER_LOCK = "cache:reaper:lock";
+    private static final String SEPARATOR = "|";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long refreshIntervalMillis;
+    private final boolean reaperEnabled;
+    private final int batchSize;
+    private final int maxDeletesPerSecond;
+    private final int maxKeysPerRun;
+    private final Duration reaperLease;
+
+    private final Map<String, Generation> generations = new ConcurrentHashMap<>();
+    private final Map<String, List<Runnable>> bumpListeners = new ConcurrentHashMap<>();
+    private final Map<String, Counter> reaped = new ConcurrentHashMap<>();
+    private final ExecutorService reaperExecutor =
+        Executors.newSingleThreadExecutor(Thread.ofPlatform().name("cache-reaper").daemon().factory());
+    private final AtomicBoolean reaping = new AtomicBoolean();
+    private final MeterRegistry meterRegistry;
+
+    public CacheNamespaces(RedisTemplate<String, String> redisTemplate,
+                           RedisMessageListenerContainer listenerContainer,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.cache.namespaces.refresh-interval:30s}") Duration refreshInterval,
+                           @Value("${app.cache.reaper.enabled:true}") boolean reaperEnabled,
+                           @Value("${app.cache.reaper.batch-size:500}") int batchSize,
+                           @Value("${app.cache.reaper.max-deletes-per-second:1000}") int maxDeletesPerSecond,
+                           @Value("${app.cache.reaper.max-keys-per-run:100000}") int maxKeysPerRun,
+                           @Value("${app.cache.reaper.interval:PT10M}") Duration reaperInterval) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.refreshIntervalMillis = refreshInterval.toMillis();
+        this.reaperEnabled = reaperEnabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxDeletesPerSecond = Math.max(1, maxDeletesPerSecond);
+        this.maxKeysPerRun = maxKeysPerRun;
+        this.reaperLease = reaperInterval;
+
+        if (listenerContainer != null) {
+            listenerContainer.addMessageListener(this::onBumpMessage, new ChannelTopic(CHANNEL));
+        }
+        log.info("🏷️ Поколения кэша: {}, сборщик {} ({} ключей/с)", NAMESPACES,
+            reaperEnabled ? "✅" : "❌", this.maxDeletesPerSecond);
+    }
+
+    /**
+     * Ключ в текущем поколении пространства: {namespace}:v{gen}:{suffix}
+     */
+    public String key(String namespace, String suffix) {
+        return namespace + ":v" + generation(namespace) + ":" + suffix;
+    }
+
+    /**
+     * Текущее поколение пространства (локальная копия не старше refresh-interval)
+     */
+    public long generation(String namespace) {
+        long now = System.currentTimeMillis();
+        Generation cached = generations.get(namespace);
+        if (cached != null && now - cached.loadedAt < refreshIntervalMillis) {
+            return cached.value;
+        }
+
+        long value = cached != null ? cached.value : 0;
+        if (redisTemplate != null) {
+            try {
+                String stored = redisTemplate.opsForValue().get(GENERATION_PREFIX + namespace);
+                if (stored != null) {
+                    value = Math.max(value, Long.parseLong(stored));
+                }
+            } catch (Exception e) {
+                // Повторим после refresh-interval, а не на каждом обращении к кэшу
+                log.warn("⚠️ Не удалось прочитать поколение кэша {}: {}", namespace, e.getMessage());
+            }
+        }
+        generations.put(namespace, new Generation(value, now));
+        return value;
+    }
+
+    /**
+     * Сбрасывает пространство: новое поколение, старые ключи больше не читаются
+     */
+    public long bump(String namespace) {
+        long next;
+        if (redisTemplate != null) {
+            Long incremented = redisTemplate.opsForValue().increment(GENERATION_PREFIX + namespace);
+            next = incremented != null ? incremented : generation(namespace) + 1;
+            redisTemplate.convertAndSend(CHANNEL, namespace + SEPARATOR + next);
+        } else {
+            next = generation(namespace) + 1;
+        }
+        advance(namespace, next);
+        log.info("🧹 Кэш {} сброшен: поколение v{}", namespace, next);
+        return next;
+    }
+
+    /**
+     * Действие при сбросе пространства на любом узле (например, очистка L1)
+     */
+    public void onBump(String namespace, Runnable listener) {
+        bumpListeners.computeIfAbsent(namespace, ns -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Фоновая сборка ключей старых поколений
+     *
+     * Один узел за раз (аренда в Redis на интервал сборки); скорость удаления
+     * ограничена max-deletes-per-second, за проход - не больше max-keys-per-run.
+     * Планировщик только запускает проход в потоке сборщика; пока предыдущий
+     * проход не закончен, новый не начинается.
+     */
+    @Scheduled(fixedDelayString = "${app.cache.reaper.interval:PT10M}",
+               initialDelayString = "${app.cache.reaper.initial-delay:PT2M}")
+    public void reapStaleGenerations() {
+        if (!reaperEnabled || redisTemplate == null || !reaping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            reaperExecutor.execute(() -> {
+                try {
+                    reapPass();
+                } finally {
+                    reaping.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            reaping.set(false);
+            log.warn("⚠️ Не удалось запустить сборщик кэша: {}", e.getMessage());
+        }
+    }
+
+    private void reapPass() {
+        try {
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(REAPER_LOCK, "1", reaperLease);
+            if (!Boolean.TRUE.equals(acquired)) {
+                return;
+            }
+            int budget = maxKeysPerRun;
+            for (String namespace : NAMESPACES) {
+                if (budget <= 0) {
+                    break;
+                }
+                budget -= reap(namespace, budget);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("⚠️ Ошибка сборщика кэша: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * SCAN по {namespace}:v* и UNLINK ключей поколений младше текущего
+     *
+     * @return сколько ключей просмотрено
+     */
+    private int reap(String namespace, int budget) throws InterruptedException {
+        long current = refresh(namespace);
+        if (current == 0) {
+            return 0;
+        }
+
+        String prefix = namespace + ":v";
+        long batchPauseMillis = 1000L * batchSize / maxDeletesPerSecond;
+        int scanned = 0;
+        long deleted = 0;
+        List<String> batch = new ArrayList<>(batchSize);
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(batchSize).build();
+
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext() && scanned < budget) {
+                String key = cursor.next();
+                scanned++;
+                long version = versionOf(key, prefix);
+                if (version >= 0 && version < current) {
+                    batch.add(key);
+                }
+                if (batch.size() >= batchSize) {
+                    deleted += unlink(namespace, batch);
+                    Thread.sleep(batchPauseMillis);
+                }
+            }
+        }
+        deleted += unlink(namespace, batch);
+
+        if (deleted > 0) {
+            log.info("🧹 Сборщик кэша {}: удалено {} ключей старых поколений (текущее v{})",
+                namespace, deleted, current);
+        }
+        return scanned;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaperExecutor.shutdownNow();
+    }
+
+    private long unlink(String namespace, List<String> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Long removed = redisTemplate.unlink(batch);
+        batch.clear();
+        long count = removed != null ? removed : 0;
+        reaped.computeIfAbsent(namespace, ns -> Counter.builder("cache.reaper.deleted")
+                .tag("namespace", ns)
+                .description("Ключи старых поколений, удаленные сборщиком")
+                .register(meterRegistry))
+            .increment(count);
+        return count;
+    }
+
+    /**
+     * Номер поколения из ключа или -1 (ключ в старом формате без поколения)
+     */
+    private static long versionOf(String key, String prefix) {
+        int end = key.indexOf(':', prefix.length());
+        if (end <= prefix.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(key.substring(prefix.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long refresh(String namespace) {
+        generations.remove(namespace);
+        return generation(namespace);
+    }
+
+    /**
+     * Переход на новое поколение; слушатели вызываются один раз (свое же сообщение из канала пропускается)
+     */
+    private void advance(String namespace, long value) {
+        Generation fresh = new Generation(value, System.currentTimeMillis());
+        Generation result = generations.merge(namespace, fresh,
+            (old, candidate) -> old.value >= candidate.value ? old : candidate);
+        if (result == fresh) {
+            bumpListeners.getOrDefault(namespace, List.of()).forEach(Runnable::run);
+        }
+    }
+
+    private void onBumpMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+        try {
+            advance(body.substring(0, separator), Long.parseLong(body.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            log.warn("⚠️ Некорректное сообщение о сбросе кэша: {}", body);
+        }
+    }
+
+    private static final class Generation {
+        private final long value;
+        private final long loadedAt;
+
+        Generation(long value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
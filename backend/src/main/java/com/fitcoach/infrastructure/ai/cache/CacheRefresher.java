@@ -0,0 +1,202 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновое обновление устаревающих записей кэша (stale-while-revalidate)
+ *
+ * Решение об обновлении - XFetch: запись обновляется заранее с
+ * вероятностью, растущей к мягкому сроку, и тем раньше, чем дороже ее
+ * вычисление (now - computeMillis * beta * ln(rand) >= softExpiresAt).
+ * Так горячий ключ обновляет один запрос до истечения, а не толпа после.
+ *
+ * Ключ обновляется одним вызовом: локально - по набору ключей в работе,
+ * между узлами - по аренде swr:refresh:{key} в Redis. Обновления идут в
+ * собственном ограниченном пуле; переполнение очереди обновление
+ * пропускает (значение еще отдается до жесткого TTL).
+ *
+ * Настройки: app.cache.swr.beta/hard-ttl-factor/threads/queue-capacity/lease
+ */
+@Component
+public class CacheRefresher {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheRefresher.class);
+
+    private static final String LEASE_PREFIX = "swr:refresh:";
+    private static final String SEPARATOR = "|";
+    // Снимаем аренду, только если она все еще наша
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+        Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final double beta;
+    private final double hardTtlFactor;
+    private final Duration lease;
+    private final ThreadPoolExecutor executor;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> durations = new ConcurrentHashMap<>();
+
+    public CacheRefresher(RedisTemplate<String, String> redisTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.cache.swr.beta:1.0}") double beta,
+                          @Value("${app.cache.swr.hard-ttl-factor:2.0}") double hardTtlFactor,
+                          @Value("${app.cache.swr.threads:4}") int threads,
+                          @Value("${app.cache.swr.queue-capacity:100}") int queueCapacity,
+                          @Value("${app.cache.swr.lease:30s}") Duration lease) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.beta = beta;
+        this.hardTtlFactor = Math.max(1.0, hardTtlFactor);
+        this.lease = lease;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+            runnable -> {
+                Thread thread = new Thread(runnable, "cache-refresh-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("cache.refresh.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Выполняющиеся фоновые обновления кэша")
+            .register(meterRegistry);
+        Gauge.builder("cache.refresh.queued", executor, e -> e.getQueue().size())
+            .description("Фоновые обновления кэша в очереди")
+            .register(meterRegistry);
+
+        log.info("♻️ Stale-while-revalidate: beta={}, жесткий TTL = {}× мягкого, {} потоков, очередь {}",
+            beta, this.hardTtlFactor, threads, queueCapacity);
+    }
+
+    /**
+     * Жесткий TTL записи в хранилище для заданного мягкого
+     */
+    public Duration hardTtl(Duration softTtl) {
+        return Duration.ofMillis((long) (softTtl.toMillis() * hardTtlFactor));
+    }
+
+    /**
+     * Пора ли обновлять: значение устарело или XFetch решил обновить заранее
+     */
+    public boolean shouldRefresh(CachedValue<?> cached) {
+        long now = System.currentTimeMillis();
+        if (cached.isStale(now)) {
+            return true;
+        }
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return now - cached.getComputeMillis() * beta * Math.log(random) >= cached.getSoftExpiresAt();
+    }
+
+    /**
+     * Учитывает отданное устаревшее значение и запускает одно фоновое обновление ключа
+     */
+    public void refreshAsync(String cacheName, CachedValue<?> cached, String key, Runnable refresh) {
+        if (cached.isStale(System.currentTimeMillis())) {
+            counter(cacheName, "stale_served").increment();
+        }
+        if (!inFlight.add(key)) {
+            counter(cacheName, "deduplicated").increment();
+            return;
+        }
+        try {
+            executor.execute(() -> run(cacheName, key, refresh));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            counter(cacheName, "rejected").increment();
+            log.debug("♻️ Очередь обновлений кэша {} заполнена, {} пропущен", cacheName, key);
+        }
+    }
+
+    private void run(String cacheName, String key, Runnable refresh) {
+        try {
+            if (!acquireLease(key)) {
+                counter(cacheName, "deduplicated").increment();
+                return;
+            }
+            Timer.Sample sample = Timer.start(meterRegistry);
+            try {
+                refresh.run();
+                counter(cacheName, "success").increment();
+            } catch (Exception e) {
+                counter(cacheName, "failure").increment();
+                log.warn("⚠️ Фоновое обновление {} не удалось: {}", key, e.getMessage());
+            } finally {
+                sample.stop(durations.computeIfAbsent(cacheName, name -> Timer.builder("cache.refresh.duration")
+                    .tag("cache", name)
+                    .description("Длительность фонового обновления записи кэша")
+                    .register(meterRegistry)));
+                releaseLease(key);
+            }
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    private boolean acquireLease(String key) {
+        if (redisTemplate == null) {
+            return true;
+        }
+        try {
+            return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LEASE_PREFIX + key, nodeId, lease));
+        } catch (Exception e) {
+            // Без Redis достаточно локальной дедупликации
+            return true;
+        }
+    }
+
+    private void releaseLease(String key) {
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(LEASE_PREFIX + key), nodeId);
+        } catch (Exception e) {
+            // Аренда истечет сама
+        }
+    }
+
+    private Counter counter(String cacheName, String result) {
+        return counters.computeIfAbsent(cacheName + SEPARATOR + result, k -> Counter.builder("cache.refresh")
+            .tag("cache", cacheName)
+            .tag("result", result)
+            .description("Фоновые обновления кэша: stale_served, success, failure, rejected, deduplicated")
+            .register(meterRegistry));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,41 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import java.time.Duration;
+
+/**
+ * Значение кэша с мягким сроком жизни (stale-while-revalidate)
+ *
+ * До softExpiresAt значение свежее. После него и до жесткого TTL записи
+ * в хранилище значение еще отдается, но запускается фоновое обновление.
+ * computeMillis - сколько стоило вычислить значение; по нему XFetch
+ * решает, насколько заранее начинать обновление горячего ключа.
+ *
+ * В Redis хранится через CachedValueCodec.
+ */
+public final class CachedValue<V> {
+
+    private final V value;
+    private final long softExpiresAt;
+    private final long computeMillis;
+
+    public CachedValue(V value, long softExpiresAt, long computeMillis) {
+        this.value = value;
+        this.softExpiresAt = softExpiresAt;
+        this.computeMillis = computeMillis;
+    }
+
+    /**
+     * Свежее значение на softTtl от текущего момента
+     */
+    public static <V> CachedValue<V> fresh(V value, Duration softTtl, long computeMillis) {
+        return new CachedValue<>(value, System.currentTimeMillis() + softTtl.toMillis(), computeMillis);
+    }
+
+    public boolean isStale(long now) {
+        return now >= softExpiresAt;
+    }
+
+    public V getValue() { return value; }
+    public long getSoftExpiresAt() { return softExpiresAt; }
+    public long getComputeMillis() { return computeMillis; }
+}
@@ -0,0 +1,52 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Кодек значения с мягким сроком: [версия 0x01][softExpiresAt][computeMillis][значение]
+ *
+ * Значение кодируется вложенным кодеком. Записи прежнего формата
+ * (просто JSON) читаются; у записи без заголовка мягкий срок уже истек.
+ */
+public class CachedValueCodec<V> implements CacheCodec<CachedValue<V>> {
+
+    private static final byte VERSION = 1;
+    private static final int HEADER = 1 + 2 * Long.BYTES;
+    private static final int FIRST_TEXT_BYTE = 0x20;
+
+    private final CacheCodec<V> valueCodec;
+
+    public CachedValueCodec(CacheCodec<V> valueCodec) {
+        this.valueCodec = valueCodec;
+    }
+
+    @Override
+    public byte[] encode(CachedValue<V> cached) {
+        byte[] value = valueCodec.encode(cached.getValue());
+        return ByteBuffer.allocate(HEADER + value.length)
+            .put(VERSION)
+            .putLong(cached.getSoftExpiresAt())
+            .putLong(cached.getComputeMillis())
+            .put(value)
+            .array();
+    }
+
+    @Override
+    public CachedValue<V> decode(byte[] data) {
+        // Прежний формат: JSON без заголовка
+        if (data.length > 0 && (data[0] & 0xFF) >= FIRST_TEXT_BYTE) {
+            V value = valueCodec.decode(data);
+            return value != null ? new CachedValue<>(value, 0, 0) : null;
+        }
+        if (data.length < HEADER || data[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.get();
+        long softExpiresAt = buffer.getLong();
+        long computeMillis = buffer.getLong();
+        V value = valueCodec.decode(Arrays.copyOfRange(data, HEADER, data.length));
+        return value != null ? new CachedValue<>(value, softExpiresAt, computeMillis) : null;
+    }
+}
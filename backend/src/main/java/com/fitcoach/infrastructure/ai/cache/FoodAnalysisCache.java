@@ -0,0 +1,197 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import com.fitcoach.infrastructure.ai.NutritionAnalysis;
+import com.fitcoach.infrastructure.ai.PerceptualHash;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Кэш анализов еды по перцептивному хэшу изображения
+ *
+ * Одно и то же блюдо, пересжатое Telegram или слегка обрезанное, дает
+ * хэш на небольшом расстоянии Хэмминга - такой запрос отвечается из кэша
+ * без вызова OpenAI.
+ *
+ * Поиск ближайшего - multi-index hashing: 64-битный хэш делится на 8 байт,
+ * по каждому байту строится индекс. Если расстояние не больше 7, хотя бы
+ * один байт совпадает точно (принцип Дирихле), поэтому достаточно
+ * проверить кандидатов из 8 корзин вместо всего кэша.
+ *
+ * Память ограничена числом записей (LRU вытеснение), записи живут не дольше TTL.
+ */
+@Component
+public class FoodAnalysisCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FoodAnalysisCache.class);
+
+    private static final int BLOCKS = 8;
+    private static final int MAX_SUPPORTED_DISTANCE = BLOCKS - 1;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final int maxDistance;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    @SuppressWarnings("unchecked")
+    private final Map<Integer, Set<Long>>[] index = new Map[BLOCKS];
+
+    private final Counter hits;
+    private final Counter nearHits;
+    private final Counter misses;
+
+    public FoodAnalysisCache(@Value("${app.ai.food-cache.max-entries:10000}") int maxEntries,
+                             @Value("${app.ai.food-cache.ttl:24h}") Duration ttl,
+                             @Value("${app.ai.food-cache.max-distance:5}") int maxDistance,
+                             MeterRegistry meterRegistry) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.maxDistance = Math.min(Math.max(0, maxDistance), MAX_SUPPORTED_DISTANCE);
+        for (int block = 0; block < BLOCKS; block++) {
+            index[block] = new HashMap<>();
+        }
+
+        this.hits = counter(meterRegistry, "hit");
+        this.nearHits = counter(meterRegistry, "near_hit");
+        this.misses = counter(meterRegistry, "miss");
+        Gauge.builder("ai.food_cache.size", this, FoodAnalysisCache::size)
+            .description("Записей в кэше анализов еды")
+            .register(meterRegistry);
+
+        if (maxDistance > MAX_SUPPORTED_DISTANCE) {
+            log.warn("⚠️ max-distance={} больше поддерживаемого {}, используется {}",
+                maxDistance, MAX_SUPPORTED_DISTANCE, MAX_SUPPORTED_DISTANCE);
+        }
+        log.info("🧠 Кэш анализов еды: до {} записей, TTL {}, расстояние ≤ {}", maxEntries, ttl, this.maxDistance);
+    }
+
+    /**
+     * Ищет анализ для точного или почти совпадающего хэша
+     */
+    public synchronized Optional<NutritionAnalysis> get(long hash) {
+        long now = System.currentTimeMillis();
+
+        Entry exact = entries.get(hash);
+        if (exact != null && !exact.isExpired(now)) {
+            hits.increment();
+            return Optional.of(exact.analysis);
+        }
+
+        Entry best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int block = 0; block < BLOCKS && maxDistance > 0; block++) {
+            Set<Long> bucket = index[block].get(blockValue(hash, block));
+            if (bucket == null) {
+                continue;
+            }
+            for (Long candidate : bucket) {
+                int distance = PerceptualHash.distance(hash, candidate);
+                if (distance <= maxDistance && distance < bestDistance) {
+                    Entry entry = entries.get(candidate);
+                    if (entry != null && !entry.isExpired(now)) {
+                        best = entry;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        if (best != null) {
+            nearHits.increment();
+            log.debug("🎯 Похожее фото в кэше: расстояние {}", bestDistance);
+            return Optional.of(best.analysis);
+        }
+
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Сохраняет анализ для хэша изображения
+     */
+    public synchronized void put(long hash, NutritionAnalysis analysis) {
+        Entry previous = entries.put(hash, new Entry(hash, analysis, System.currentTimeMillis() + ttlMillis));
+        if (previous == null) {
+            for (int block = 0; block < BLOCKS; block++) {
+                index[block].computeIfAbsent(blockValue(hash, block), key -> new HashSet<>()).add(hash);
+            }
+        }
+        evict();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Удаляет просроченные записи и вытесняет самые старые сверх лимита
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entries.size() <= maxEntries && !entry.isExpired(now)) {
+                break;
+            }
+            iterator.remove();
+            unindex(entry.hash);
+        }
+    }
+
+    private void unindex(long hash) {
+        for (int block = 0; block < BLOCKS; block++) {
+            int value = blockValue(hash, block);
+            Set<Long> bucket = index[block].get(value);
+            if (bucket != null) {
+                bucket.remove(hash);
+                if (bucket.isEmpty()) {
+                    index[block].remove(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Байт хэша с номером block - ключ корзины в индексе этого блока
+     */
+    private static int blockValue(long hash, int block) {
+        return (int) ((hash >>> (block * 8)) & 0xff);
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ai.food_cache.requests")
+            .tag("result", result)
+            .description("Обращения к кэшу анализов еды")
+            .register(meterRegistry);
+    }
+
+    private static class Entry {
+        private final long hash;
+        private final NutritionAnalysis analysis;
+        private final long expiresAt;
+
+        Entry(long hash, NutritionAnalysis analysis, long expiresAt) {
+            this.hash = hash;
+            this.analysis = analysis;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Приближенный поиск ближайших соседей (HNSW) по косинусной близости
+ *
+ * Векторы должны быть нормированы: близость - скалярное произведение.
+ * Удаление помечает узел, он остается в графе для навигации, но не
+ * попадает в результаты; когда удаленных становится больше живых,
+ * граф перестраивается из живых узлов в порядке вставки.
+ *
+ * Поиск выполняется под блокировкой чтения, вставка и удаление - под
+ * блокировкой записи. Перестройка идет в фоновом потоке без блокировки
+ * (тысячи вставок с efConstruction - секунды), старый граф тем временем
+ * обслуживает поиск и изменения; при подмене под блокировкой записи
+ * в новый граф переносятся удаления и вставки, сделанные за время
+ * перестройки.
+ */
+public class HnswIndex<T> {
+
+    // Сколько вставок за время перестройки переносится уже под блокировкой записи
+    private static final int CATCH_UP_UNDER_LOCK = 64;
+    private static final int MAX_CATCH_UP_ROUNDS = 8;
+
+    private final int maxConnections;
+    private final int maxConnectionsLayer0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private List<Node<T>> nodes = new ArrayList<>();
+    private int entryPoint = -1;
+    private int topLevel = -1;
+    private int deleted;
+    private int oldestLive;
+    private boolean compacting;
+    // Меняется при clear(): результат начатой до очистки перестройки отбрасывается
+    private long epoch;
+
+    public HnswIndex(int maxConnections, int efConstruction) {
+        this.maxConnections = Math.max(2, maxConnections);
+        this.maxConnectionsLayer0 = this.maxConnections * 2;
+        this.efConstruction = Math.max(this.maxConnections, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.maxConnections);
+    }
+
+    /**
+     * Найденный сосед и его близость к запросу
+     */
+    public static final class Match<T> {
+        private final T value;
+        private final float similarity;
+
+        Match(T value, float similarity) {
+            this.value = value;
+            this.similarity = similarity;
+        }
+
+        public T getValue() { return value; }
+        public float getSimilarity() { return similarity; }
+    }
+
+    public void add(float[] vector, T value) {
+        lock.writeLock().lock();
+        try {
+            insert(new Node<>(vector, value, randomLevel(), maxConnections, maxConnectionsLayer0));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * До k живых соседей по убыванию близости; ef - ширина поиска на нижнем слое
+     */
+    public List<Match<T>> search(float[] query, int k, int ef) {
+        lock.readLock().lock();
+        try {
+            List<Match<T>> matches = new ArrayList<>(k);
+            if (entryPoint < 0) {
+                return matches;
+            }
+            int current = greedyDescent(query, entryPoint, topLevel, 1);
+            List<Candidate> found = searchLayer(query, current, Math.max(ef, k), 0);
+            found.sort(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+            for (Candidate candidate : found) {
+                Node<T> node = nodes.get(candidate.id);
+                if (!node.deleted) {
+                    matches.add(new Match<>(node.value, candidate.similarity));
+                    if (matches.size() == k) {
+                        break;
+                    }
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Помечает удаленными узлы, значения которых подходят под условие
+     *
+     * @return сколько узлов удалено
+     */
+    public int removeIf(Predicate<T> condition) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (Node<T> node : nodes) {
+                if (!node.deleted && condition.test(node.value)) {
+                    node.deleted = true;
+                    removed++;
+                }
+            }
+            deleted += removed;
+            compactIfNeeded();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Удаляет самый старый живой узел (вытеснение по порядку вставки)
+     */
+    public void removeOldest() {
+        lock.writeLock().lock();
+        try {
+            while (oldestLive < nodes.size() && nodes.get(oldestLive).deleted) {
+                oldestLive++;
+            }
+            if (oldestLive < nodes.size()) {
+                nodes.get(oldestLive++).deleted = true;
+                deleted++;
+                compactIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes = new ArrayList<>();
+            entryPoint = -1;
+            topLevel = -1;
+            deleted = 0;
+            oldestLive = 0;
+            epoch++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Количество живых узлов
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodes.size() - deleted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Идет фоновая перестройка
+     */
+    boolean isCompacting() {
+        lock.readLock().lock();
+        try {
+            return compacting;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Узлов в графе вместе с удаленными
+     */
+    int graphSize() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(Node<T> node) {
+        int id = nodes.size();
+        nodes.add(node);
+        if (entryPoint < 0) {
+            entryPoint = id;
+            topLevel = node.level;
+            return;
+        }
+
+        int current = greedyDescent(node.vector, entryPoint, topLevel, node.level + 1);
+        for (int level = Math.min(node.level, topLevel); level >= 0; level--) {
+            List<Candidate> candidates = searchLayer(node.vector, current, efConstruction, level);
+            candidates.sort(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+            int limit = Math.min(maxConnections, candidates.size());
+            for (int i = 0; i < limit; i++) {
+                int neighbor = candidates.get(i).id;
+                node.connect(level, neighbor);
+                connectBack(neighbor, id, level);
+            }
+            current = candidates.get(0).id;
+        }
+
+        if (node.level > topLevel) {
+            topLevel = node.level;
+            entryPoint = id;
+        }
+    }
+
+    /**
+     * Обратная связь соседа; при переполнении у соседа остаются самые близкие
+     */
+    private void connectBack(int neighborId, int id, int level) {
+        Node<T> neighbor = nodes.get(neighborId);
+        if (neighbor.connect(level, id)) {
+            return;
+        }
+        int[] links = neighbor.links[level];
+        int farthest = -1;
+        float farthestSimilarity = similarity(neighbor.vector, nodes.get(id).vector);
+        for (int i = 0; i < links.length; i++) {
+            float s = similarity(neighbor.vector, nodes.get(links[i]).vector);
+            if (s < farthestSimilarity) {
+                farthestSimilarity = s;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0) {
+            links[farthest] = id;
+        }
+    }
+
+    /**
+     * Жадный спуск по верхним слоям до слоя bottom включительно
+     */
+    private int greedyDescent(float[] query, int from, int fromLevel, int bottom) {
+        int current = from;
+        float best = similarity(query, nodes.get(current).vector);
+        for (int level = fromLevel; level >= bottom; level--) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                Node<T> node = nodes.get(current);
+                for (int i = 0; i < node.size(level); i++) {
+                    int neighbor = node.links[level][i];
+                    float s = similarity(query, nodes.get(neighbor).vector);
+                    if (s > best) {
+                        best = s;
+                        current = neighbor;
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Поиск ef ближайших на слое level, начиная с узла start
+     */
+    private List<Candidate> searchLayer(float[] query, int start, int ef, int level) {
+        BitSet visited = new BitSet(nodes.size());
+        PriorityQueue<Candidate> candidates =
+            new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(c -> c.similarity));
+
+        Candidate first = new Candidate(start, similarity(query, nodes.get(start).vector));
+        visited.set(start);
+        candidates.add(first);
+        results.add(first);
+
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+            if (results.size() >= ef && closest.similarity < results.peek().similarity) {
+                break;
+            }
+            Node<T> node = nodes.get(closest.id);
+            for (int i = 0; i < node.size(level); i++) {
+                int neighbor = node.links[level][i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float s = similarity(query, nodes.get(neighbor).vector);
+                if (results.size() < ef || s > results.peek().similarity) {
+                    Candidate candidate = new Candidate(neighbor, s);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Запускает фоновую перестройку, если удаленных больше живых (вызывается под блокировкой записи)
+     */
+    private void compactIfNeeded() {
+        if (compacting || deleted <= nodes.size() - deleted) {
+            return;
+        }
+        List<Node<T>> live = new ArrayList<>(nodes.size() - deleted);
+        for (Node<T> node : nodes) {
+            if (!node.deleted) {
+                live.add(node);
+            }
+        }
+        compacting = true;
+        int snapshotSize = nodes.size();
+        long startedEpoch = epoch;
+        Thread.ofPlatform().name("hnsw-compaction").daemon()
+            .start(() -> rebuild(live, snapshotSize, startedEpoch));
+    }
+
+    /**
+     * Строит граф из живых узлов без блокировки и подменяет им текущий
+     *
+     * Вставки, сделанные за время перестройки, догоняются порциями тоже без
+     * блокировки; под блокировкой записи переносится только последняя
+     * небольшая порция и пометки удаления.
+     */
+    private void rebuild(List<Node<T>> live, int snapshotSize, long startedEpoch) {
+        HnswIndex<T> fresh = new HnswIndex<>(maxConnections, efConstruction);
+        // Узел i нового графа - копия sources[i] из текущего
+        List<Node<T>> sources = new ArrayList<>(live);
+        boolean swapped = false;
+        try {
+            for (Node<T> node : live) {
+                fresh.insert(copyOf(node));
+            }
+            int caughtUp = snapshotSize;
+            for (int round = 0; round < MAX_CATCH_UP_ROUNDS; round++) {
+                List<Node<T>> added = addedSince(caughtUp, startedEpoch);
+                if (added == null) {
+                    return;
+                }
+                if (added.size() <= CATCH_UP_UNDER_LOCK) {
+                    break;
+                }
+                for (Node<T> node : added) {
+                    fresh.insert(copyOf(node));
+                }
+                sources.addAll(added);
+                caughtUp += added.size();
+            }
+            swapped = swap(fresh, sources, caughtUp, startedEpoch);
+        } finally {
+            if (!swapped) {
+                lock.writeLock().lock();
+                try {
+                    compacting = false;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Узлы, вставленные после from, или null, если индекс очищен
+     */
+    private List<Node<T>> addedSince(int from, long startedEpoch) {
+        lock.readLock().lock();
+        try {
+            return epoch != startedEpoch ? null : new ArrayList<>(nodes.subList(from, nodes.size()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean swap(HnswIndex<T> fresh, List<Node<T>> sources, int caughtUp, long startedEpoch) {
+        lock.writeLock().lock();
+        try {
+            if (epoch != startedEpoch) {
+                return false;
+            }
+            for (int i = caughtUp; i < nodes.size(); i++) {
+                fresh.insert(copyOf(nodes.get(i)));
+                sources.add(nodes.get(i));
+            }
+            for (int i = 0; i < sources.size(); i++) {
+                if (sources.get(i).deleted) {
+                    fresh.nodes.get(i).deleted = true;
+                    fresh.deleted++;
+                }
+            }
+            nodes = fresh.nodes;
+            entryPoint = fresh.entryPoint;
+            topLevel = fresh.topLevel;
+            deleted = fresh.deleted;
+            oldestLive = 0;
+            compacting = false;
+            // За время перестройки могло накопиться столько удалений, что нужна следующая
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Node<T> copyOf(Node<T> node) {
+        return new Node<>(node.vector, node.value, node.level, maxConnections, maxConnectionsLayer0);
+    }
+
+    private int randomLevel() {
+        double r = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return (int) (-Math.log(r) * levelMultiplier);
+    }
+
+    private static float similarity(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static final class Candidate {
+        private final int id;
+        private final float similarity;
+
+        Candidate(int id, float similarity) {
+            this.id = id;
+            this.similarity = similarity;
+        }
+    }
+
+    private static final class Node<T> {
+        private final float[] vector;
+        private final T value;
+        private final int level;
+        private final int[][] links;
+        private final int[] sizes;
+        private boolean deleted;
+
+        Node(float[] vector, T value, int level, int maxConnections, int maxConnectionsLayer0) {
+            this.vector = vector;
+            this.value = value;
+            this.level = level;
+            this.links = new int[level + 1][];
+            this.sizes = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? maxConnectionsLayer0 : maxConnections];
+            }
+        }
+
+        int size(int level) {
+            return level < sizes.length ? sizes[level] : 0;
+        }
+
+        /**
+         * Добавляет связь, если на слое есть место
+         */
+        boolean connect(int level, int id) {
+            if (sizes[level] == links[level].length) {
+                return false;
+            }
+            links[level][sizes[level]++] = id;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Кодек объектов через заранее построенные ObjectReader/ObjectWriter
+ *
+ * Формат: [версия 0x01][флаги][длина до сжатия, если сжато][UTF-8 JSON].
+ * Тело не меньше compressThreshold байт сжимается Deflate (BEST_SPEED),
+ * если это дает выигрыш. Запись, начинающаяся с текстового символа, -
+ * JSON старого формата (toJson), читается тем же ObjectReader.
+ */
+public class JacksonCacheCodec<V> implements CacheCodec<V> {
+
+    static final byte VERSION = 1;
+    private static final byte FLAG_DEFLATE = 1;
+    // Байты ниже пробела не встречаются в начале текстовой записи
+    private static final int FIRST_TEXT_BYTE = 0x20;
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final int compressThreshold;
+
+    public JacksonCacheCodec(ObjectMapper mapper, Class<V> type, int compressThreshold) {
+        this.reader = mapper.readerFor(type);
+        this.writer = mapper.writerFor(type);
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] encode(V value) {
+        byte[] body;
+        try {
+            body = writer.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (body.length >= compressThreshold) {
+            byte[] compressed = deflate(body);
+            if (compressed.length + Integer.BYTES < body.length) {
+                return ByteBuffer.allocate(2 + Integer.BYTES + compressed.length)
+                    .put(VERSION).put(FLAG_DEFLATE).putInt(body.length).put(compressed)
+                    .array();
+            }
+        }
+        byte[] frame = new byte[2 + body.length];
+        frame[0] = VERSION;
+        System.arraycopy(body, 0, frame, 2, body.length);
+        return frame;
+    }
+
+    @Override
+    public V decode(byte[] data) {
+        try {
+            if (data.length > 0 && (data[0] & 0xFF) >= FIRST_TEXT_BYTE) {
+                return reader.readValue(data);
+            }
+            if (data.length < 2 || data[0] != VERSION) {
+                return null;
+            }
+            if ((data[1] & FLAG_DEFLATE) == 0) {
+                return reader.readValue(data, 2, data.length - 2);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data, 2, data.length - 2);
+            int length = buffer.getInt();
+            return reader.readValue(inflate(data, buffer.position(), length));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] output = new byte[input.length];
+            int size = 0;
+            while (!deflater.finished() && size < output.length) {
+                size += deflater.deflate(output, size, output.length - size);
+            }
+            // Сжатое не меньше исходного - вызывающий сохранит без сжатия
+            return deflater.finished() ? Arrays.copyOf(output, size) : input;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            byte[] output = new byte[length];
+            int size = 0;
+            while (size < length && !inflater.finished()) {
+                int read = inflater.inflate(output, size, length - size);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += read;
+            }
+            if (size != length) {
+                throw new IOException("Поврежденная сжатая запись кэша");
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IOException("Поврежденная сжатая запись кэша", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
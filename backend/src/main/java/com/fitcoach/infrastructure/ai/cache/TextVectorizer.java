@@ -0,0 +1,139 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Векторизация текста без внешнего сервиса эмбеддингов
+ *
+ * Символьные 3- и 4-граммы слов хешируются в вектор фиксированной
+ * размерности (знак признака - от отдельного бита хеша, чтобы коллизии
+ * взаимно гасились). Вес граммы - сублинейный TF, умноженный на IDF по
+ * частотам документов, накопленным через observe(). Вектор нормирован,
+ * поэтому косинусная близость равна скалярному произведению.
+ */
+public class TextVectorizer {
+
+    private static final int MIN_GRAM = 3;
+    private static final int MAX_GRAM = 4;
+
+    private final int dimensions;
+    private final int mask;
+    private final AtomicIntegerArray documentFrequency;
+    private final AtomicLong documents = new AtomicLong();
+
+    /**
+     * @param dimensions размерность вектора (округляется вверх до степени двойки)
+     */
+    public TextVectorizer(int dimensions) {
+        this.dimensions = Integer.highestOneBit(Math.max(64, dimensions) * 2 - 1);
+        this.mask = this.dimensions - 1;
+        this.documentFrequency = new AtomicIntegerArray(this.dimensions);
+    }
+
+    /**
+     * Нормализованный вектор текста с текущими весами IDF
+     */
+    public float[] vectorize(String text) {
+        Map<Integer, Integer> grams = grams(normalize(text));
+        float[] vector = new float[dimensions];
+        double idfBase = documents.get() + 1.0;
+        for (Map.Entry<Integer, Integer> gram : grams.entrySet()) {
+            int hash = gram.getKey();
+            int bucket = hash & mask;
+            double tf = 1.0 + Math.log(gram.getValue());
+            double idf = Math.log(idfBase / (documentFrequency.get(bucket) + 1.0)) + 1.0;
+            float weight = (float) (tf * idf);
+            vector[bucket] += (hash & 0x80000000) == 0 ? weight : -weight;
+        }
+        normalizeLength(vector);
+        return vector;
+    }
+
+    /**
+     * Учитывает текст в частотах документов (IDF)
+     */
+    public void observe(String text) {
+        documents.incrementAndGet();
+        grams(normalize(text)).keySet().stream()
+            .mapToInt(hash -> hash & mask)
+            .distinct()
+            .forEach(documentFrequency::incrementAndGet);
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Нижний регистр, ё → е, только буквы и цифры, одиночные пробелы
+     */
+    public static String normalize(String text) {
+        String lower = text.toLowerCase(Locale.ROOT).replace('ё', 'е');
+        StringBuilder normalized = new StringBuilder(lower.length());
+        boolean space = true;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(c);
+                space = false;
+            } else if (!space) {
+                normalized.append(' ');
+                space = true;
+            }
+        }
+        int length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == ' ') {
+            normalized.setLength(length - 1);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Хеши символьных n-грамм слов (слово дополнено пробелами по краям) и их количество
+     */
+    private static Map<Integer, Integer> grams(String normalized) {
+        Map<Integer, Integer> grams = new HashMap<>();
+        for (String word : normalized.split(" ")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = " " + word + " ";
+            for (int n = MIN_GRAM; n <= MAX_GRAM; n++) {
+                for (int i = 0; i + n <= padded.length(); i++) {
+                    grams.merge(mix(padded, i, n), 1, Integer::sum);
+                }
+            }
+        }
+        return grams;
+    }
+
+    private static int mix(String text, int from, int length) {
+        int h = length;
+        for (int i = from; i < from + length; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private static void normalizeLength(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        if (sum == 0) {
+            return;
+        }
+        float norm = (float) Math.sqrt(sum);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= norm;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ограниченный по размеру локальный кэш с политикой W-TinyLFU и TTL записей
+ *
+ * Новые записи попадают в небольшое LRU окно (~1% емкости). Вытесненный
+ * из окна кандидат попадает в основную область, только если по частотному
+ * скетчу к нему обращались чаще, чем к жертве основной LRU области. Так
+ * разовые ключи не вымывают популярные, а всплески новых ключей переживают
+ * окно.
+ *
+ * Потокобезопасен (синхронизация на экземпляре).
+ */
+public class TinyLfuCache<K, V> {
+
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final LinkedHashMap<K, Entry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Entry<V>> main = new LinkedHashMap<>(256, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    public TinyLfuCache(int maximumSize) {
+        int capacity = Math.max(2, maximumSize);
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Значение или null (нет записи либо она истекла); обращение учитывается в скетче
+     */
+    public synchronized V get(K key) {
+        sketch.increment(key.hashCode());
+        Entry<V> entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value, long ttlMillis) {
+        Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + ttlMillis);
+        if (main.containsKey(key)) {
+            main.put(key, entry);
+            return;
+        }
+
+        window.put(key, entry);
+        if (window.size() > windowCapacity) {
+            Iterator<Map.Entry<K, Entry<V>>> eldest = window.entrySet().iterator();
+            Map.Entry<K, Entry<V>> candidate = eldest.next();
+            eldest.remove();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    public synchronized void remove(K key) {
+        if (window.remove(key) == null) {
+            main.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        window.clear();
+        main.clear();
+    }
+
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    /**
+     * Перенос кандидата из окна в основную область, если он популярнее жертвы
+     */
+    private void admit(K key, Entry<V> entry) {
+        if (main.size() < mainCapacity) {
+            main.put(key, entry);
+            return;
+        }
+
+        Iterator<Map.Entry<K, Entry<V>>> eldest = main.entrySet().iterator();
+        Map.Entry<K, Entry<V>> victim = eldest.next();
+        if (victim.getValue().isExpired(System.currentTimeMillis())
+                || sketch.frequency(key.hashCode()) > sketch.frequency(victim.getKey().hashCode())) {
+            eldest.remove();
+            main.put(key, entry);
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * Count-Min скетч с 4-битными счетчиками и периодическим старением
+     *
+     * После sampleSize обращений все счетчики делятся пополам, поэтому
+     * давно популярные ключи постепенно теряют приоритет.
+     */
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+            this.counters = new byte[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * Math.max(16, capacity);
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[row][index(hash, row)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Двухуровневый кэш: локальный L1 (W-TinyLFU, ограничен по размеру) перед Redis L2
+ *
+ * Горячие ключи отвечаются из памяти без сетевого обращения. Запись и
+ * удаление публикуются в канал cache:invalidate:{name}, и остальные узлы
+ * удаляют ключ из своего L1. TTL в L1 не превышает l1MaxTtl, что
+ * ограничивает устаревание, если сообщение об инвалидации потерялось.
+ *
+ * Значения хранятся в Redis в двоичном виде (CacheCodec).
+ *
+ * Без Redis работает только L1.
+ */
+public class TwoTierCache<V> {
+
+    private static final Logger log = LoggerFactory.getLogger(TwoTierCache.class);
+
+    private static final String SEPARATOR = "|";
+
+    private final String name;
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final TinyLfuCache<String, V> l1;
+    private final long l1MaxTtlMillis;
+    private final CacheCodec<V> codec;
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Counter l1Hits;
+    private final Counter l1Misses;
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+
+    public TwoTierCache(String name,
+                        RedisTemplate<String, byte[]> redisTemplate,
+                        RedisMessageListenerContainer listenerContainer,
+                        MeterRegistry meterRegistry,
+                        int l1MaxEntries,
+                        Duration l1MaxTtl,
+                        CacheCodec<V> codec) {
+        this.name = name;
+        this.redisTemplate = redisTemplate;
+        this.l1 = new TinyLfuCache<>(l1MaxEntries);
+        this.l1MaxTtlMillis = l1MaxTtl.toMillis();
+        this.codec = codec;
+        this.channel = "cache:invalidate:" + name;
+
+        this.l1Hits = counter(meterRegistry, "l1", "hit");
+        this.l1Misses = counter(meterRegistry, "l1", "miss");
+        this.l2Hits = counter(meterRegistry, "l2", "hit");
+        this.l2Misses = counter(meterRegistry, "l2", "miss");
+        hitRatio(meterRegistry, "l1", l1Hits, l1Misses);
+        hitRatio(meterRegistry, "l2", l2Hits, l2Misses);
+        Gauge.builder("cache.l1.size", l1, TinyLfuCache::size)
+            .tag("cache", name)
+            .description("Записей в локальном кэше")
+            .register(meterRegistry);
+
+        if (listenerContainer != null) {
+            listenerContainer.addMessageListener(this::onInvalidation, new ChannelTopic(channel));
+        }
+        log.info("🗄️ Кэш {}: L1 до {} записей (TTL ≤ {}), L2 {}", name, l1MaxEntries, l1MaxTtl,
+            redisTemplate != null ? "Redis" : "выключен");
+    }
+
+    /**
+     * Значение из L1, затем из L2 (с подъемом в L1); null - нет в кэше
+     */
+    public V get(String key) {
+        V local = l1.get(key);
+        if (local != null) {
+            l1Hits.increment();
+            return local;
+        }
+        l1Misses.increment();
+
+        if (redisTemplate == null) {
+            return null;
+        }
+        try {
+            byte[] stored = redisTemplate.opsForValue().get(key);
+            V value = stored != null ? codec.decode(stored) : null;
+            if (value == null) {
+                l2Misses.increment();
+                return null;
+            }
+            l2Hits.increment();
+            l1.put(key, value, l1MaxTtlMillis);
+            return value;
+        } catch (Exception e) {
+            l2Misses.increment();
+            log.warn("⚠️ Ошибка чтения кэша {} из Redis: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Сохраняет значение в оба уровня и сбрасывает ключ в L1 других узлов
+     */
+    public void put(String key, V value, Duration ttl) {
+        l1.put(key, value, Math.min(ttl.toMillis(), l1MaxTtlMillis));
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            redisTemplate.opsForValue().set(key, codec.encode(value), ttl);
+            publishInvalidation(key);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось сохранить {} в Redis: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Удаляет ключ из обоих уровней на всех узлах
+     */
+    public void evict(String key) {
+        l1.remove(key);
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            redisTemplate.delete(key);
+            publishInvalidation(key);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось удалить {} из Redis: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Очищает локальный уровень этого узла
+     */
+    public void clearLocal() {
+        l1.clear();
+    }
+
+    private void publishInvalidation(String key) {
+        redisTemplate.convertAndSend(channel, (nodeId + SEPARATOR + key).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void onInvalidation(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf(SEPARATOR);
+        if (separator < 0 || body.startsWith(nodeId + SEPARATOR)) {
+            return;
+        }
+        l1.remove(body.substring(separator + 1));
+    }
+
+    private Counter counter(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("cache.requests")
+            .tag("cache", name)
+            .tag("tier", tier)
+            .tag("result", result)
+            .description("Обращения к уровням кэша")
+            .register(meterRegistry);
+    }
+
+    private void hitRatio(MeterRegistry meterRegistry, String tier, Counter hits, Counter misses) {
+        Gauge.builder("cache.hit_ratio", () -> {
+                double total = hits.count() + misses.count();
+                return total == 0 ? 0.0 : hits.count() / total;
+            })
+            .tag("cache", name)
+            .tag("tier", tier)
+            .description("Доля попаданий уровня кэша")
+            .register(meterRegistry);
+    }
+}
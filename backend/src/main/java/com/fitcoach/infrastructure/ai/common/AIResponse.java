@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import java.time.LocalDateTime;
 import java.util.Map;
@@ -16,6 +17,9 @@ import java.util.Map;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class AIResponse {
     
+    // Без JavaTimeModule LocalDateTime не сериализуется, и в кэш попадала заглушка ошибки
+    private static final ObjectMapper MAPPER = new ObjectMapper().registerModule(new JavaTimeModule());
+    
     private String content;
     private boolean success;
     private String errorMessage;
@@ -105,6 +109,17 @@ public class AIResponse {
         return this;
     }
     
+    /**
+     * Поверхностная копия: общий ответ объединенного запроса получает
+     * каждый вызывающий, а with* методы изменяют объект
+     */
+    public AIResponse copy() {
+        AIResponse copy = new AIResponse(content, success, errorMessage, provider, model,
+                tokensUsed, costUsd, processedAt, processingTimeMs, metadata);
+        copy.createdAt = createdAt;
+        return copy;
+    }
+
     /**
      * Проверяет успешность ответа
      */
@@ -117,7 +132,7 @@ public class AIResponse {
      */
     public String toJson() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return MAPPER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             return "{\"error\":\"Serialization failed\"}";
         }
@@ -128,7 +143,7 @@ public class AIResponse {
      */
     public static AIResponse fromJson(String json) {
         try {
-            return new ObjectMapper().readValue(json, AIResponse.class);
+            return MAPPER.readValue(json, AIResponse.class);
         } catch (Exception e) {
             return AIResponse.error("Deserialization failed");
         }
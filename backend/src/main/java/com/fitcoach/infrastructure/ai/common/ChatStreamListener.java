@@ -0,0 +1,18 @@
+package com.fitcoach.infrastructure.ai.common;
+
+/**
+ * Получатель потокового ответа чата
+ *
+ * Фрагменты приходят по порядку в потоке чтения ответа провайдера;
+ * итоговый AIResponse (полный текст, токены, стоимость) возвращает сам
+ * потоковый вызов. Исключение из onDelta прерывает генерацию (клиент
+ * отключился - провайдер перестает тратить токены).
+ */
+@FunctionalInterface
+public interface ChatStreamListener {
+
+    /**
+     * Очередной фрагмент текста ответа
+     */
+    void onDelta(String text);
+}
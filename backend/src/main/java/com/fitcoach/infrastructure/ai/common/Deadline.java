@@ -0,0 +1,80 @@
+package com.fitcoach.infrastructure.ai.common;
+
+import java.time.Duration;
+
+/**
+ * Крайний срок обработки AI запроса
+ *
+ * Создается один раз на входе запроса и передается через всю цепочку
+ * провайдеров: оставшееся время ограничивает ожидание в переборке,
+ * таймаут HTTP запроса и решает, есть ли смысл пробовать следующий
+ * провайдер.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE, false);
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Срок через budget от текущего момента
+     */
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos(), true);
+    }
+
+    /**
+     * Без ограничения: действуют только собственные таймауты клиентов
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /**
+     * Оставшееся время (не отрицательное)
+     */
+    public Duration remaining() {
+        if (!bounded) {
+            return Duration.ofNanos(Long.MAX_VALUE);
+        }
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    public long remainingMillis() {
+        return bounded ? remaining().toMillis() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return bounded && System.nanoTime() >= deadlineNanos;
+    }
+
+    /**
+     * Осталось ли хотя бы minimum времени
+     */
+    public boolean hasAtLeast(Duration minimum) {
+        return !bounded || deadlineNanos - System.nanoTime() >= minimum.toNanos();
+    }
+
+    /**
+     * Таймаут, урезанный до оставшегося времени (не меньше 1 мс)
+     */
+    public Duration cap(Duration timeout) {
+        if (!bounded) {
+            return timeout;
+        }
+        Duration remaining = remaining();
+        Duration capped = remaining.compareTo(timeout) < 0 ? remaining : timeout;
+        return capped.isZero() ? Duration.ofMillis(1) : capped;
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "осталось " + remainingMillis() + " мс" : "без срока";
+    }
+}
@@ -0,0 +1,241 @@
+package com.fitcoach.infrastructure.ai.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одинаковых одновременных AI запросов (single-flight)
+ *
+ * Первый запрос с данным ключом выполняет вызов провайдера, остальные
+ * одновременные запросы с тем же ключом ждут его CompletableFuture и
+ * получают тот же результат. Ключ - SHA-256 содержимого запроса.
+ *
+ * Опционально (app.ai.coalescing.distributed.enabled) объединение работает
+ * между узлами: лидер берет короткую аренду в Redis (SET NX PX), остальные
+ * узлы ждут появления результата в общем кэше, пока аренда жива, но не
+ * дольше крайнего срока своего запроса. Если аренда истекла или срок
+ * вышел без результата, запрос выполняется самостоятельно (loader сам
+ * решает, что делать с истекшим сроком).
+ */
+@Component
+public class RequestCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private static final String LEASE_PREFIX = "ai:lease:";
+
+    // Снимаем аренду только если она все еще наша
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+        Long.class);
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final RedisTemplate<String, String> redisTemplate;
+    private final boolean distributed;
+    private final Duration leaseTtl;
+    private final Duration pollInterval;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Counter localCoalesced;
+    private final Counter remoteCoalesced;
+
+    public RequestCoalescer(RedisTemplate<String, String> redisTemplate,
+                            @Value("${app.ai.coalescing.distributed.enabled:false}") boolean distributed,
+                            @Value("${app.ai.coalescing.distributed.lease-ttl:15s}") Duration leaseTtl,
+                            @Value("${app.ai.coalescing.distributed.poll-interval:100ms}") Duration pollInterval,
+                            MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.distributed = distributed && redisTemplate != null;
+        this.leaseTtl = leaseTtl;
+        this.pollInterval = pollInterval;
+
+        this.localCoalesced = counter(meterRegistry, "local");
+        this.remoteCoalesced = counter(meterRegistry, "remote");
+        Gauge.builder("ai.coalescing.in_flight", inFlight, ConcurrentHashMap::size)
+            .description("Уникальные AI запросы в процессе выполнения")
+            .register(meterRegistry);
+
+        log.info("🔗 Объединение AI запросов: локально{}", this.distributed ? " + между узлами (аренда " + leaseTtl + ")" : "");
+    }
+
+    /**
+     * Выполняет loader один раз на ключ среди одновременных вызовов этого узла
+     */
+    public <T> T execute(String key, Supplier<T> loader) {
+        return execute(key, loader, null);
+    }
+
+    /**
+     * Выполняет loader один раз на ключ; с remoteResult - один раз на кластер
+     *
+     * @param remoteResult чтение результата, сохраненного лидером на другом узле
+     *                     (null, если результата еще нет); null - только локально
+     */
+    public <T> T execute(String key, Supplier<T> loader, Supplier<T> remoteResult) {
+        return execute(key, loader, remoteResult, Deadline.none());
+    }
+
+    /**
+     * То же с крайним сроком: ожидание результата другого узла не дольше оставшегося времени
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, Supplier<T> remoteResult, Deadline deadline) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            localCoalesced.increment();
+            log.debug("🔗 Запрос {} присоединен к выполняемому", shortKey(key));
+            return (T) await(existing);
+        }
+
+        try {
+            T result = distributed && remoteResult != null
+                ? executeWithLease(key, loader, remoteResult, deadline)
+                : loader.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Строит ключ объединения: SHA-256 от частей запроса
+     */
+    public static String key(String... parts) {
+        MessageDigest digest = sha256();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Ключ объединения для бинарного содержимого (изображения)
+     */
+    public static String key(String namespace, byte[] content) {
+        MessageDigest digest = sha256();
+        digest.update(namespace.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(content);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private <T> T executeWithLease(String key, Supplier<T> loader, Supplier<T> remoteResult, Deadline deadline) {
+        String leaseKey = LEASE_PREFIX + key;
+        Boolean acquired;
+        try {
+            acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey, nodeId, leaseTtl);
+        } catch (Exception e) {
+            log.warn("⚠️ Аренда Redis недоступна, выполняем запрос локально: {}", e.getMessage());
+            return loader.get();
+        }
+
+        if (Boolean.TRUE.equals(acquired)) {
+            try {
+                return loader.get();
+            } finally {
+                releaseLease(leaseKey);
+            }
+        }
+
+        T remote = awaitRemote(leaseKey, remoteResult, deadline);
+        if (remote != null) {
+            remoteCoalesced.increment();
+            log.debug("🔗 Запрос {} получил результат другого узла", shortKey(key));
+            return remote;
+        }
+        return loader.get();
+    }
+
+    /**
+     * Ждет результат лидера, пока его аренда жива (не дольше срока аренды
+     * и оставшегося времени запроса)
+     */
+    private <T> T awaitRemote(String leaseKey, Supplier<T> remoteResult, Deadline deadline) {
+        long waitUntil = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(Math.min(leaseTtl.toMillis(), deadline.remainingMillis()));
+        try {
+            while (System.nanoTime() < waitUntil) {
+                T result = remoteResult.get();
+                if (result != null) {
+                    return result;
+                }
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(leaseKey))) {
+                    // Аренда снята: лидер либо сохранил результат, либо завершился ошибкой
+                    return remoteResult.get();
+                }
+                long left = TimeUnit.NANOSECONDS.toMillis(waitUntil - System.nanoTime());
+                Thread.sleep(Math.max(1, Math.min(pollInterval.toMillis(), left)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("⚠️ Ошибка ожидания результата другого узла: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private void releaseLease(String leaseKey) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(leaseKey), nodeId);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось снять аренду {}: {}", leaseKey, e.getMessage());
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private static String shortKey(String key) {
+        return key.length() > 12 ? key.substring(0, 12) : key;
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String scope) {
+        return Counter.builder("ai.coalescing.coalesced")
+            .tag("scope", scope)
+            .description("Запросы, получившие результат уже выполняемого вызова")
+            .register(meterRegistry);
+    }
+}
@@ -0,0 +1,104 @@
+package com.fitcoach.infrastructure.ai.common;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Локальный подсчет токенов BPE (словари OpenAI из classpath, jtokkit)
+ *
+ * Один экземпляр кодировки на приложение, потокобезопасный. Короткие
+ * строки не токенизируются: каждый токен - хотя бы один байт UTF-8, а
+ * символ UTF-16 - не больше трех байт, поэтому строка из n символов
+ * занимает не больше 3n токенов.
+ *
+ * Для моделей DeepSeek и Gemini словари другие - счет по cl100k_base
+ * приблизительный, для ограничения длины запроса этого достаточно.
+ *
+ * Настройки: app.ai.tokenizer.encoding (cl100k_base, p50k_base, r50k_base)
+ */
+@Component
+public class TokenCounter {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenCounter.class);
+
+    private static final int MAX_TOKENS_PER_CHAR = 3;
+
+    private final Encoding encoding;
+
+    public TokenCounter(Environment environment) {
+        String name = environment.getProperty("app.ai.tokenizer.encoding", EncodingType.CL100K_BASE.getName());
+        EncodingType type = EncodingType.fromName(name).orElseGet(() -> {
+            log.warn("⚠️ Неизвестная кодировка токенизатора {}, используется {}", name, EncodingType.CL100K_BASE.getName());
+            return EncodingType.CL100K_BASE;
+        });
+        this.encoding = Encodings.newDefaultEncodingRegistry().getEncoding(type);
+        log.info("🔤 Токенизатор: {}", encoding.getName());
+    }
+
+    /**
+     * Число токенов текста (спецтокены вида <|endoftext|> считаются обычным текстом)
+     */
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return encoding.countTokensOrdinary(text);
+    }
+
+    /**
+     * Начало текста не длиннее maxTokens токенов
+     *
+     * Граница проходит по токенам, поэтому может разрезать многобайтный
+     * символ - неполный хвост UTF-8 отбрасывается.
+     *
+     * @return исходная строка, если она укладывается в лимит
+     */
+    public String truncateToTokens(String text, int maxTokens) {
+        if (text == null || text.isEmpty() || (long) text.length() * MAX_TOKENS_PER_CHAR <= maxTokens) {
+            return text;
+        }
+        if (maxTokens <= 0) {
+            return "";
+        }
+        EncodingResult result = encoding.encodeOrdinary(text, maxTokens);
+        if (!result.isTruncated()) {
+            return text;
+        }
+        List<Integer> tokens = result.getTokens();
+        byte[] bytes = encoding.decodeBytes(tokens);
+        return new String(bytes, 0, completeUtf8Length(bytes), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Укладывается ли текст в maxTokens (без полной токенизации коротких строк)
+     */
+    public boolean fits(String text, int maxTokens) {
+        return text == null || (long) text.length() * MAX_TOKENS_PER_CHAR <= maxTokens || count(text) <= maxTokens;
+    }
+
+    /**
+     * Длина без последнего незавершенного символа UTF-8
+     */
+    private static int completeUtf8Length(byte[] bytes) {
+        int length = bytes.length;
+        // Начало последнего символа не дальше трех байт продолжения от конца
+        for (int i = length - 1; i >= Math.max(0, length - 4); i--) {
+            int b = bytes[i] & 0xff;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int expected = b < 0x80 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+            return length - i >= expected ? length : i;
+        }
+        return length;
+    }
+}
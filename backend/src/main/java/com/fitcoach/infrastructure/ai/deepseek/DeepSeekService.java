@@ -1,23 +1,89 @@
 package com.fitcoach.infrastructure.ai.deepseek;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.infrastructure.ai.common.Deadline;
+import com.fitcoach.infrastructure.ai.http.AiHttpClient;
+import com.fitcoach.infrastructure.ai.http.AiProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
 /**
- * Временная заглушка для DeepSeek R1 API
- * TODO: Реализовать полную интеграцию с DeepSeek API
+ * Сервис DeepSeek R1 (OpenAI-совместимый Chat Completions API)
+ * Без настроенного ключа app.ai.deepseek.api-key работает как заглушка
  */
 @Service
 public class DeepSeekService {
     
     private static final Logger log = LoggerFactory.getLogger(DeepSeekService.class);
     
-    public AIResponse analyze(String content, String context) {
+    private static final double COST_PER_TOKEN = 0.14 / 1_000_000; // $0.14/1M токенов
+    
+    private final AiHttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String apiKey;
+    private final String model;
+    
+    public DeepSeekService(AiHttpClient httpClient,
+                           @Value("${app.ai.deepseek.api-key:}") String apiKey,
+                           @Value("${app.ai.deepseek.model:deepseek-reasoner}") String model) {
+        this.httpClient = httpClient;
+        this.apiKey = apiKey;
+        this.model = model;
+    }
+    
+    public AIResponse analyze(String content, String context, Deadline deadline) {
+        if (apiKey == null || apiKey.isBlank()) {
+            return mockResponse(content, context);
+        }
+        
+        try {
+            log.info("DeepSeek: анализ контента длиной {} символов", content.length());
+            
+            ObjectNode body = objectMapper.createObjectNode();
+            body.put("model", model);
+            ArrayNode messages = body.putArray("messages");
+            messages.addObject().put("role", "system").put("content", "Ты персональный тренер по фитнесу. " + context);
+            messages.addObject().put("role", "user").put("content", content);
+            
+            HttpRequest request = httpClient.newRequest(AiProvider.DEEPSEEK, "/chat/completions", deadline)
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", "Bearer " + apiKey)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+            
+            HttpResponse<byte[]> response = AiHttpClient.requireSuccess(AiProvider.DEEPSEEK,
+                    httpClient.send(AiProvider.DEEPSEEK, request, HttpResponse.BodyHandlers.ofByteArray()));
+            
+            JsonNode json = objectMapper.readTree(response.body());
+            String text = json.path("choices").path(0).path("message").path("content").asText(null);
+            int tokens = json.path("usage").path("total_tokens").asInt(0);
+            
+            return AIResponse.success(text, "deepseek", model)
+                    .withUsage(tokens, tokens * COST_PER_TOKEN);
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Запрос к DeepSeek прерван", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Ошибка DeepSeek API: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Временная имитация ответа DeepSeek, пока ключ API не настроен
+     */
+    private AIResponse mockResponse(String content, String context) {
         log.info("DeepSeek заглушка: анализ контента длиной {} символов", content.length());
         
-        // Временная имитация ответа DeepSeek
         String mockResponse = "Это временный ответ от DeepSeek. " +
                 "Контекст: " + context + ". " +
                 "Анализируемый контент обработан успешно.";
@@ -25,4 +91,4 @@ public class DeepSeekService {
         return AIResponse.success(mockResponse, "deepseek", "deepseek-r1")
                 .withUsage(100, 0.014); // Примерные значения для DeepSeek R1
     }
-} 
\ No newline at end of file
+}
@@ -1,23 +1,88 @@
 package com.fitcoach.infrastructure.ai.gemini;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.infrastructure.ai.common.Deadline;
+import com.fitcoach.infrastructure.ai.http.AiHttpClient;
+import com.fitcoach.infrastructure.ai.http.AiProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
 /**
- * Временная заглушка для Gemini 2.5 Flash API
- * TODO: Реализовать полную интеграцию с Google Gemini API
+ * Сервис Gemini 2.5 Flash (generateContent API)
+ * Без настроенного ключа app.ai.gemini.api-key работает как заглушка
  */
 @Service
 public class GeminiFlashService {
     
     private static final Logger log = LoggerFactory.getLogger(GeminiFlashService.class);
     
-    public AIResponse generateAdvice(String content, String context) {
+    private static final double COST_PER_TOKEN = 0.075 / 1_000_000; // $0.075/1M токенов
+    
+    private final AiHttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String apiKey;
+    private final String model;
+    
+    public GeminiFlashService(AiHttpClient httpClient,
+                              @Value("${app.ai.gemini.api-key:}") String apiKey,
+                              @Value("${app.ai.gemini.model:gemini-2.5-flash}") String model) {
+        this.httpClient = httpClient;
+        this.apiKey = apiKey;
+        this.model = model;
+    }
+    
+    public AIResponse generateAdvice(String content, String context, Deadline deadline) {
+        if (apiKey == null || apiKey.isBlank()) {
+            return mockResponse(content, context);
+        }
+        
+        try {
+            log.info("Gemini Flash: генерация советов для контента длиной {} символов", content.length());
+            
+            ObjectNode body = objectMapper.createObjectNode();
+            body.putObject("systemInstruction").putArray("parts").addObject()
+                    .put("text", "Ты персональный тренер по фитнесу. " + context);
+            body.putArray("contents").addObject().put("role", "user")
+                    .putArray("parts").addObject().put("text", content);
+            
+            HttpRequest request = httpClient.newRequest(AiProvider.GEMINI, "/v1beta/models/" + model + ":generateContent", deadline)
+                    .header("Content-Type", "application/json")
+                    .header("x-goog-api-key", apiKey)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+            
+            HttpResponse<byte[]> response = AiHttpClient.requireSuccess(AiProvider.GEMINI,
+                    httpClient.send(AiProvider.GEMINI, request, HttpResponse.BodyHandlers.ofByteArray()));
+            
+            JsonNode json = objectMapper.readTree(response.body());
+            String text = json.path("candidates").path(0).path("content").path("parts").path(0).path("text").asText(null);
+            int tokens = json.path("usageMetadata").path("totalTokenCount").asInt(0);
+            
+            return AIResponse.success(text, "gemini", model)
+                    .withUsage(tokens, tokens * COST_PER_TOKEN);
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Запрос к Gemini прерван", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Ошибка Gemini API: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Временная имитация ответа Gemini, пока ключ API не настроен
+     */
+    private AIResponse mockResponse(String content, String context) {
         log.info("Gemini Flash заглушка: генерация советов для контента длиной {} символов", content.length());
         
-        // Временная имитация ответа Gemini
         String mockResponse = "Это временный ответ от Gemini 2.5 Flash. " +
                 "Контекст: " + context + ". " +
                 "Персонализированные советы сгенерированы на основе вашего запроса.";
@@ -25,4 +90,4 @@ public class GeminiFlashService {
         return AIResponse.success(mockResponse, "gemini", "gemini-2.5-flash")
                 .withUsage(150, 0.011); // Примерные значения для Gemini Flash
     }
-} 
\ No newline at end of file
+}
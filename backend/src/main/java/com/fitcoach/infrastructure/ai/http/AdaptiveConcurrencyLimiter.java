@@ -0,0 +1,354 @@
+package com.fitcoach.infrastructure.ai.http;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Адаптивный лимит одновременных запросов к провайдеру по заголовкам x-ratelimit-*
+ *
+ * Лимит одновременных запросов меняется по AIMD: успешный ответ при
+ * занятом лимите прибавляет 1/limit (около +1 за "круг" запросов), 429 -
+ * умножает на backoff-ratio и останавливает отправку до retry-after.
+ * Когда x-ratelimit-remaining-requests/tokens опускается ниже low-watermark
+ * от лимита, лимит плавно уменьшается (×0.9) - запросы подходят к потолку
+ * RPM/TPM, а не отскакивают от него.
+ *
+ * Запрос входит с оценкой своих токенов: она резервируется из последнего
+ * известного remaining-tokens до сброса окна (x-ratelimit-reset-tokens).
+ * Очередь ожидающих - FIFO: первый ждет, пока хватит и слота, и токенов,
+ * дешевые запросы его не обгоняют (иначе дорогой может ждать бесконечно).
+ *
+ * Настройки: app.ai.http.{provider}.adaptive-limit.*
+ */
+class AdaptiveConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final double NEAR_CEILING_DECREASE = 0.9;
+    // Формат OpenAI: "1s", "6m0s", "20ms", "1h2m3.5s"
+    private static final Pattern RESET_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private final AiProvider provider;
+    private final double minLimit;
+    private final double maxLimit;
+    private final double backoffRatio;
+    private final double lowWatermark;
+    private final int maxQueue;
+    private final Duration maxWait;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long reservedTokens;
+    private long blockedUntil;
+    private long remainingTokens = -1;
+    private long tokenLimit = -1;
+    private long tokensResetAt;
+    private long remainingRequests = -1;
+    private long requestLimit = -1;
+    private long requestsResetAt;
+
+    private final Map<String, Counter> rejected = new ConcurrentHashMap<>();
+    private final Counter throttled;
+    private final MeterRegistry meterRegistry;
+
+    AdaptiveConcurrencyLimiter(AiProvider provider, int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                               double lowWatermark, int maxQueue, Duration maxWait, MeterRegistry meterRegistry) {
+        this.provider = provider;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.backoffRatio = backoffRatio;
+        this.lowWatermark = lowWatermark;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.meterRegistry = meterRegistry;
+
+        String key = provider.getKey();
+        Gauge.builder("ai.http.limiter.limit", this, l -> l.locked(() -> l.limit))
+            .tag("provider", key)
+            .description("Текущий адаптивный лимит одновременных запросов")
+            .register(meterRegistry);
+        Gauge.builder("ai.http.limiter.in_flight", this, l -> l.locked(() -> (double) l.inFlight))
+            .tag("provider", key)
+            .description("Запросы, пропущенные лимитером и еще не завершенные")
+            .register(meterRegistry);
+        Gauge.builder("ai.http.limiter.queued", this, l -> l.locked(() -> (double) l.waiters.size()))
+            .tag("provider", key)
+            .description("Запросы в очереди лимитера")
+            .register(meterRegistry);
+        Gauge.builder("ai.http.limiter.queued_tokens", this,
+                l -> l.locked(() -> (double) l.waiters.stream().mapToLong(w -> w.cost).sum()))
+            .tag("provider", key)
+            .description("Оценка токенов запросов в очереди лимитера")
+            .register(meterRegistry);
+        Gauge.builder("ai.http.limiter.remaining_tokens", this, l -> l.locked(() -> (double) l.remainingTokens))
+            .tag("provider", key)
+            .description("Последний x-ratelimit-remaining-tokens (-1 - неизвестно)")
+            .register(meterRegistry);
+        Gauge.builder("ai.http.limiter.remaining_requests", this, l -> l.locked(() -> (double) l.remainingRequests))
+            .tag("provider", key)
+            .description("Последний x-ratelimit-remaining-requests (-1 - неизвестно)")
+            .register(meterRegistry);
+        this.throttled = Counter.builder("ai.http.limiter.throttled")
+            .tag("provider", key)
+            .description("Ответы 429 от провайдера")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Ждет слот и токены для запроса
+     *
+     * @param cost  оценка токенов запроса (вход + max_tokens)
+     * @param wait  сколько можно ждать (не дольше max-wait)
+     * @throws AiRateLimitedException если слот не получен
+     */
+    Permit acquire(long cost, Duration wait) {
+        long now = System.currentTimeMillis();
+        long waitUntil = now + Math.min(wait.toMillis(), maxWait.toMillis());
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && canAdmit(cost, now)) {
+                return admit(cost);
+            }
+            if (waiters.size() >= maxQueue) {
+                throw reject("queue_full", now);
+            }
+
+            Waiter waiter = new Waiter(cost, lock.newCondition());
+            waiters.addLast(waiter);
+            boolean admitted = false;
+            try {
+                while (true) {
+                    now = System.currentTimeMillis();
+                    if (waiters.peekFirst() == waiter && canAdmit(cost, now)) {
+                        waiters.pollFirst();
+                        admitted = true;
+                        return admit(cost);
+                    }
+                    if (now >= waitUntil) {
+                        throw reject("timeout", now);
+                    }
+                    waiter.condition.await(nextWakeUp(now, waitUntil) - now, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject("interrupted", System.currentTimeMillis());
+            } finally {
+                if (!admitted) {
+                    waiters.remove(waiter);
+                }
+                signalHead();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Завершение запроса: обновляет лимит по статусу и заголовкам ответа
+     *
+     * @param response null - ошибка до ответа (лимит не меняется)
+     */
+    void release(Permit permit, HttpResponse<?> response) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            boolean limitWasUsed = inFlight >= (int) limit;
+            inFlight--;
+            reservedTokens -= permit.cost;
+
+            if (response != null) {
+                HttpHeaders headers = response.headers();
+                readRateLimitHeaders(headers, now);
+                int status = response.statusCode();
+                if (status == 429) {
+                    throttled.increment();
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    blockedUntil = Math.max(blockedUntil, now + retryAfter(headers).toMillis());
+                    log.warn("🐢 {} ответил 429: лимит {} одновременных, пауза до {} мс",
+                        provider.getKey(), String.format("%.1f", limit), blockedUntil - now);
+                } else if (status >= 200 && status < 300) {
+                    if (nearCeiling(now)) {
+                        limit = Math.max(minLimit, limit * NEAR_CEILING_DECREASE);
+                    } else if (limitWasUsed) {
+                        limit = Math.min(maxLimit, limit + 1.0 / limit);
+                    }
+                }
+            }
+            signalHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAdmit(long cost, long now) {
+        if (now < blockedUntil || inFlight >= (int) limit) {
+            return false;
+        }
+        // Запрос дороже остатка ждет сброса окна (после него остаток неизвестен до следующего ответа)
+        boolean tokensAvailable = remainingTokens < 0 || now >= tokensResetAt
+            || cost <= remainingTokens - reservedTokens;
+        boolean requestsAvailable = remainingRequests < 0 || now >= requestsResetAt
+            || inFlight < remainingRequests;
+        return tokensAvailable && requestsAvailable;
+    }
+
+    private Permit admit(long cost) {
+        inFlight++;
+        reservedTokens += cost;
+        return new Permit(cost);
+    }
+
+    /**
+     * Ближайший момент, когда может освободиться ресурс без сигнала от release
+     */
+    private long nextWakeUp(long now, long waitUntil) {
+        long wakeUp = waitUntil;
+        for (long candidate : new long[] {blockedUntil, tokensResetAt, requestsResetAt}) {
+            if (candidate > now && candidate < wakeUp) {
+                wakeUp = candidate;
+            }
+        }
+        return Math.max(now + 1, wakeUp);
+    }
+
+    private boolean nearCeiling(long now) {
+        boolean tokensLow = tokenLimit > 0 && remainingTokens >= 0 && now < tokensResetAt
+            && remainingTokens < tokenLimit * lowWatermark;
+        boolean requestsLow = requestLimit > 0 && remainingRequests >= 0 && now < requestsResetAt
+            && remainingRequests < requestLimit * lowWatermark;
+        return tokensLow || requestsLow;
+    }
+
+    private void readRateLimitHeaders(HttpHeaders headers, long now) {
+        OptionalLong tokens = longHeader(headers, "x-ratelimit-remaining-tokens");
+        if (tokens.isPresent()) {
+            remainingTokens = tokens.getAsLong();
+            tokenLimit = longHeader(headers, "x-ratelimit-limit-tokens").orElse(tokenLimit);
+            tokensResetAt = now + headers.firstValue("x-ratelimit-reset-tokens")
+                .map(AdaptiveConcurrencyLimiter::parseReset).orElse(DEFAULT_RETRY_AFTER).toMillis();
+        }
+        OptionalLong requests = longHeader(headers, "x-ratelimit-remaining-requests");
+        if (requests.isPresent()) {
+            remainingRequests = requests.getAsLong();
+            requestLimit = longHeader(headers, "x-ratelimit-limit-requests").orElse(requestLimit);
+            requestsResetAt = now + headers.firstValue("x-ratelimit-reset-requests")
+                .map(AdaptiveConcurrencyLimiter::parseReset).orElse(DEFAULT_RETRY_AFTER).toMillis();
+        }
+    }
+
+    private static Duration retryAfter(HttpHeaders headers) {
+        OptionalLong millis = longHeader(headers, "retry-after-ms");
+        if (millis.isPresent()) {
+            return Duration.ofMillis(millis.getAsLong());
+        }
+        OptionalLong seconds = longHeader(headers, "retry-after");
+        if (seconds.isPresent()) {
+            return Duration.ofSeconds(seconds.getAsLong());
+        }
+        return headers.firstValue("x-ratelimit-reset-requests")
+            .or(() -> headers.firstValue("x-ratelimit-reset-tokens"))
+            .map(AdaptiveConcurrencyLimiter::parseReset)
+            .orElse(DEFAULT_RETRY_AFTER);
+    }
+
+    /**
+     * Разбор длительности сброса окна лимита ("6m0s", "20ms", "1.5s")
+     */
+    static Duration parseReset(String value) {
+        Matcher matcher = RESET_PART.matcher(value.trim());
+        double millis = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            millis += switch (matcher.group(2)) {
+                case "h" -> amount * 3_600_000;
+                case "m" -> amount * 60_000;
+                case "s" -> amount * 1000;
+                default -> amount;
+            };
+        }
+        return found ? Duration.ofMillis((long) Math.ceil(millis)) : DEFAULT_RETRY_AFTER;
+    }
+
+    private static OptionalLong longHeader(HttpHeaders headers, String name) {
+        return headers.firstValue(name)
+            .map(value -> {
+                try {
+                    return OptionalLong.of((long) Double.parseDouble(value.trim()));
+                } catch (NumberFormatException e) {
+                    return OptionalLong.empty();
+                }
+            })
+            .orElse(OptionalLong.empty());
+    }
+
+    private void signalHead() {
+        Waiter head = waiters.peekFirst();
+        if (head != null) {
+            head.condition.signal();
+        }
+    }
+
+    private AiRateLimitedException reject(String reason, long now) {
+        rejected.computeIfAbsent(reason, r -> Counter.builder("ai.http.limiter.rejected")
+            .tag("provider", provider.getKey())
+            .tag("reason", r)
+            .description("Запросы, не дождавшиеся слота адаптивного лимитера")
+            .register(meterRegistry)).increment();
+        long retryAt = blockedUntil > now ? blockedUntil : nextWakeUp(now, now + DEFAULT_RETRY_AFTER.toMillis());
+        return new AiRateLimitedException(provider, reason, Duration.ofMillis(retryAt - now));
+    }
+
+    private double locked(DoubleSupplier value) {
+        lock.lock();
+        try {
+            return value.getAsDouble();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Пропуск лимитера; возвращается через release
+     */
+    static final class Permit {
+        private final long cost;
+
+        private Permit(long cost) {
+            this.cost = cost;
+        }
+    }
+
+    private static final class Waiter {
+        private final long cost;
+        private final Condition condition;
+
+        Waiter(long cost, Condition condition) {
+            this.cost = cost;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.fitcoach.infrastructure.ai.http;
+
+import com.fitcoach.infrastructure.ai.common.Deadline;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Общий HTTP клиент для всех исходящих AI вызовов (OpenAI, DeepSeek, Gemini)
+ *
+ * - один java.net.http клиент на хост: HTTP/2 с мультиплексированием и
+ *   keep-alive пулом соединений вместо нового клиента на каждый запрос
+ * - обработчики ответов выполняются на виртуальных потоках
+ * - таймауты подключения и чтения настраиваются отдельно для каждого хоста
+ * - соединения прогреваются при старте (TLS + HTTP/2 согласование)
+ * - для провайдеров с заголовками x-ratelimit-* (OpenAI) отправку пропускает
+ *   адаптивный лимитер одновременных запросов (AdaptiveConcurrencyLimiter)
+ *
+ * Настройки: app.ai.http.{openai|deepseek|gemini}.base-url/connect-timeout/read-timeout,
+ * app.ai.http.{provider}.adaptive-limit.*, app.ai.http.prewarm
+ */
+@Component
+public class AiHttpClient {
+
+    private static final Logger log = LoggerFactory.getLogger(AiHttpClient.class);
+
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration PREWARM_TIMEOUT = Duration.ofSeconds(10);
+    // Оценка токенов запроса без явной: ~4 байта JSON на токен
+    private static final int BYTES_PER_TOKEN = 4;
+    private static final long DEFAULT_ESTIMATED_TOKENS = 1000;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<AiProvider, HostClient> clients = new EnumMap<>(AiProvider.class);
+    private final MeterRegistry meterRegistry;
+    private final boolean prewarmEnabled;
+
+    public AiHttpClient(Environment environment, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.prewarmEnabled = environment.getProperty("app.ai.http.prewarm", Boolean.class, true);
+
+        for (AiProvider provider : AiProvider.values()) {
+            String prefix = "app.ai.http." + provider.getKey() + ".";
+            URI baseUrl = URI.create(environment.getProperty(prefix + "base-url", provider.getDefaultBaseUrl()));
+            Duration connectTimeout = environment.getProperty(prefix + "connect-timeout", Duration.class, DEFAULT_CONNECT_TIMEOUT);
+            Duration readTimeout = environment.getProperty(prefix + "read-timeout", Duration.class, DEFAULT_READ_TIMEOUT);
+
+            HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+
+            AdaptiveConcurrencyLimiter limiter = null;
+            String limitPrefix = prefix + "adaptive-limit.";
+            // x-ratelimit-* заголовки отдает OpenAI; другим провайдерам лимитер включается явно
+            if (environment.getProperty(limitPrefix + "enabled", Boolean.class, provider == AiProvider.OPENAI)) {
+                limiter = new AdaptiveConcurrencyLimiter(provider,
+                    environment.getProperty(limitPrefix + "initial", Integer.class, 10),
+                    environment.getProperty(limitPrefix + "min", Integer.class, 1),
+                    environment.getProperty(limitPrefix + "max", Integer.class, 50),
+                    environment.getProperty(limitPrefix + "backoff-ratio", Double.class, 0.5),
+                    environment.getProperty(limitPrefix + "low-watermark", Double.class, 0.1),
+                    environment.getProperty(limitPrefix + "max-queue", Integer.class, 100),
+                    environment.getProperty(limitPrefix + "max-wait", Duration.class, Duration.ofSeconds(10)),
+                    meterRegistry);
+            }
+
+            clients.put(provider, new HostClient(provider, baseUrl, readTimeout, client, limiter));
+            log.info("🌐 AI HTTP клиент {}: {} (connect={}, read={}{})", provider.getKey(), baseUrl, connectTimeout,
+                readTimeout, limiter != null ? ", адаптивный лимит" : "");
+        }
+    }
+
+    /**
+     * Заготовка запроса к провайдеру с таймаутом чтения хоста
+     *
+     * @param path путь относительно base-url (например, /v1/chat/completions)
+     */
+    public HttpRequest.Builder newRequest(AiProvider provider, String path) {
+        HostClient host = clients.get(provider);
+        return HttpRequest.newBuilder()
+            .uri(host.baseUrl.resolve(path))
+            .timeout(host.readTimeout);
+    }
+
+    /**
+     * Заготовка запроса, таймаут которого не выходит за крайний срок обработки
+     */
+    public HttpRequest.Builder newRequest(AiProvider provider, String path, Deadline deadline) {
+        HostClient host = clients.get(provider);
+        return HttpRequest.newBuilder()
+            .uri(host.baseUrl.resolve(path))
+            .timeout(deadline.cap(host.readTimeout));
+    }
+
+    /**
+     * Синхронная отправка (вызывающий поток блокируется, для виртуальных потоков это дешево)
+     * Токены запроса оцениваются по размеру тела
+     */
+    public <T> HttpResponse<T> send(AiProvider provider, HttpRequest request,
+                                    HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        long contentLength = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(-1L);
+        return send(provider, request, handler,
+            contentLength > 0 ? contentLength / BYTES_PER_TOKEN : DEFAULT_ESTIMATED_TOKENS);
+    }
+
+    /**
+     * Синхронная отправка с оценкой токенов запроса (вход + max_tokens) для адаптивного лимитера
+     *
+     * @throws AiRateLimitedException если лимитер не дал слот за время ожидания
+     */
+    public <T> HttpResponse<T> send(AiProvider provider, HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                    long estimatedTokens) throws IOException, InterruptedException {
+        HostClient host = clients.get(provider);
+        AdaptiveConcurrencyLimiter.Permit permit = host.limiter != null
+            ? host.limiter.acquire(estimatedTokens, request.timeout().orElse(host.readTimeout))
+            : null;
+        long start = System.nanoTime();
+        host.inFlight.incrementAndGet();
+        HttpResponse<T> response = null;
+        try {
+            response = host.client.send(request, handler);
+            return response;
+        } finally {
+            host.inFlight.decrementAndGet();
+            host.record(response, System.nanoTime() - start);
+            if (permit != null) {
+                host.limiter.release(permit, response);
+            }
+        }
+    }
+
+    /**
+     * Потоковый ответ (server-sent events): data каждого события передается в onData
+     * по мере получения, вызывающий поток блокируется до конца потока
+     *
+     * Слот адаптивного лимитера занят до конца генерации. Исключение из onData
+     * прерывает поток и выбрасывается из stream (обернутым в IOException).
+     *
+     * @throws AiProviderException если провайдер ответил не 2xx (тело ошибки читается целиком)
+     */
+    public void stream(AiProvider provider, HttpRequest request, Consumer<String> onData,
+                       long estimatedTokens) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(provider, request, responseInfo -> {
+            int status = responseInfo.statusCode();
+            return status >= 200 && status < 300
+                ? HttpResponse.BodySubscribers.mapping(new SseBodySubscriber(onData), ignored -> "")
+                : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        }, estimatedTokens);
+        requireSuccess(provider, response);
+    }
+
+    /**
+     * Асинхронная отправка (без адаптивного лимитера: ожидание слота блокировало бы вызывающего)
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(AiProvider provider, HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> handler) {
+        HostClient host = clients.get(provider);
+        long start = System.nanoTime();
+        host.inFlight.incrementAndGet();
+        return host.client.sendAsync(request, handler)
+            .whenComplete((response, error) -> {
+                host.inFlight.decrementAndGet();
+                host.record(response, System.nanoTime() - start);
+            });
+    }
+
+    /**
+     * Бросает AiProviderException для ответов вне диапазона 2xx
+     */
+    public static <T> HttpResponse<T> requireSuccess(AiProvider provider, HttpResponse<T> response) {
+        int status = response.statusCode();
+        if (status < 200 || status >= 300) {
+            Object body = response.body();
+            String text = body instanceof byte[] bytes ? new String(bytes) : String.valueOf(body);
+            throw new AiProviderException(provider, status, text);
+        }
+        return response;
+    }
+
+    public Duration getReadTimeout(AiProvider provider) {
+        return clients.get(provider).readTimeout;
+    }
+
+    /**
+     * Прогрев соединений после старта: HEAD на base-url устанавливает TLS и HTTP/2
+     * соединение, которое затем переиспользуется первым реальным запросом
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarmConnections() {
+        if (!prewarmEnabled) {
+            return;
+        }
+
+        clients.values().forEach(host -> {
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(host.baseUrl)
+                .timeout(PREWARM_TIMEOUT)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+
+            host.client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        log.warn("⚠️ Прогрев соединения {} не удался: {}", host.provider.getKey(), error.getMessage());
+                    } else {
+                        host.prewarmed.set(1);
+                        log.info("🔥 Соединение {} прогрето ({})", host.provider.getKey(), response.version());
+                    }
+                });
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clients.values().forEach(host -> host.client.shutdownNow());
+        executor.shutdownNow();
+    }
+
+    /**
+     * Клиент и метрики одного хоста
+     */
+    private class HostClient {
+        private final AiProvider provider;
+        private final URI baseUrl;
+        private final Duration readTimeout;
+        private final HttpClient client;
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger prewarmed = new AtomicInteger();
+
+        HostClient(AiProvider provider, URI baseUrl, Duration readTimeout, HttpClient client,
+                   AdaptiveConcurrencyLimiter limiter) {
+            this.provider = provider;
+            this.baseUrl = baseUrl;
+            this.readTimeout = readTimeout;
+            this.client = client;
+            this.limiter = limiter;
+
+            // java.net.http не раскрывает состояние пула: экспортируем число
+            // активных запросов (занятые потоки/соединения) и признак прогрева
+            Gauge.builder("ai.http.in_flight", inFlight, AtomicInteger::get)
+                .tag("provider", provider.getKey())
+                .description("Активные исходящие запросы к AI провайдеру")
+                .register(meterRegistry);
+            Gauge.builder("ai.http.prewarmed", prewarmed, AtomicInteger::get)
+                .tag("provider", provider.getKey())
+                .description("Соединение прогрето при старте (1/0)")
+                .register(meterRegistry);
+        }
+
+        void record(HttpResponse<?> response, long nanos) {
+            Timer.builder("ai.http.requests")
+                .tag("provider", provider.getKey())
+                .tag("status", response != null ? String.valueOf(response.statusCode()) : "error")
+                .tag("version", response != null ? response.version().name() : "none")
+                .description("Исходящие запросы к AI провайдерам")
+                .register(meterRegistry)
+                .record(Duration.ofNanos(nanos));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.fitcoach.infrastructure.ai.http;
+
+/**
+ * Внешние AI провайдеры, к которым ходит общий HTTP клиент
+ *
+ * Ключ используется в настройках app.ai.http.{key}.* и в тегах метрик.
+ */
+public enum AiProvider {
+
+    OPENAI("openai", "https://api.openai.com"),
+
+    DEEPSEEK("deepseek", "https://api.deepseek.com"),
+
+    GEMINI("gemini", "https://generativelanguage.googleapis.com");
+
+    private final String key;
+    private final String defaultBaseUrl;
+
+    AiProvider(String key, String defaultBaseUrl) {
+        this.key = key;
+        this.defaultBaseUrl = defaultBaseUrl;
+    }
+
+    public String getKey() { return key; }
+    public String getDefaultBaseUrl() { return defaultBaseUrl; }
+}
@@ -0,0 +1,22 @@
+package com.fitcoach.infrastructure.ai.http;
+
+/**
+ * Ошибка ответа AI провайдера (HTTP статус отличный от 2xx)
+ */
+public class AiProviderException extends RuntimeException {
+
+    private final AiProvider provider;
+    private final int statusCode;
+    private final String responseBody;
+
+    public AiProviderException(AiProvider provider, int statusCode, String responseBody) {
+        super(String.format("%s API вернул ошибку: %d - %s", provider.getKey(), statusCode, responseBody));
+        this.provider = provider;
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
+    public AiProvider getProvider() { return provider; }
+    public int getStatusCode() { return statusCode; }
+    public String getResponseBody() { return responseBody; }
+}
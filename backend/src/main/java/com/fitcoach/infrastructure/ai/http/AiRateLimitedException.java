@@ -0,0 +1,22 @@
+package com.fitcoach.infrastructure.ai.http;
+
+import java.time.Duration;
+
+/**
+ * Вызов не отправлен: адаптивный лимитер провайдера не дал слот
+ * (лимит RPM/TPM исчерпан, провайдер просил подождать или очередь заполнена)
+ */
+public class AiRateLimitedException extends RuntimeException {
+
+    private final AiProvider provider;
+    private final Duration retryAfter;
+
+    public AiRateLimitedException(AiProvider provider, String reason, Duration retryAfter) {
+        super(String.format("%s: лимит запросов провайдера (%s)", provider.getKey(), reason));
+        this.provider = provider;
+        this.retryAfter = retryAfter;
+    }
+
+    public AiProvider getProvider() { return provider; }
+    public Duration getRetryAfter() { return retryAfter; }
+}
@@ -0,0 +1,130 @@
+package com.fitcoach.infrastructure.ai.http;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Разбор тела text/event-stream по мере получения
+ *
+ * Строки режутся по байту '\n' (он не встречается внутри многобайтных
+ * символов UTF-8), строки data: одного события склеиваются через '\n',
+ * событие отдается в onData на пустой строке. Поля event/id/retry и
+ * комментарии (":") пропускаются - OpenAI передает все в data.
+ *
+ * Исключение из onData прерывает поток: подписка отменяется (провайдер
+ * перестает генерировать), а send завершается с этой ошибкой. Готовый
+ * BodySubscribers.fromLineSubscriber так не умеет: после отмены его
+ * тело не завершается никогда.
+ */
+class SseBodySubscriber implements HttpResponse.BodySubscriber<Void> {
+
+    private static final String DATA_FIELD = "data";
+
+    private final Consumer<String> onData;
+    private final CompletableFuture<Void> body = new CompletableFuture<>();
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private final StringBuilder data = new StringBuilder();
+    private boolean hasData;
+    private Flow.Subscription subscription;
+
+    SseBodySubscriber(Consumer<String> onData) {
+        this.onData = onData;
+    }
+
+    @Override
+    public CompletionStage<Void> getBody() {
+        return body;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        if (body.isDone()) {
+            return;
+        }
+        try {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        processLine();
+                    } else {
+                        line.write(b);
+                    }
+                }
+            }
+            subscription.request(1);
+        } catch (RuntimeException e) {
+            subscription.cancel();
+            body.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        body.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            if (line.size() > 0) {
+                processLine();
+            }
+            dispatch();
+            body.complete(null);
+        } catch (RuntimeException e) {
+            body.completeExceptionally(e);
+        }
+    }
+
+    private void processLine() {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        line.reset();
+        if (length == 0) {
+            dispatch();
+            return;
+        }
+        String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        if (text.startsWith(":")) {
+            return;
+        }
+        int colon = text.indexOf(':');
+        String field = colon < 0 ? text : text.substring(0, colon);
+        if (!DATA_FIELD.equals(field)) {
+            return;
+        }
+        int valueStart = colon < 0 ? text.length() : colon + 1;
+        if (valueStart < text.length() && text.charAt(valueStart) == ' ') {
+            valueStart++;
+        }
+        if (hasData) {
+            data.append('\n');
+        }
+        data.append(text, valueStart, text.length());
+        hasData = true;
+    }
+
+    private void dispatch() {
+        if (!hasData) {
+            return;
+        }
+        String event = data.toString();
+        data.setLength(0);
+        hasData = false;
+        onData.accept(event);
+    }
+}
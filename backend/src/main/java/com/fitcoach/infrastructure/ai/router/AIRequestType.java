@@ -48,5 +48,13 @@ public enum AIRequestType {
      * Анализ прогресса пользователя
      * Использует: DeepSeek R1 для математических расчетов
      */
-    PROGRESS_ANALYSIS
+    PROGRESS_ANALYSIS;
+    
+    /**
+     * Ответ не привязан к автору вопроса и может быть отдан на похожий вопрос
+     * другого пользователя (семантический кэш)
+     */
+    public boolean isShareable() {
+        return this == NUTRITION_ADVICE || this == CHAT_RESPONSE;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,299 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import com.fitcoach.infrastructure.ai.http.AiProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Адаптивная маршрутизация AI запросов по живым метрикам провайдеров
+ *
+ * Для каждой пары (тип запроса, провайдер) хранится экспоненциально
+ * сглаженное (EWMA) время ответа, доля ошибок и стоимость вызова.
+ * Основным выбирается самый дешевый провайдер, который укладывается в
+ * SLO по задержке и допустимую долю ошибок; остальные идут резервом.
+ * Пока стоимость измерена не у всех подходящих провайдеров, они идут в
+ * порядке прежней цепочки fallback (DeepSeek первым для анализа еды и
+ * прогресса), а не по априорным ценам.
+ *
+ * Провайдер, не прошедший SLO, понижается, но небольшая доля трафика
+ * (probe-ratio) продолжает уходить к нему первым, чтобы метрики
+ * обновлялись и восстановившийся провайдер вернулся в ротацию. Та же доля
+ * достается подходящим провайдерам без замера стоимости: иначе резервный
+ * провайдер получает трафик только при отказе основного, его стоимость
+ * не измеряется никогда и выбор по цене не включается.
+ *
+ * Настройки: app.ai.routing.alpha/probe-ratio/max-error-rate,
+ * app.ai.routing.latency-slo.{food-analysis|nutrition-advice|...}
+ */
+@Component
+public class AdaptiveRoutingEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveRoutingEngine.class);
+
+    private static final Duration DEFAULT_LATENCY_SLO = Duration.ofSeconds(10);
+
+    // Кандидаты в порядке прежней статической цепочки fallback
+    private static final Map<AIRequestType, List<AiProvider>> CANDIDATES = new EnumMap<>(Map.of(
+        AIRequestType.FOOD_ANALYSIS, List.of(AiProvider.DEEPSEEK, AiProvider.GEMINI, AiProvider.OPENAI),
+        AIRequestType.PROGRESS_ANALYSIS, List.of(AiProvider.DEEPSEEK, AiProvider.GEMINI, AiProvider.OPENAI),
+        AIRequestType.NUTRITION_ADVICE, List.of(AiProvider.GEMINI, AiProvider.OPENAI),
+        AIRequestType.CHAT_RESPONSE, List.of(AiProvider.GEMINI, AiProvider.OPENAI),
+        AIRequestType.WORKOUT_PLANNING, List.of(AiProvider.GEMINI, AiProvider.OPENAI),
+        AIRequestType.COMPLEX_QUERY, List.of(AiProvider.OPENAI)
+    ));
+
+    // Априорная стоимость вызова (~1000 токенов) до появления реальных данных: только для статистики,
+    // порядок без замеров задает CANDIDATES
+    private static final Map<AiProvider, Double> PRIOR_COST_USD = new EnumMap<>(Map.of(
+        AiProvider.DEEPSEEK, 0.14 / 1000,
+        AiProvider.GEMINI, 0.075 / 1000,
+        AiProvider.OPENAI, 0.03
+    ));
+
+    private final double alpha;
+    private final double probeRatio;
+    private final double maxErrorRate;
+    private final Map<AIRequestType, Duration> latencySlo = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Map<AiProvider, ProviderStats>> stats = new EnumMap<>(AIRequestType.class);
+
+    public AdaptiveRoutingEngine(Environment environment) {
+        this.alpha = environment.getProperty("app.ai.routing.alpha", Double.class, 0.2);
+        this.probeRatio = environment.getProperty("app.ai.routing.probe-ratio", Double.class, 0.05);
+        this.maxErrorRate = environment.getProperty("app.ai.routing.max-error-rate", Double.class, 0.3);
+
+        for (AIRequestType type : AIRequestType.values()) {
+            latencySlo.put(type, environment.getProperty("app.ai.routing.latency-slo." + propertyKey(type),
+                Duration.class, DEFAULT_LATENCY_SLO));
+
+            Map<AiProvider, ProviderStats> byProvider = new EnumMap<>(AiProvider.class);
+            for (AiProvider provider : candidates(type)) {
+                byProvider.put(provider, new ProviderStats(PRIOR_COST_USD.get(provider)));
+            }
+            stats.put(type, byProvider);
+        }
+
+        log.info("🧭 Адаптивная маршрутизация: alpha={}, probe={}, max-error-rate={}, SLO={}",
+            alpha, probeRatio, maxErrorRate, latencySlo);
+    }
+
+    /**
+     * Порядок провайдеров для запроса: первый - основной, остальные - резерв
+     */
+    public List<AiProvider> rank(AIRequestType type) {
+        List<AiProvider> demoted = new ArrayList<>();
+        List<AiProvider> ranking = rankWithoutProbe(type, demoted);
+
+        // Пробный запрос к пониженному или еще не измеренному провайдеру
+        List<AiProvider> probes = probeTargets(type, ranking, demoted);
+        if (!probes.isEmpty() && ThreadLocalRandom.current().nextDouble() < probeRatio) {
+            AiProvider probe = probes.get(ThreadLocalRandom.current().nextInt(probes.size()));
+            ranking.remove(probe);
+            ranking.add(0, probe);
+            log.debug("🔎 Пробный запрос {} к провайдеру {}", type, probe.getKey());
+        }
+        return ranking;
+    }
+
+    /**
+     * Учитывает результат вызова провайдера
+     */
+    public void record(AIRequestType type, AiProvider provider, long latencyMs, boolean success,
+                       Double costUsd, String model) {
+        ProviderStats providerStats = stats.get(type).get(provider);
+        if (providerStats != null) {
+            providerStats.update(alpha, latencyMs, success, costUsd, model);
+        }
+    }
+
+    /**
+     * Учитывает отказ без замера задержки (например, переборка отклонила вызов)
+     */
+    public void recordRejected(AIRequestType type, AiProvider provider) {
+        ProviderStats providerStats = stats.get(type).get(provider);
+        if (providerStats != null) {
+            providerStats.updateError(alpha);
+        }
+    }
+
+    /**
+     * Текущие веса и метрики маршрутизации по типам запросов
+     *
+     * Вес - доля запросов, для которых провайдер будет основным.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (AIRequestType type : AIRequestType.values()) {
+            Map<AiProvider, ProviderStats> byProvider = stats.get(type);
+            long sloMs = latencySlo.get(type).toMillis();
+
+            List<AiProvider> demoted = new ArrayList<>();
+            List<AiProvider> ranking = rankWithoutProbe(type, demoted);
+            List<AiProvider> probes = probeTargets(type, ranking, demoted);
+            boolean probing = !probes.isEmpty();
+
+            Map<String, Object> providers = new LinkedHashMap<>();
+            for (AiProvider provider : ranking) {
+                double weight;
+                if (!probing) {
+                    weight = provider == ranking.get(0) ? 1.0 : 0.0;
+                } else if (probes.contains(provider)) {
+                    weight = probeRatio / probes.size();
+                } else {
+                    weight = provider == ranking.get(0) ? 1.0 - probeRatio : 0.0;
+                }
+                providers.put(provider.getKey(), byProvider.get(provider).toMap(weight, !demoted.contains(provider)));
+            }
+
+            Map<String, Object> typeStats = new LinkedHashMap<>();
+            typeStats.put("latency_slo_ms", sloMs);
+            typeStats.put("providers", providers);
+            result.put(type.name().toLowerCase(), typeStats);
+        }
+        return result;
+    }
+
+    /**
+     * Подходящие под SLO по возрастанию стоимости (пока не у всех есть замер
+     * стоимости - в порядке кандидатов), затем пониженные по возрастанию штрафа
+     *
+     * @param demoted заполняется пониженными провайдерами
+     */
+    private List<AiProvider> rankWithoutProbe(AIRequestType type, List<AiProvider> demoted) {
+        Map<AiProvider, ProviderStats> byProvider = stats.get(type);
+        long sloMs = latencySlo.get(type).toMillis();
+
+        // Оценки снимаются один раз, чтобы параллельные обновления не меняли их во время сортировки
+        Map<AiProvider, Double> scores = new EnumMap<>(AiProvider.class);
+        List<AiProvider> candidates = candidates(type);
+        boolean costsMeasured = true;
+        for (AiProvider provider : candidates) {
+            ProviderStats providerStats = byProvider.get(provider);
+            if (providerStats.meetsSlo(sloMs, maxErrorRate)) {
+                scores.put(provider, providerStats.cost());
+                costsMeasured &= providerStats.hasMeasuredCost();
+            } else {
+                demoted.add(provider);
+                scores.put(provider, providerStats.penalty(sloMs));
+            }
+        }
+        if (!costsMeasured) {
+            for (AiProvider provider : candidates) {
+                if (!demoted.contains(provider)) {
+                    scores.put(provider, (double) candidates.indexOf(provider));
+                }
+            }
+        }
+
+        List<AiProvider> ranking = new ArrayList<>(candidates);
+        ranking.sort(Comparator
+            .comparing((AiProvider provider) -> demoted.contains(provider))
+            .thenComparingDouble(scores::get));
+        return ranking;
+    }
+
+    /**
+     * Кому уходят пробные запросы: пониженные (пока есть кому отвечать основным)
+     * и подходящие без замера стоимости, кроме основного
+     */
+    private List<AiProvider> probeTargets(AIRequestType type, List<AiProvider> ranking, List<AiProvider> demoted) {
+        List<AiProvider> probes = new ArrayList<>();
+        if (demoted.size() < ranking.size()) {
+            probes.addAll(demoted);
+        }
+        Map<AiProvider, ProviderStats> byProvider = stats.get(type);
+        for (AiProvider provider : ranking) {
+            if (provider != ranking.get(0) && !demoted.contains(provider)
+                    && !byProvider.get(provider).hasMeasuredCost()) {
+                probes.add(provider);
+            }
+        }
+        return probes;
+    }
+
+    private static List<AiProvider> candidates(AIRequestType type) {
+        return CANDIDATES.getOrDefault(type, List.of(AiProvider.GEMINI, AiProvider.OPENAI));
+    }
+
+    private static String propertyKey(AIRequestType type) {
+        return type.name().toLowerCase().replace('_', '-');
+    }
+
+    /**
+     * EWMA метрики одного провайдера для одного типа запросов
+     */
+    private static class ProviderStats {
+        private double latencyMs = Double.NaN;
+        private double errorRate;
+        private double costUsd;
+        private long samples;
+        private long costSamples;
+        private String model;
+
+        ProviderStats(double priorCostUsd) {
+            this.costUsd = priorCostUsd;
+        }
+
+        synchronized void update(double alpha, long latency, boolean success, Double cost, String model) {
+            latencyMs = Double.isNaN(latencyMs) ? latency : latencyMs + alpha * (latency - latencyMs);
+            errorRate += alpha * ((success ? 0.0 : 1.0) - errorRate);
+            if (success && cost != null && cost > 0) {
+                // Первый замер заменяет априорную цену целиком
+                costUsd = costSamples == 0 ? cost : costUsd + alpha * (cost - costUsd);
+                costSamples++;
+            }
+            if (model != null) {
+                this.model = model;
+            }
+            samples++;
+        }
+
+        synchronized void updateError(double alpha) {
+            errorRate += alpha * (1.0 - errorRate);
+            samples++;
+        }
+
+        synchronized double cost() {
+            return costUsd;
+        }
+
+        synchronized boolean hasMeasuredCost() {
+            return costSamples > 0;
+        }
+
+        synchronized boolean meetsSlo(long sloMs, double maxErrorRate) {
+            // Без замеров провайдер считается подходящим
+            return (Double.isNaN(latencyMs) || latencyMs <= sloMs) && errorRate <= maxErrorRate;
+        }
+
+        /**
+         * Штраф пониженного провайдера: превышение SLO с учетом доли ошибок
+         */
+        synchronized double penalty(long sloMs) {
+            double latency = Double.isNaN(latencyMs) ? sloMs : latencyMs;
+            return latency / sloMs + errorRate * 2;
+        }
+
+        synchronized Map<String, Object> toMap(double weight, boolean healthy) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("weight", Math.round(weight * 1000) / 1000.0);
+            map.put("healthy", healthy);
+            map.put("model", model);
+            map.put("ewma_latency_ms", Double.isNaN(latencyMs) ? null : Math.round(latencyMs));
+            map.put("ewma_error_rate", Math.round(errorRate * 1000) / 1000.0);
+            map.put("ewma_cost_usd", costUsd);
+            map.put("samples", samples);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import com.fitcoach.infrastructure.ai.http.AiProvider;
+
+/**
+ * Провайдер перегружен: очередь переборки заполнена или ожидание истекло
+ */
+public class BulkheadRejectedException extends RuntimeException {
+
+    private final AiProvider provider;
+
+    public BulkheadRejectedException(AiProvider provider, String reason) {
+        super(String.format("%s перегружен: %s", provider.getKey(), reason));
+        this.provider = provider;
+    }
+
+    public AiProvider getProvider() { return provider; }
+}
@@ -0,0 +1,77 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.infrastructure.ai.common.Deadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Бюджет времени AI запроса по типам
+ *
+ * Крайний срок создается на входе в LLMRouterService и ограничивает всю
+ * цепочку провайдеров. Следующий провайдер пробуется, только если до
+ * срока осталось не меньше min-attempt; иначе пользователь сразу
+ * получает деградированный ответ вместо зависания.
+ *
+ * Настройки: app.ai.deadline.min-attempt, app.ai.deadline.budget.{food-analysis|...}
+ */
+@Component
+public class DeadlinePolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(DeadlinePolicy.class);
+
+    private static final Duration DEFAULT_BUDGET = Duration.ofSeconds(20);
+    private static final String DEGRADED_MESSAGE =
+        "Ответ занимает больше времени, чем обычно. Попробуйте повторить запрос через минуту.";
+
+    private final Duration minAttempt;
+    private final Map<AIRequestType, Duration> budgets = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> exceeded = new EnumMap<>(AIRequestType.class);
+
+    public DeadlinePolicy(Environment environment, MeterRegistry meterRegistry) {
+        this.minAttempt = environment.getProperty("app.ai.deadline.min-attempt", Duration.class, Duration.ofSeconds(1));
+
+        for (AIRequestType type : AIRequestType.values()) {
+            String key = type.name().toLowerCase();
+            budgets.put(type, environment.getProperty("app.ai.deadline.budget." + key.replace('_', '-'),
+                Duration.class, DEFAULT_BUDGET));
+            exceeded.put(type, Counter.builder("ai.deadline.exceeded")
+                .tag("type", key)
+                .description("Запросы, завершенные деградированным ответом по крайнему сроку")
+                .register(meterRegistry));
+        }
+
+        log.info("⏱️ Бюджеты AI запросов: {}, минимум на попытку {}", budgets, minAttempt);
+    }
+
+    /**
+     * Крайний срок для нового запроса этого типа
+     */
+    public Deadline start(AIRequestType type) {
+        return Deadline.after(budgets.get(type));
+    }
+
+    /**
+     * Хватает ли оставшегося времени на вызов провайдера
+     */
+    public boolean canAttempt(Deadline deadline) {
+        return deadline.hasAtLeast(minAttempt);
+    }
+
+    /**
+     * Быстрый ответ при исчерпании бюджета
+     */
+    public AIResponse degraded(AIRequestType type) {
+        exceeded.get(type).increment();
+        return AIResponse.error(DEGRADED_MESSAGE, "system")
+            .withMetadata(Map.of("degraded", true, "reason", "deadline"));
+    }
+}
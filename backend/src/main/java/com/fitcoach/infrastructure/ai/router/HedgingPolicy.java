@@ -0,0 +1,153 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Политика хеджирования AI запросов
+ *
+ * Если основной провайдер не ответил за время, соответствующее заданному
+ * перцентилю недавних задержек этого типа запроса, тот же запрос
+ * отправляется следующему провайдеру, и используется первый успешный ответ.
+ *
+ * Бюджет ограничивает долю дополнительных вызовов: каждый запрос
+ * начисляет budget-ratio кредита, каждый хедж списывает единицу.
+ *
+ * Настройки: app.ai.hedging.enabled/percentile/min-delay/default-delay/budget-ratio
+ */
+@Component
+public class HedgingPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgingPolicy.class);
+
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 16;
+    // Запас кредита, чтобы короткий всплеск медленных ответов мог хеджироваться
+    private static final double MAX_CREDIT = 10.0;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayMs;
+    private final long defaultDelayMs;
+    private final double budgetRatio;
+
+    private final Map<AIRequestType, LatencyWindow> windows = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> hedges = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> primaryWins = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> hedgeWins = new EnumMap<>(AIRequestType.class);
+    private final Counter budgetExhausted;
+    private double credit;
+
+    public HedgingPolicy(Environment environment, MeterRegistry meterRegistry) {
+        this.enabled = environment.getProperty("app.ai.hedging.enabled", Boolean.class, true);
+        this.percentile = environment.getProperty("app.ai.hedging.percentile", Double.class, 0.95);
+        this.minDelayMs = environment.getProperty("app.ai.hedging.min-delay", Duration.class, Duration.ofMillis(500)).toMillis();
+        this.defaultDelayMs = environment.getProperty("app.ai.hedging.default-delay", Duration.class, Duration.ofSeconds(5)).toMillis();
+        this.budgetRatio = environment.getProperty("app.ai.hedging.budget-ratio", Double.class, 0.1);
+
+        for (AIRequestType type : AIRequestType.values()) {
+            String typeTag = type.name().toLowerCase();
+            windows.put(type, new LatencyWindow());
+            hedges.put(type, Counter.builder("ai.hedging.hedges")
+                .tag("type", typeTag)
+                .description("Отправленные хеджирующие запросы")
+                .register(meterRegistry));
+            primaryWins.put(type, wins(meterRegistry, typeTag, "primary"));
+            hedgeWins.put(type, wins(meterRegistry, typeTag, "hedge"));
+        }
+        this.budgetExhausted = Counter.builder("ai.hedging.budget_exhausted")
+            .description("Хеджи, пропущенные из-за исчерпанного бюджета")
+            .register(meterRegistry);
+
+        log.info("🪢 Хеджирование: {}, p{}, бюджет {}%", enabled ? "включено" : "выключено",
+            Math.round(percentile * 100), Math.round(budgetRatio * 100));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Через сколько миллисекунд без ответа основного провайдера отправлять хедж
+     */
+    public long hedgeDelayMs(AIRequestType type) {
+        return windows.get(type).threshold();
+    }
+
+    /**
+     * Учитывает задержку успешного ответа провайдера
+     */
+    public void recordLatency(AIRequestType type, long latencyMs) {
+        windows.get(type).add(latencyMs);
+    }
+
+    /**
+     * Начисляет кредит бюджета за запрос, допускающий хедж
+     */
+    public synchronized void onRequest() {
+        credit = Math.min(MAX_CREDIT, credit + budgetRatio);
+    }
+
+    /**
+     * Списывает кредит на хедж; false - бюджет исчерпан
+     */
+    public boolean tryAcquireHedge(AIRequestType type) {
+        synchronized (this) {
+            if (credit < 1.0) {
+                budgetExhausted.increment();
+                return false;
+            }
+            credit -= 1.0;
+        }
+        hedges.get(type).increment();
+        return true;
+    }
+
+    public void recordWin(AIRequestType type, boolean hedgeWon) {
+        (hedgeWon ? hedgeWins : primaryWins).get(type).increment();
+    }
+
+    private static Counter wins(MeterRegistry meterRegistry, String typeTag, String winner) {
+        return Counter.builder("ai.hedging.wins")
+            .tag("type", typeTag)
+            .tag("winner", winner)
+            .description("Чей ответ использован в хеджированном запросе")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Кольцевой буфер последних задержек с периодически пересчитываемым перцентилем
+     */
+    private class LatencyWindow {
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+        private volatile long threshold = defaultDelayMs;
+
+        synchronized void add(long latencyMs) {
+            samples[next] = latencyMs;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+            if (count >= MIN_SAMPLES && next % RECOMPUTE_EVERY == 0) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                int rank = (int) Math.ceil(percentile * count) - 1;
+                threshold = Math.max(minDelayMs, sorted[Math.max(0, Math.min(rank, count - 1))]);
+            }
+        }
+
+        long threshold() {
+            return threshold;
+        }
+    }
+}
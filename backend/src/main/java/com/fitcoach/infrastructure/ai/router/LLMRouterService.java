@@ -1,18 +1,42 @@
 package com.fitcoach.infrastructure.ai.router;
 
+import com.fitcoach.infrastructure.ai.cache.CacheNamespaces;
+import com.fitcoach.infrastructure.ai.cache.CacheRefresher;
+import com.fitcoach.infrastructure.ai.cache.CachedValue;
+import com.fitcoach.infrastructure.ai.cache.TwoTierCache;
 import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.infrastructure.ai.common.ChatStreamListener;
+import com.fitcoach.infrastructure.ai.common.Deadline;
+import com.fitcoach.infrastructure.ai.common.RequestCoalescer;
+import com.fitcoach.infrastructure.ai.common.TokenCounter;
 import com.fitcoach.infrastructure.ai.deepseek.DeepSeekService;
 import com.fitcoach.infrastructure.ai.gemini.GeminiFlashService;
+import com.fitcoach.infrastructure.ai.NutritionAnalysis;
 import com.fitcoach.infrastructure.ai.OpenAIService;
+import com.fitcoach.infrastructure.ai.ProductsDatabase;
+import com.fitcoach.infrastructure.ai.http.AiProvider;
+import com.fitcoach.service.AiUsageLedger;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.data.redis.core.RedisTemplate;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * Центральный сервис для маршрутизации AI запросов
@@ -33,17 +57,67 @@ public class LLMRouterService {
     private final GeminiFlashService geminiFlashService;
     private final OpenAIService openAIService;
     private final RedisTemplate<String, String> redisTemplate;
+    private final TwoTierCache<CachedValue<AIResponse>> responseCache;
+    private final CacheRefresher cacheRefresher;
+    private final CacheNamespaces cacheNamespaces;
+    private final SemanticCache semanticCache;
+    private final RequestCoalescer requestCoalescer;
+    private final ProviderBulkheads bulkheads;
+    private final AdaptiveRoutingEngine routingEngine;
+    private final HedgingPolicy hedgingPolicy;
+    private final DeadlinePolicy deadlinePolicy;
+    private final UsageStatistics usageStatistics;
+    private final AiUsageLedger usageLedger;
+    private final UserRateLimiter rateLimiter;
+    private final ProductsDatabase productsDatabase;
+    private final TokenCounter tokenCounter;
+    private final int maxInputTokens;
     private final ExecutorService executorService;
     
     public LLMRouterService(DeepSeekService deepSeekService, 
                            GeminiFlashService geminiFlashService,
                            OpenAIService openAIService,
-                           RedisTemplate<String, String> redisTemplate) {
+                           RedisTemplate<String, String> redisTemplate,
+                           TwoTierCache<CachedValue<AIResponse>> responseCache,
+                           CacheRefresher cacheRefresher,
+                           CacheNamespaces cacheNamespaces,
+                           SemanticCache semanticCache,
+                           RequestCoalescer requestCoalescer,
+                           ProviderBulkheads bulkheads,
+                           AdaptiveRoutingEngine routingEngine,
+                           HedgingPolicy hedgingPolicy,
+                           DeadlinePolicy deadlinePolicy,
+                           UsageStatistics usageStatistics,
+                           AiUsageLedger usageLedger,
+                           UserRateLimiter rateLimiter,
+                           ProductsDatabase productsDatabase,
+                           TokenCounter tokenCounter,
+                           @Value("${app.ai.routing.max-input-tokens:4000}") int maxInputTokens) {
         this.deepSeekService = deepSeekService;
         this.geminiFlashService = geminiFlashService;
         this.openAIService = openAIService;
         this.redisTemplate = redisTemplate;
-        this.executorService = Executors.newCachedThreadPool();
+        this.responseCache = responseCache;
+        this.cacheRefresher = cacheRefresher;
+        this.cacheNamespaces = cacheNamespaces;
+        this.semanticCache = semanticCache;
+        this.requestCoalescer = requestCoalescer;
+        this.bulkheads = bulkheads;
+        this.routingEngine = routingEngine;
+        this.hedgingPolicy = hedgingPolicy;
+        this.deadlinePolicy = deadlinePolicy;
+        this.usageStatistics = usageStatistics;
+        this.usageLedger = usageLedger;
+        this.rateLimiter = rateLimiter;
+        this.productsDatabase = productsDatabase;
+        this.tokenCounter = tokenCounter;
+        this.maxInputTokens = maxInputTokens;
+        // Виртуальные потоки: ожидание провайдера не занимает потоки платформы,
+        // параллелизм по провайдерам ограничивают переборки
+        this.executorService = Executors.newVirtualThreadPerTaskExecutor();
+        // Сброс поколения на любом узле делает L1 этого узла недостижимым - освобождаем память сразу
+        cacheNamespaces.onBump(CacheNamespaces.AI_RESPONSES, responseCache::clearLocal);
+        cacheNamespaces.onBump(CacheNamespaces.AI_RESPONSES, semanticCache::clear);
         
         log.info("🚀 LLM Router Service инициализирован:");
         log.info("   - DeepSeek: {}", deepSeekService != null ? "✅" : "❌");
@@ -56,37 +130,66 @@ public class LLMRouterService {
      * Основной метод для обработки AI запросов с умной маршрутизацией
      */
     public AIResponse processRequest(AIRequestType requestType, String content, String userId) {
+        return processRequest(requestType, content, userId, deadlinePolicy.start(requestType));
+    }
+    
+    /**
+     * Обработка с заданным крайним сроком: он ограничивает всю цепочку провайдеров
+     */
+    public AIResponse processRequest(AIRequestType requestType, String content, String userId, Deadline deadline) {
         long startTime = System.currentTimeMillis();
         
         try {
             log.info("🤖 AI запрос: тип={}, пользователь={}, длина={}", 
                     requestType, userId, content.length());
             
-            // Проверяем кэш для часто запрашиваемых данных (если Redis доступен)
+            // Проверяем кэш: локальный L1, затем Redis L2 (объект L1 общий - отдаем копию)
             String cacheKey = buildCacheKey(requestType, content);
-            if (redisTemplate != null) {
-                try {
-                    String cachedResult = redisTemplate.opsForValue().get(cacheKey);
-                    if (cachedResult != null) {
-                        log.info("✅ Получен ответ из кэша для пользователя {}", userId);
-                        AIResponse response = AIResponse.fromJson(cachedResult);
-                        return response.withProcessingTime(System.currentTimeMillis() - startTime);
-                    }
-                } catch (Exception e) {
-                    log.warn("⚠️ Ошибка доступа к кэшу Redis: {}", e.getMessage());
+            // После мягкого TTL устаревший ответ отдается сразу, а обновляется в фоне
+            // от имени системы: без лимитов и бюджета читающего пользователя
+            CachedValue<AIResponse> cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                if (cacheRefresher.shouldRefresh(cached)) {
+                    cacheRefresher.refreshAsync("ai", cached, cacheKey,
+                            () -> routeAndCache(requestType, content, userId, AiUsageLedger.SYSTEM_REFRESH,
+                                    cacheKey, deadlinePolicy.start(requestType)));
                 }
+                log.info("✅ Получен ответ из кэша для пользователя {}", userId);
+                return recorded(requestType, cached.getValue().copy(), startTime, UsageStatistics.ResponseSource.EXACT_CACHE);
             }
             
-            // Маршрутизируем запрос к подходящему провайдеру
-            AIResponse response = routeRequest(requestType, content, userId);
+            // Похожий вопрос (только общие типы запросов, с защитой персональных ответов)
+            AIResponse similar = semanticCache.lookup(requestType, content, userId);
+            if (similar != null) {
+                return recorded(requestType, similar, startTime, UsageStatistics.ResponseSource.SEMANTIC_CACHE);
+            }
             
-            // Кэшируем успешные ответы (если Redis доступен)
-            if (response.isSuccessful() && redisTemplate != null) {
-                cacheSuccessfulResponse(cacheKey, response, requestType);
+            // Ответы из кэша бесплатны; вызов провайдера - в пределах частоты запросов
+            // пользователя и его дневного бюджета
+            UserRateLimiter.Decision rate = rateLimiter.tryAcquire(userId, requestType);
+            if (!rate.isAllowed()) {
+                return recorded(requestType, rateLimited(requestType, content, rate), startTime,
+                        UsageStatistics.ResponseSource.LIMITED);
+            }
+            if (usageLedger.isOverBudget(userId)) {
+                log.warn("💸 Дневной бюджет AI исчерпан для пользователя {}", userId);
+                return recorded(requestType, budgetExceeded(), startTime, UsageStatistics.ResponseSource.LIMITED);
             }
             
+            // Одинаковые одновременные запросы выполняются одним вызовом провайдера;
+            // каждый вызывающий получает свою копию общего ответа
+            AIResponse response = requestCoalescer.execute(
+                    RequestCoalescer.key(requestType.name(), content),
+                    () -> routeAndCache(requestType, content, userId, userId, cacheKey, deadline),
+                    () -> {
+                        CachedValue<AIResponse> stored = responseCache.get(cacheKey);
+                        return stored != null ? stored.getValue() : null;
+                    },
+                    deadline)
+                    .copy();
+            
             // Добавляем метрики
-            response.withProcessingTime(System.currentTimeMillis() - startTime);
+            recorded(requestType, response, startTime, UsageStatistics.ResponseSource.PROVIDER);
             
             log.info("✅ AI ответ обработан: {}", response.getLogSummary());
             
@@ -96,9 +199,56 @@ public class LLMRouterService {
             log.error("❌ Ошибка обработки AI запроса для пользователя {}, тип {}: {}", 
                     userId, requestType, e.getMessage());
             
-            return AIResponse.error("Временно недоступно. Попробуйте позже.")
-                    .withProcessingTime(System.currentTimeMillis() - startTime);
+            return recorded(requestType, AIResponse.error("Временно недоступно. Попробуйте позже."),
+                    startTime, UsageStatistics.ResponseSource.PROVIDER);
+        }
+    }
+    
+    /**
+     * Проставляет время обработки и учитывает ответ в статистике
+     */
+    private AIResponse recorded(AIRequestType requestType, AIResponse response, long startTime,
+                                UsageStatistics.ResponseSource source) {
+        long processingTime = System.currentTimeMillis() - startTime;
+        usageStatistics.recordRequest(requestType, processingTime, response, source);
+        return response.withProcessingTime(processingTime);
+    }
+    
+    /**
+     * Дешевый ответ сверх лимита частоты: оценка еды по локальной базе продуктов,
+     * для остальных типов - когда повторить
+     */
+    private AIResponse rateLimited(AIRequestType requestType, String content, UserRateLimiter.Decision rate) {
+        long retryAfterSeconds = Math.max(1, (rate.getRetryAfterMillis() + 999) / 1000);
+        Map<String, Object> metadata = Map.of("rate_limited", true, "retry_after_seconds", retryAfterSeconds);
+        
+        if (requestType == AIRequestType.FOOD_ANALYSIS) {
+            Optional<NutritionAnalysis> estimate = productsDatabase.estimateFromText(content);
+            if (estimate.isPresent()) {
+                return AIResponse.success(formatEstimate(estimate.get()), "local", "products-database")
+                        .withMetadata(metadata);
+            }
+        }
+        return AIResponse.error("Слишком много запросов. Повторите через " + retryAfterSeconds + " с.", "system")
+                .withMetadata(metadata);
+    }
+    
+    private static String formatEstimate(NutritionAnalysis analysis) {
+        StringBuilder text = new StringBuilder("Приблизительная оценка по базе продуктов:\n");
+        for (NutritionAnalysis.DetectedFood food : analysis.getDetectedFoods()) {
+            text.append(String.format("• %s (%s): %.0f ккал, Б %.1f / Ж %.1f / У %.1f г%n",
+                    food.getFoodName(), food.getQuantity(), food.getCalories(),
+                    food.getProteins(), food.getFats(), food.getCarbs()));
         }
+        text.append(String.format("Итого: %.0f ккал, Б %.1f / Ж %.1f / У %.1f г",
+                analysis.getTotalCalories(), analysis.getTotalProteins(),
+                analysis.getTotalFats(), analysis.getTotalCarbs()));
+        return text.toString();
+    }
+    
+    private AIResponse budgetExceeded() {
+        return AIResponse.error("Дневной лимит AI запросов исчерпан. Попробуйте завтра.", "system")
+                .withMetadata(Map.of("budget_exceeded", true));
     }
     
     /**
@@ -109,103 +259,287 @@ public class LLMRouterService {
     }
     
     /**
-     * Маршрутизация запроса к подходящему провайдеру
+     * Потоковый ответ чата: фрагменты текста уходят в listener по мере генерации
+     *
+     * Потоковую генерацию поддерживает только клиент OpenAI, поэтому кэш,
+     * объединение запросов и выбор провайдера не применяются; лимит частоты,
+     * дневной бюджет, обрезка запроса и учет токенов - как у processRequest.
+     *
+     * @return итоговый ответ (полный текст, токены, стоимость)
      */
-    private AIResponse routeRequest(AIRequestType requestType, String content, String userId) {
-        return switch (requestType) {
-            case FOOD_ANALYSIS -> {
-                log.info("📸 Роутинг в DeepSeek для анализа еды, пользователь: {}", userId);
-                yield routeToDeepSeek(content, "Анализ фотографии еды");
-            }
+    public AIResponse streamChat(String content, String userId, ChatStreamListener listener) {
+        AIRequestType requestType = AIRequestType.CHAT_RESPONSE;
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            log.info("🤖 Потоковый AI запрос: пользователь={}, длина={}", userId, content.length());
             
-            case NUTRITION_ADVICE, CHAT_RESPONSE, WORKOUT_PLANNING -> {
-                log.info("💡 Роутинг в Gemini Flash для советов, пользователь: {}", userId);
-                yield routeToGemini(content, "Персонализированные советы");
+            UserRateLimiter.Decision rate = rateLimiter.tryAcquire(userId, requestType);
+            if (!rate.isAllowed()) {
+                return recorded(requestType, rateLimited(requestType, content, rate), startTime,
+                        UsageStatistics.ResponseSource.LIMITED);
             }
-            
-            case PROGRESS_ANALYSIS -> {
-                log.info("📊 Роутинг в DeepSeek для анализа прогресса, пользователь: {}", userId);
-                yield routeToDeepSeek(content, "Анализ статистики и прогресса");
+            if (usageLedger.isOverBudget(userId)) {
+                log.warn("💸 Дневной бюджет AI исчерпан для пользователя {}", userId);
+                return recorded(requestType, budgetExceeded(), startTime, UsageStatistics.ResponseSource.LIMITED);
             }
             
-            case COMPLEX_QUERY -> {
-                log.info("🧠 Роутинг в GPT-4 для сложного запроса, пользователь: {}", userId);
-                yield routeToOpenAI(content, "Сложный анализ");
-            }
+            String context = contextFor(requestType);
+            AIResponse response = openAIService.streamChatWithNutritionBot(
+                    fitToInputLimit(requestType, content, context), context, listener);
+            usageLedger.record(userId, requestType.name(), response);
+            
+            recorded(requestType, response, startTime, UsageStatistics.ResponseSource.PROVIDER);
+            log.info("✅ Потоковый AI ответ: {}", response.getLogSummary());
+            return response;
             
-            default -> {
-                log.warn("⚠️ Неизвестный тип запроса: {}, используем Gemini по умолчанию", requestType);
-                yield routeToGemini(content, "Универсальный ответ");
+        } catch (Exception e) {
+            log.error("❌ Ошибка потокового AI запроса для пользователя {}: {}", userId, e.getMessage());
+            return recorded(requestType, AIResponse.error("Временно недоступно. Попробуйте позже."),
+                    startTime, UsageStatistics.ResponseSource.PROVIDER);
+        }
+    }
+    
+    /**
+     * Потоковый ответ в виртуальном потоке роутера (для SSE контроллера)
+     */
+    public CompletableFuture<AIResponse> streamChatAsync(String content, String userId, ChatStreamListener listener) {
+        return CompletableFuture.supplyAsync(() -> streamChat(content, userId, listener), executorService);
+    }
+    
+    /**
+     * Маршрутизация и кэширование успешного ответа (выполняется лидером объединенного
+     * запроса или фоновым обновлением устаревшей записи)
+     *
+     * @param userId автор запроса (видимость ответа в семантическом кэше)
+     * @param billedTo кому учитывается расход: автору или системе при фоновом обновлении
+     */
+    private AIResponse routeAndCache(AIRequestType requestType, String content, String userId, String billedTo,
+                                     String cacheKey, Deadline deadline) {
+        long startTime = System.currentTimeMillis();
+        AIResponse response = routeRequest(requestType, content, billedTo, deadline);
+        usageLedger.record(billedTo, requestType.name(), response);
+        if (response.isSuccessful()) {
+            cacheSuccessfulResponse(cacheKey, response, requestType, System.currentTimeMillis() - startTime);
+            semanticCache.store(requestType, content, userId, response, getCacheTTL(requestType));
+        }
+        return response;
+    }
+    
+    /**
+     * Маршрутизация запроса: провайдеры в порядке адаптивного рейтинга,
+     * при ошибке или неуспешном ответе - следующий по рейтингу
+     */
+    private AIResponse routeRequest(AIRequestType requestType, String content, String userId, Deadline deadline) {
+        List<AiProvider> route = routingEngine.rank(requestType);
+        String context = contextFor(requestType);
+        content = fitToInputLimit(requestType, content, context);
+        log.info("🧭 Роутинг {} для пользователя {}: {} ({})", requestType, userId, route, deadline);
+        
+        if (hedgingPolicy.isEnabled() && route.size() > 1) {
+            return routeHedged(requestType, route, content, context, deadline);
+        }
+        return routeSequential(requestType, route, 0, content, context, deadline);
+    }
+    
+    /**
+     * Провайдеры по очереди, начиная с from, пока хватает времени до крайнего срока
+     */
+    private AIResponse routeSequential(AIRequestType requestType, List<AiProvider> route, int from,
+                                       String content, String context, Deadline deadline) {
+        for (int i = from; i < route.size(); i++) {
+            AiProvider provider = route.get(i);
+            if (!deadlinePolicy.canAttempt(deadline)) {
+                log.warn("⏱️ Крайний срок {} исчерпан перед {}, деградированный ответ", requestType, provider.getKey());
+                return deadlinePolicy.degraded(requestType);
             }
-        };
+            if (i > 0) {
+                usageStatistics.recordFallback(requestType);
+            }
+            AIResponse response = callProvider(requestType, provider, content, context, deadline, () -> true);
+            if (response != null && response.isSuccessful()) {
+                return response;
+            }
+            if (i + 1 < route.size()) {
+                log.warn("⚠️ {} не ответил, fallback на {}", provider.getKey(), route.get(i + 1).getKey());
+            }
+        }
+        
+        log.error("Критическая ошибка - все AI сервисы недоступны для {}", requestType);
+        return AIResponse.error("Все AI сервисы временно недоступны", "system");
     }
     
     /**
-     * Обработка через DeepSeek R1 (экономия 95% vs GPT-4V)
+     * Хеджированный запрос: если основной провайдер молчит дольше перцентиля
+     * задержек этого типа, тот же запрос уходит второму провайдеру; первый
+     * успешный ответ возвращается, проигравший вызов отменяется
      */
-    private AIResponse routeToDeepSeek(String content, String context) {
+    private AIResponse routeHedged(AIRequestType requestType, List<AiProvider> route, String content, String context,
+                                   Deadline deadline) {
+        if (!deadlinePolicy.canAttempt(deadline)) {
+            return deadlinePolicy.degraded(requestType);
+        }
+        hedgingPolicy.onRequest();
+        ExecutorCompletionService<AIResponse> completion = new ExecutorCompletionService<>(executorService);
+        ProviderCall primary = new ProviderCall(requestType, route.get(0), content, context, deadline);
+        Future<AIResponse> primaryFuture = completion.submit(primary);
+        ProviderCall hedge = null;
+        Future<AIResponse> hedgeFuture = null;
+        
         try {
-            if (deepSeekService != null) {
-                return deepSeekService.analyze(content, context);
-            } else {
-                log.warn("DeepSeek сервис недоступен, fallback на Gemini");
-                return routeToGemini(content, context);
+            long hedgeDelay = Math.min(hedgingPolicy.hedgeDelayMs(requestType), deadline.remainingMillis());
+            Future<AIResponse> first = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (first == null && (!deadlinePolicy.canAttempt(deadline) || !hedgingPolicy.tryAcquireHedge(requestType))) {
+                first = completion.poll(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    primary.cancel(primaryFuture);
+                    log.warn("⏱️ Крайний срок {} исчерпан в ожидании {}", requestType, route.get(0).getKey());
+                    return deadlinePolicy.degraded(requestType);
+                }
             }
-        } catch (Exception e) {
-            log.error("Ошибка DeepSeek: {}, fallback на Gemini", e.getMessage());
-            return routeToGemini(content, context);
+            if (first != null) {
+                AIResponse response = resultOf(first);
+                return response != null && response.isSuccessful()
+                        ? response
+                        : routeSequential(requestType, route, 1, content, context, deadline);
+            }
+            
+            hedge = new ProviderCall(requestType, route.get(1), content, context, deadline);
+            hedgeFuture = completion.submit(hedge);
+            log.info("🪢 {} не ответил за {} мс, хедж в {}", route.get(0).getKey(), hedgeDelay, route.get(1).getKey());
+            
+            for (int pending = 2; pending > 0; pending--) {
+                Future<AIResponse> done = completion.poll(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    primary.cancel(primaryFuture);
+                    hedge.cancel(hedgeFuture);
+                    log.warn("⏱️ Крайний срок {} исчерпан в ожидании хеджированного запроса", requestType);
+                    return deadlinePolicy.degraded(requestType);
+                }
+                AIResponse response = resultOf(done);
+                if (response != null && response.isSuccessful()) {
+                    boolean hedgeWon = done == hedgeFuture;
+                    (hedgeWon ? primary : hedge).cancel(hedgeWon ? primaryFuture : hedgeFuture);
+                    hedgingPolicy.recordWin(requestType, hedgeWon);
+                    return response;
+                }
+            }
+            return routeSequential(requestType, route, 2, content, context, deadline);
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            primary.cancel(primaryFuture);
+            if (hedge != null) {
+                hedge.cancel(hedgeFuture);
+            }
+            return AIResponse.error("Запрос прерван", "system");
+        }
+    }
+    
+    private static AIResponse resultOf(Future<AIResponse> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
         }
     }
     
     /**
-     * Обработка через Gemini 2.5 Flash (экономия 97% vs GPT-4)
+     * Вызов провайдера внутри его переборки с учетом результата в рейтинге
+     *
+     * @param shouldRecord false для отмененного вызова - его ошибка не должна понижать провайдера
+     * @return ответ провайдера или null при ошибке
      */
-    private AIResponse routeToGemini(String content, String context) {
+    private AIResponse callProvider(AIRequestType requestType, AiProvider provider, String content, String context,
+                                    Deadline deadline, BooleanSupplier shouldRecord) {
+        long start = System.currentTimeMillis();
         try {
-            if (geminiFlashService != null) {
-                return geminiFlashService.generateAdvice(content, context);
-            } else {
-                log.warn("Gemini сервис недоступен, fallback на OpenAI");
-                return routeToOpenAI(content, context);
+            AIResponse response = bulkheads.execute(provider, deadline,
+                    () -> invokeProvider(provider, content, context, deadline));
+            long latency = System.currentTimeMillis() - start;
+            if (shouldRecord.getAsBoolean()) {
+                routingEngine.record(requestType, provider, latency,
+                        response.isSuccessful(), response.getCostUsd(), response.getModel());
+                usageStatistics.recordProviderCall(provider, response.getModel(), latency,
+                        response.isSuccessful(), response.getTokensUsed(), response.getCostUsd());
+                if (response.isSuccessful()) {
+                    hedgingPolicy.recordLatency(requestType, latency);
+                }
             }
+            return response;
+        } catch (BulkheadRejectedException e) {
+            log.warn("🚧 {}", e.getMessage());
+            routingEngine.recordRejected(requestType, provider);
+            usageStatistics.recordRejected(provider);
+            return null;
         } catch (Exception e) {
-            log.error("Ошибка Gemini: {}, fallback на OpenAI", e.getMessage());
-            return routeToOpenAI(content, context);
+            log.error("Ошибка {}: {}", provider.getKey(), e.getMessage());
+            if (shouldRecord.getAsBoolean()) {
+                long latency = System.currentTimeMillis() - start;
+                routingEngine.record(requestType, provider, latency, false, null, null);
+                usageStatistics.recordProviderCall(provider, null, latency, false, null, null);
+            }
+            return null;
         }
     }
     
     /**
-     * Обработка через OpenAI GPT-4 (для критических случаев)
+     * DeepSeek R1 (экономия 95% vs GPT-4V), Gemini 2.5 Flash (экономия 97% vs GPT-4),
+     * OpenAI GPT-4 (для сложных случаев)
      */
-    private AIResponse routeToOpenAI(String content, String context) {
-        try {
-            return openAIService.processText(content, context);
-        } catch (Exception e) {
-            log.error("Критическая ошибка - все AI сервисы недоступны: {}", e.getMessage());
-            return AIResponse.error("Все AI сервисы временно недоступны", "system");
+    private AIResponse invokeProvider(AiProvider provider, String content, String context, Deadline deadline) {
+        return switch (provider) {
+            case DEEPSEEK -> deepSeekService.analyze(content, context, deadline);
+            case GEMINI -> geminiFlashService.generateAdvice(content, context, deadline);
+            case OPENAI -> openAIService.processText(content, context, deadline);
+        };
+    }
+    
+    /**
+     * Обрезает запрос, чтобы вместе с контекстом он уложился в max-input-tokens
+     * (иначе провайдер отвечает ошибкой "maximum context length" уже после отправки)
+     */
+    private String fitToInputLimit(AIRequestType requestType, String content, String context) {
+        int limit = maxInputTokens - tokenCounter.count(context);
+        if (tokenCounter.fits(content, limit)) {
+            return content;
         }
+        String trimmed = tokenCounter.truncateToTokens(content, limit);
+        log.warn("✂️ Запрос {} обрезан до {} токенов: {} -> {} символов",
+            requestType, limit, content.length(), trimmed.length());
+        return trimmed;
+    }
+    
+    /**
+     * Контекст (системная подсказка) для типа запроса
+     */
+    private String contextFor(AIRequestType requestType) {
+        return switch (requestType) {
+            case FOOD_ANALYSIS -> "Анализ фотографии еды";
+            case NUTRITION_ADVICE, CHAT_RESPONSE, WORKOUT_PLANNING -> "Персонализированные советы";
+            case PROGRESS_ANALYSIS -> "Анализ статистики и прогресса";
+            case COMPLEX_QUERY -> "Сложный анализ";
+        };
     }
     
     /**
      * Построение ключа кэша
      */
     private String buildCacheKey(AIRequestType requestType, String content) {
-        // Используем хэш контента для создания уникального ключа
-        int contentHash = content.hashCode();
-        return String.format("ai:cache:%s:%d", requestType.name().toLowerCase(), contentHash);
+        // SHA-256 контента: 32-битный hashCode давал коллизии и чужие ответы из кэша
+        return cacheNamespaces.key(CacheNamespaces.AI_RESPONSES,
+                requestType.name().toLowerCase() + ":" + RequestCoalescer.key(content));
     }
     
     /**
      * Кэширование успешных ответов с разным TTL
      */
-    private void cacheSuccessfulResponse(String cacheKey, AIResponse response, AIRequestType requestType) {
-        try {
-            Duration ttl = getCacheTTL(requestType);
-            redisTemplate.opsForValue().set(cacheKey, response.toJson(), ttl);
-            log.debug("Ответ закэширован на {}", ttl);
-        } catch (Exception e) {
-            log.warn("Не удалось закэшировать ответ: {}", e.getMessage());
-        }
+    private void cacheSuccessfulResponse(String cacheKey, AIResponse response, AIRequestType requestType,
+                                         long computeMillis) {
+        // TTL типа - мягкий срок; запись живет до жесткого, пока идет фоновое обновление
+        Duration ttl = getCacheTTL(requestType);
+        responseCache.put(cacheKey, CachedValue.fresh(response, ttl, computeMillis), cacheRefresher.hardTtl(ttl));
+        log.debug("Ответ закэширован на {}", ttl);
     }
     
     /**
@@ -223,26 +557,60 @@ public class LLMRouterService {
     }
     
     /**
-     * Получение статистики использования провайдеров
+     * Получение статистики использования: запросы по типам и провайдерам
+     * (итоги и окна 1m/5m/1h с перцентилями), веса и EWMA метрики маршрутизации
      */
-    public String getUsageStatistics() {
-        // TODO: Реализовать сбор статистики по провайдерам
-        return "Статистика пока не реализована";
+    public Map<String, Object> getUsageStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>(usageStatistics.snapshot());
+        statistics.put("routing", routingEngine.snapshot());
+        return statistics;
     }
     
     /**
-     * Принудительная очистка кэша
+     * Вызов провайдера для хеджированного запроса; после отмены результат не учитывается
+     */
+    private class ProviderCall implements Callable<AIResponse> {
+        private final AIRequestType requestType;
+        private final AiProvider provider;
+        private final String content;
+        private final String context;
+        private final Deadline deadline;
+        private volatile boolean cancelled;
+        
+        ProviderCall(AIRequestType requestType, AiProvider provider, String content, String context, Deadline deadline) {
+            this.requestType = requestType;
+            this.provider = provider;
+            this.content = content;
+            this.context = context;
+            this.deadline = deadline;
+        }
+        
+        @Override
+        public AIResponse call() {
+            return callProvider(requestType, provider, content, context, deadline, () -> !cancelled);
+        }
+        
+        void cancel(Future<AIResponse> future) {
+            cancelled = true;
+            future.cancel(true);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+    
+    /**
+     * Принудительная очистка кэша: новое поколение пространства ai:cache,
+     * старые ответы истекают по TTL или удаляются сборщиком
      */
     public void clearCache() {
-        if (redisTemplate != null) {
-            try {
-                redisTemplate.delete("ai:cache:*");
-                log.info("Кэш AI запросов очищен");
-            } catch (Exception e) {
-                log.error("Ошибка очистки кэша: {}", e.getMessage());
-            }
-        } else {
-            log.warn("Redis недоступен, кэш не может быть очищен");
+        try {
+            cacheNamespaces.bump(CacheNamespaces.AI_RESPONSES);
+            log.info("Кэш AI запросов очищен");
+        } catch (Exception e) {
+            log.error("Ошибка очистки кэша: {}", e.getMessage());
         }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import com.fitcoach.infrastructure.ai.common.Deadline;
+import com.fitcoach.infrastructure.ai.http.AiProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Переборки (bulkheads) для вызовов AI провайдеров
+ *
+ * У каждого провайдера свой лимит одновременных вызовов и своя очередь
+ * ожидания, поэтому зависший провайдер занимает только свои слоты и не
+ * блокирует остальных. При заполненной очереди или истечении ожидания
+ * вызов сразу отклоняется BulkheadRejectedException, и роутер переходит
+ * к следующему провайдеру.
+ *
+ * Настройки: app.ai.bulkhead.{openai|deepseek|gemini}.max-concurrent/max-queue/max-wait
+ */
+@Component
+public class ProviderBulkheads {
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderBulkheads.class);
+
+    private static final int DEFAULT_MAX_CONCURRENT = 20;
+    private static final int DEFAULT_MAX_QUEUE = 50;
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(2);
+
+    private final Map<AiProvider, Bulkhead> bulkheads = new EnumMap<>(AiProvider.class);
+
+    public ProviderBulkheads(Environment environment, MeterRegistry meterRegistry) {
+        for (AiProvider provider : AiProvider.values()) {
+            String prefix = "app.ai.bulkhead." + provider.getKey() + ".";
+            int maxConcurrent = environment.getProperty(prefix + "max-concurrent", Integer.class, DEFAULT_MAX_CONCURRENT);
+            int maxQueue = environment.getProperty(prefix + "max-queue", Integer.class, DEFAULT_MAX_QUEUE);
+            Duration maxWait = environment.getProperty(prefix + "max-wait", Duration.class, DEFAULT_MAX_WAIT);
+
+            bulkheads.put(provider, new Bulkhead(provider, maxConcurrent, maxQueue, maxWait, meterRegistry));
+            log.info("🚧 Переборка {}: {} одновременно, очередь {}, ожидание {}",
+                provider.getKey(), maxConcurrent, maxQueue, maxWait);
+        }
+    }
+
+    /**
+     * Выполняет вызов провайдера внутри его переборки
+     * Ожидание слота не дольше max-wait и оставшегося до крайнего срока времени
+     *
+     * @throws BulkheadRejectedException если слот не получен
+     */
+    public <T> T execute(AiProvider provider, Deadline deadline, Supplier<T> call) {
+        return bulkheads.get(provider).execute(deadline, call);
+    }
+
+    /**
+     * Переборка одного провайдера: семафор + ограниченная очередь ожидающих
+     */
+    private static class Bulkhead {
+        private final AiProvider provider;
+        private final int maxQueue;
+        private final Duration maxWait;
+        private final Semaphore permits;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final Timer queueWait;
+        private final Timer serviceTime;
+        private final Counter queueFull;
+        private final Counter waitTimeout;
+
+        Bulkhead(AiProvider provider, int maxConcurrent, int maxQueue, Duration maxWait, MeterRegistry meterRegistry) {
+            this.provider = provider;
+            this.maxQueue = maxQueue;
+            this.maxWait = maxWait;
+            this.permits = new Semaphore(maxConcurrent, true);
+
+            String key = provider.getKey();
+            this.queueWait = Timer.builder("ai.bulkhead.queue_wait")
+                .tag("provider", key)
+                .description("Ожидание слота переборки")
+                .register(meterRegistry);
+            this.serviceTime = Timer.builder("ai.bulkhead.service_time")
+                .tag("provider", key)
+                .description("Время вызова провайдера внутри переборки")
+                .register(meterRegistry);
+            this.queueFull = rejected(meterRegistry, key, "queue_full");
+            this.waitTimeout = rejected(meterRegistry, key, "wait_timeout");
+            Gauge.builder("ai.bulkhead.active", active, AtomicInteger::get)
+                .tag("provider", key)
+                .description("Выполняемые вызовы провайдера")
+                .register(meterRegistry);
+            Gauge.builder("ai.bulkhead.queued", queued, AtomicInteger::get)
+                .tag("provider", key)
+                .description("Вызовы в очереди переборки")
+                .register(meterRegistry);
+        }
+
+        <T> T execute(Deadline deadline, Supplier<T> call) {
+            long queuedAt = System.nanoTime();
+            if (!permits.tryAcquire()) {
+                acquireQueued(deadline.cap(maxWait));
+            }
+            queueWait.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+
+            active.incrementAndGet();
+            long startedAt = System.nanoTime();
+            try {
+                return call.get();
+            } finally {
+                serviceTime.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                active.decrementAndGet();
+                permits.release();
+            }
+        }
+
+        private void acquireQueued(Duration wait) {
+            if (queued.incrementAndGet() > maxQueue) {
+                queued.decrementAndGet();
+                queueFull.increment();
+                throw new BulkheadRejectedException(provider, "очередь заполнена");
+            }
+
+            try {
+                if (!permits.tryAcquire(wait.toNanos(), TimeUnit.NANOSECONDS)) {
+                    waitTimeout.increment();
+                    throw new BulkheadRejectedException(provider, "нет свободного слота за " + wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BulkheadRejectedException(provider, "ожидание прервано");
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+
+        private static Counter rejected(MeterRegistry meterRegistry, String key, String reason) {
+            return Counter.builder("ai.bulkhead.rejected")
+                .tag("provider", key)
+                .tag("reason", reason)
+                .description("Вызовы, отклоненные переборкой")
+                .register(meterRegistry);
+        }
+    }
+}
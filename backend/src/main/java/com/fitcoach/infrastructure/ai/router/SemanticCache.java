@@ -0,0 +1,225 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import com.fitcoach.infrastructure.ai.cache.HnswIndex;
+import com.fitcoach.infrastructure.ai.cache.TextVectorizer;
+import com.fitcoach.infrastructure.ai.common.AIResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Семантический кэш ответов для типов запросов, помеченных как общие
+ *
+ * Точный ключ не срабатывает на перефразированные вопросы ("сколько белка
+ * в день для похудения?" / "Сколько белка в день при похудении"). Здесь
+ * вопрос превращается в вектор символьных n-грамм (TF-IDF), а ближайший
+ * сохраненный вопрос ищется в HNSW индексе этого типа; при близости не
+ * ниже threshold возвращается его ответ.
+ *
+ * Защита от чужих персональных ответов:
+ * - числа в вопросах должны совпадать ("80 кг" и "60 кг" - разные вопросы);
+ * - вопрос с числами (вес, рост, возраст) виден только своему автору;
+ * - длинные вопросы (с контекстом профиля) не кэшируются.
+ *
+ * Настройки: app.ai.semantic-cache.enabled/threshold/max-entries/max-prompt-length/dimensions/ef-search
+ */
+@Component
+public class SemanticCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SemanticCache.class);
+
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:[.,]\\d+)?");
+    private static final int CANDIDATES = 5;
+    private static final int MAX_CONNECTIONS = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    // Почти тот же вопрос уже в индексе - второй узел не добавляем
+    private static final float DUPLICATE_SIMILARITY = 0.99f;
+
+    private final boolean enabled;
+    private final double threshold;
+    private final int maxEntries;
+    private final int maxPromptLength;
+    private final int efSearch;
+    private final TextVectorizer vectorizer;
+
+    private final Map<AIRequestType, HnswIndex<Entry>> indexes = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> hits = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> misses = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> guarded = new EnumMap<>(AIRequestType.class);
+    private final DistributionSummary hitSimilarity;
+
+    public SemanticCache(Environment environment, MeterRegistry meterRegistry) {
+        this.enabled = environment.getProperty("app.ai.semantic-cache.enabled", Boolean.class, true);
+        this.threshold = environment.getProperty("app.ai.semantic-cache.threshold", Double.class, 0.85);
+        this.maxEntries = environment.getProperty("app.ai.semantic-cache.max-entries", Integer.class, 5000);
+        this.maxPromptLength = environment.getProperty("app.ai.semantic-cache.max-prompt-length", Integer.class, 300);
+        this.efSearch = environment.getProperty("app.ai.semantic-cache.ef-search", Integer.class, 50);
+        this.vectorizer = new TextVectorizer(environment.getProperty("app.ai.semantic-cache.dimensions", Integer.class, 1024));
+
+        for (AIRequestType type : AIRequestType.values()) {
+            if (!type.isShareable()) {
+                continue;
+            }
+            String typeTag = type.name().toLowerCase();
+            HnswIndex<Entry> index = new HnswIndex<>(MAX_CONNECTIONS, EF_CONSTRUCTION);
+            indexes.put(type, index);
+            hits.put(type, requests(meterRegistry, typeTag, "hit"));
+            misses.put(type, requests(meterRegistry, typeTag, "miss"));
+            guarded.put(type, requests(meterRegistry, typeTag, "guarded"));
+            Gauge.builder("ai.semantic_cache.size", index, HnswIndex::size)
+                .tag("type", typeTag)
+                .description("Вопросов в семантическом индексе")
+                .register(meterRegistry);
+        }
+        this.hitSimilarity = DistributionSummary.builder("ai.semantic_cache.similarity")
+            .description("Близость вопроса к найденному в семантическом кэше")
+            .publishPercentiles(0.5, 0.95)
+            .register(meterRegistry);
+
+        log.info("🧠 Семантический кэш: {}, типы {}, порог {}, до {} вопросов на тип",
+            enabled ? "включен" : "выключен", indexes.keySet(), threshold, maxEntries);
+    }
+
+    /**
+     * Ответ на похожий вопрос или null
+     */
+    public AIResponse lookup(AIRequestType requestType, String content, String userId) {
+        if (!accepts(requestType, content)) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        List<String> numbers = numbers(content);
+        boolean rejectedByGuard = false;
+        for (HnswIndex.Match<Entry> match : indexes.get(requestType).search(vectorizer.vectorize(content), CANDIDATES, efSearch)) {
+            if (match.getSimilarity() < threshold) {
+                break;
+            }
+            Entry entry = match.getValue();
+            if (entry.isExpired(now)) {
+                continue;
+            }
+            if (!entry.visibleTo(userId) || !entry.numbers.equals(numbers)) {
+                rejectedByGuard = true;
+                continue;
+            }
+
+            hits.get(requestType).increment();
+            hitSimilarity.record(match.getSimilarity());
+            log.info("🧠 Семантический кэш {}: близость {} для пользователя {}",
+                requestType, String.format("%.3f", match.getSimilarity()), userId);
+            return withSemanticMetadata(entry.response.copy(), match.getSimilarity());
+        }
+
+        (rejectedByGuard ? guarded : misses).get(requestType).increment();
+        return null;
+    }
+
+    /**
+     * Сохраняет успешный ответ; вопрос с числами остается видимым только автору
+     */
+    public void store(AIRequestType requestType, String content, String userId, AIResponse response, Duration ttl) {
+        if (!accepts(requestType, content) || !response.isSuccessful()) {
+            return;
+        }
+
+        HnswIndex<Entry> index = indexes.get(requestType);
+        List<String> numbers = numbers(content);
+        String scope = numbers.isEmpty() ? null : userId;
+
+        vectorizer.observe(content);
+        float[] vector = vectorizer.vectorize(content);
+        for (HnswIndex.Match<Entry> match : index.search(vector, 1, efSearch)) {
+            Entry existing = match.getValue();
+            if (match.getSimilarity() >= DUPLICATE_SIMILARITY && Objects.equals(existing.scope, scope)
+                    && existing.numbers.equals(numbers) && !existing.isExpired(System.currentTimeMillis())) {
+                return;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (index.size() >= maxEntries) {
+            index.removeIf(entry -> entry.isExpired(now));
+        }
+        while (index.size() >= maxEntries) {
+            index.removeOldest();
+        }
+        index.add(vector, new Entry(response.copy(), scope, numbers, now + ttl.toMillis()));
+    }
+
+    /**
+     * Очистка всех индексов (сброс кэша AI ответов)
+     */
+    public void clear() {
+        indexes.values().forEach(HnswIndex::clear);
+    }
+
+    private boolean accepts(AIRequestType requestType, String content) {
+        return enabled && requestType.isShareable() && content != null
+            && !content.isBlank() && content.length() <= maxPromptLength;
+    }
+
+    private static List<String> numbers(String content) {
+        List<String> numbers = new ArrayList<>();
+        Matcher matcher = NUMBER.matcher(content);
+        while (matcher.find()) {
+            numbers.add(matcher.group().replace(',', '.'));
+        }
+        return numbers;
+    }
+
+    private static AIResponse withSemanticMetadata(AIResponse response, float similarity) {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        if (response.getMetadata() != null) {
+            metadata.putAll(response.getMetadata());
+        }
+        metadata.put("cache", "semantic");
+        metadata.put("similarity", similarity);
+        return response.withMetadata(metadata);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String typeTag, String result) {
+        return Counter.builder("ai.semantic_cache.requests")
+            .tag("type", typeTag)
+            .tag("result", result)
+            .description("Обращения к семантическому кэшу (guarded - похожий вопрос отклонен защитой персонализации)")
+            .register(meterRegistry);
+    }
+
+    private static final class Entry {
+        private final AIResponse response;
+        private final String scope;
+        private final List<String> numbers;
+        private final long expiresAt;
+
+        Entry(AIResponse response, String scope, List<String> numbers, long expiresAt) {
+            this.response = response;
+            this.scope = scope;
+            this.numbers = numbers;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        boolean visibleTo(String userId) {
+            return scope == null || scope.equals(userId);
+        }
+    }
+}
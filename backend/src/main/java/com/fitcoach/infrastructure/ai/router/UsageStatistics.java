@@ -0,0 +1,163 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.infrastructure.ai.http.AiProvider;
+import com.fitcoach.infrastructure.ai.stats.StatsRecorder;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика использования AI для /api/v2/ai/statistics
+ *
+ * По типам запросов - ответы пользователю целиком (включая кэш), попадания
+ * в точный и семантический кэш, переходы на следующий провайдер,
+ * деградированные ответы. Отказы по лимиту частоты и дневному бюджету
+ * считаются отдельно и не входят в задержку и успешность ответов. По провайдерам и моделям - вызовы провайдера,
+ * токены, стоимость и отказы переборки. Каждое измерение хранит итоги с
+ * запуска и окна 1m/5m/1h с перцентилями задержки.
+ *
+ * Запись без блокировок и без выделения памяти (кроме первой встречи
+ * новой модели).
+ */
+@Component
+public class UsageStatistics {
+
+    private static final String UNKNOWN_MODEL = "unknown";
+
+    /**
+     * Откуда взят ответ пользователю
+     */
+    public enum ResponseSource {
+        PROVIDER, EXACT_CACHE, SEMANTIC_CACHE,
+        /** Отказ по лимиту частоты или дневному бюджету - провайдер не вызывался */
+        LIMITED
+    }
+
+    private final Map<AIRequestType, TypeStats> types = new EnumMap<>(AIRequestType.class);
+    private final Map<AiProvider, ProviderStats> providers = new EnumMap<>(AiProvider.class);
+
+    public UsageStatistics() {
+        for (AIRequestType type : AIRequestType.values()) {
+            types.put(type, new TypeStats());
+        }
+        for (AiProvider provider : AiProvider.values()) {
+            providers.put(provider, new ProviderStats());
+        }
+    }
+
+    /**
+     * Ответ пользователю: задержка от входа в роутер до ответа
+     */
+    public void recordRequest(AIRequestType requestType, long latencyMs, AIResponse response, ResponseSource source) {
+        TypeStats stats = types.get(requestType);
+        if (source == ResponseSource.LIMITED) {
+            stats.limited.increment();
+            return;
+        }
+        boolean success = response.isSuccessful();
+        stats.requests.record(latencyMs, success, 0, 0.0);
+        switch (source) {
+            case EXACT_CACHE -> stats.exactCacheHits.increment();
+            case SEMANTIC_CACHE -> stats.semanticCacheHits.increment();
+            case PROVIDER -> {
+                if (response.getMetadata() != null && Boolean.TRUE.equals(response.getMetadata().get("degraded"))) {
+                    stats.degraded.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Запрос ушел к провайдеру не первым по рейтингу
+     */
+    public void recordFallback(AIRequestType requestType) {
+        types.get(requestType).fallbacks.increment();
+    }
+
+    /**
+     * Вызов провайдера (model == null - ошибка до ответа)
+     */
+    public void recordProviderCall(AiProvider provider, String model, long latencyMs, boolean success,
+                                   Integer tokensUsed, Double costUsd) {
+        ProviderStats stats = providers.get(provider);
+        long tokens = tokensUsed != null ? tokensUsed : 0;
+        double cost = costUsd != null ? costUsd : 0.0;
+        stats.calls.record(latencyMs, success, tokens, cost);
+
+        String modelKey = model != null ? model : UNKNOWN_MODEL;
+        StatsRecorder modelStats = stats.models.get(modelKey);
+        if (modelStats == null) {
+            modelStats = stats.models.computeIfAbsent(modelKey, key -> new StatsRecorder());
+        }
+        modelStats.record(latencyMs, success, tokens, cost);
+    }
+
+    /**
+     * Вызов отклонен переборкой провайдера
+     */
+    public void recordRejected(AiProvider provider) {
+        providers.get(provider).rejected.increment();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> byType = new LinkedHashMap<>();
+        types.forEach((type, stats) -> {
+            if (stats.requests.getRequests() > 0 || stats.limited.sum() > 0) {
+                byType.put(type.name().toLowerCase(), stats.snapshot());
+            }
+        });
+        Map<String, Object> byProvider = new LinkedHashMap<>();
+        providers.forEach((provider, stats) -> {
+            if (stats.calls.getRequests() > 0 || stats.rejected.sum() > 0) {
+                byProvider.put(provider.getKey(), stats.snapshot());
+            }
+        });
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("request_types", byType);
+        snapshot.put("providers", byProvider);
+        return snapshot;
+    }
+
+    private static final class TypeStats {
+        private final StatsRecorder requests = new StatsRecorder();
+        private final LongAdder exactCacheHits = new LongAdder();
+        private final LongAdder semanticCacheHits = new LongAdder();
+        private final LongAdder fallbacks = new LongAdder();
+        private final LongAdder degraded = new LongAdder();
+        private final LongAdder limited = new LongAdder();
+
+        Map<String, Object> snapshot() {
+            long total = requests.getRequests();
+            long hits = exactCacheHits.sum() + semanticCacheHits.sum();
+            Map<String, Object> snapshot = new LinkedHashMap<>(requests.snapshot());
+            snapshot.put("cache_hits", Map.of("exact", exactCacheHits.sum(), "semantic", semanticCacheHits.sum()));
+            snapshot.put("cache_hit_rate", total == 0 ? 0.0 : (double) hits / total);
+            snapshot.put("fallbacks", fallbacks.sum());
+            snapshot.put("degraded", degraded.sum());
+            snapshot.put("limited", limited.sum());
+            return snapshot;
+        }
+    }
+
+    private static final class ProviderStats {
+        private final StatsRecorder calls = new StatsRecorder();
+        private final Map<String, StatsRecorder> models = new ConcurrentHashMap<>();
+        private final LongAdder rejected = new LongAdder();
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>(calls.snapshot());
+            snapshot.put("rejected", rejected.sum());
+            Map<String, Object> byModel = new TreeMap<>();
+            models.forEach((model, stats) -> byModel.put(model, stats.snapshot()));
+            snapshot.put("models", byModel);
+            return snapshot;
+        }
+    }
+}
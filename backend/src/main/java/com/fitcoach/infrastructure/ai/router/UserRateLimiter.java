@@ -0,0 +1,281 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Ограничение частоты AI запросов пользователя (token bucket)
+ *
+ * Корзина на пару пользователь + тип запроса: capacity запросов подряд,
+ * дальше refill-per-minute в минуту. Состояние корзины общее для всех
+ * узлов и меняется атомарно Lua скриптом в Redis (время - TIME сервера
+ * Redis, расхождение часов узлов не влияет). Если Redis недоступен,
+ * работают локальные корзины узла (лимит приблизительный: на каждом
+ * узле свой), а Redis не опрашивается redis-retry-interval.
+ *
+ * Лимиты: app.ai.rate-limit.limits.{тип}.capacity/refill-per-minute;
+ * уровень пользователя (free, premium - из списка premium-users)
+ * умножает их на tiers.{уровень}.multiplier или переопределяет через
+ * tiers.{уровень}.{тип}.capacity/refill-per-minute.
+ */
+@Component
+public class UserRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(UserRateLimiter.class);
+
+    private static final String KEY_PREFIX = "ratelimit:";
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final double DEFAULT_REFILL_PER_MINUTE = 5.0;
+    private static final int LOCAL_CLEANUP_THRESHOLD = 10_000;
+
+    // Токены пополняются по времени сервера Redis; ответ: {разрешено, мс до токена, осталось}
+    private static final RedisScript<List> TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>("""
+        local capacity = tonumber(ARGV[1])
+        local rate = tonumber(ARGV[2])
+        local time = redis.call('TIME')
+        local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+        local tokens = tonumber(state[1])
+        local ts = tonumber(state[2])
+        if tokens == nil or ts == nil then
+            tokens = capacity
+            ts = now
+        end
+        tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate)
+        local allowed = 0
+        local retry = 0
+        if tokens >= 1 then
+            tokens = tokens - 1
+            allowed = 1
+        else
+            retry = math.ceil((1 - tokens) / rate)
+        end
+        redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now))
+        redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000)
+        return {allowed, retry, math.floor(tokens)}
+        """, List.class);
+
+    /**
+     * Уровень пользователя
+     */
+    public enum UserTier {
+        FREE, PREMIUM
+    }
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final boolean enabled;
+    private final long redisRetryIntervalMs;
+    private final Set<String> premiumUsers;
+    private final Map<UserTier, Map<AIRequestType, Limit>> limits = new EnumMap<>(UserTier.class);
+    private final Map<String, LocalBucket> localBuckets = new ConcurrentHashMap<>();
+    private final Map<AIRequestType, Counter> allowed = new EnumMap<>(AIRequestType.class);
+    private final Map<AIRequestType, Counter> limited = new EnumMap<>(AIRequestType.class);
+    private final Counter localFallback;
+    private volatile long redisRetryAt;
+
+    public UserRateLimiter(RedisTemplate<String, String> redisTemplate, Environment environment,
+                           MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.enabled = environment.getProperty("app.ai.rate-limit.enabled", Boolean.class, true);
+        this.redisRetryIntervalMs = environment.getProperty("app.ai.rate-limit.redis-retry-interval",
+            Duration.class, Duration.ofSeconds(10)).toMillis();
+        this.premiumUsers = Arrays.stream(environment.getProperty("app.ai.rate-limit.premium-users", "").split(","))
+            .map(String::trim)
+            .filter(id -> !id.isEmpty())
+            .collect(Collectors.toUnmodifiableSet());
+
+        for (UserTier tier : UserTier.values()) {
+            String tierPrefix = "app.ai.rate-limit.tiers." + tier.name().toLowerCase() + ".";
+            double multiplier = environment.getProperty(tierPrefix + "multiplier", Double.class, 1.0);
+            Map<AIRequestType, Limit> tierLimits = new EnumMap<>(AIRequestType.class);
+            for (AIRequestType type : AIRequestType.values()) {
+                String typeKey = type.name().toLowerCase().replace('_', '-');
+                String basePrefix = "app.ai.rate-limit.limits." + typeKey + ".";
+                int capacity = environment.getProperty(tierPrefix + typeKey + ".capacity", Integer.class,
+                    (int) Math.round(multiplier * environment.getProperty(basePrefix + "capacity", Integer.class, DEFAULT_CAPACITY)));
+                double refillPerMinute = environment.getProperty(tierPrefix + typeKey + ".refill-per-minute", Double.class,
+                    multiplier * environment.getProperty(basePrefix + "refill-per-minute", Double.class, DEFAULT_REFILL_PER_MINUTE));
+                tierLimits.put(type, new Limit(Math.max(1, capacity), Math.max(0.001, refillPerMinute)));
+            }
+            limits.put(tier, tierLimits);
+        }
+
+        for (AIRequestType type : AIRequestType.values()) {
+            allowed.put(type, requests(meterRegistry, type, "allowed"));
+            limited.put(type, requests(meterRegistry, type, "limited"));
+        }
+        this.localFallback = Counter.builder("ai.rate_limit.local_fallback")
+            .description("Проверки лимита по локальным корзинам (Redis недоступен)")
+            .register(meterRegistry);
+        Gauge.builder("ai.rate_limit.local_buckets", localBuckets, Map::size)
+            .description("Локальные корзины лимита запросов")
+            .register(meterRegistry);
+
+        log.info("🚦 Лимит AI запросов: {}, premium пользователей {}, лимиты free {}",
+            enabled ? "включен" : "выключен", premiumUsers.size(), limits.get(UserTier.FREE));
+    }
+
+    /**
+     * Забирает токен для запроса пользователя
+     */
+    public Decision tryAcquire(String userId, AIRequestType requestType) {
+        if (!enabled || userId == null || userId.isBlank()) {
+            return Decision.ALLOWED;
+        }
+        Limit limit = limits.get(tierOf(userId)).get(requestType);
+        String key = KEY_PREFIX + requestType.name().toLowerCase() + ":" + userId;
+
+        Decision decision = acquireInRedis(key, limit);
+        if (decision == null) {
+            localFallback.increment();
+            decision = localBuckets.computeIfAbsent(key, k -> new LocalBucket(limit)).tryAcquire();
+            cleanupLocalBuckets();
+        }
+
+        (decision.isAllowed() ? allowed : limited).get(requestType).increment();
+        if (!decision.isAllowed()) {
+            log.info("🚦 Лимит {} для пользователя {}: повтор через {} мс", requestType, userId, decision.getRetryAfterMillis());
+        }
+        return decision;
+    }
+
+    public UserTier tierOf(String userId) {
+        return premiumUsers.contains(userId) ? UserTier.PREMIUM : UserTier.FREE;
+    }
+
+    /**
+     * Проверка в Redis или null, если Redis недоступен
+     */
+    private Decision acquireInRedis(String key, Limit limit) {
+        if (redisTemplate == null || System.currentTimeMillis() < redisRetryAt) {
+            return null;
+        }
+        try {
+            List<?> result = redisTemplate.execute(TOKEN_BUCKET_SCRIPT, List.of(key),
+                String.valueOf(limit.capacity), String.valueOf(limit.ratePerMilli()));
+            if (result == null || result.size() < 3) {
+                return null;
+            }
+            boolean acquired = ((Number) result.get(0)).longValue() == 1;
+            return new Decision(acquired, ((Number) result.get(1)).longValue(), ((Number) result.get(2)).intValue());
+        } catch (Exception e) {
+            redisRetryAt = System.currentTimeMillis() + redisRetryIntervalMs;
+            log.warn("⚠️ Redis недоступен для лимита запросов, локальные корзины на {} мс: {}",
+                redisRetryIntervalMs, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Полные корзины ничего не ограничивают - удаляем их, когда корзин много
+     */
+    private void cleanupLocalBuckets() {
+        if (localBuckets.size() > LOCAL_CLEANUP_THRESHOLD) {
+            long now = System.currentTimeMillis();
+            localBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, AIRequestType type, String result) {
+        return Counter.builder("ai.rate_limit.requests")
+            .tag("type", type.name().toLowerCase())
+            .tag("result", result)
+            .description("Проверки лимита AI запросов пользователя")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Результат проверки лимита
+     */
+    public static final class Decision {
+        static final Decision ALLOWED = new Decision(true, 0, -1);
+
+        private final boolean allowed;
+        private final long retryAfterMillis;
+        private final int remaining;
+
+        Decision(boolean allowed, long retryAfterMillis, int remaining) {
+            this.allowed = allowed;
+            this.retryAfterMillis = retryAfterMillis;
+            this.remaining = remaining;
+        }
+
+        public boolean isAllowed() { return allowed; }
+        public long getRetryAfterMillis() { return retryAfterMillis; }
+        /** Оставшиеся токены (-1 - лимит не проверялся) */
+        public int getRemaining() { return remaining; }
+    }
+
+    private static final class Limit {
+        private final int capacity;
+        private final double refillPerMinute;
+
+        Limit(int capacity, double refillPerMinute) {
+            this.capacity = capacity;
+            this.refillPerMinute = refillPerMinute;
+        }
+
+        double ratePerMilli() {
+            return refillPerMinute / 60_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return capacity + "+" + refillPerMinute + "/мин";
+        }
+    }
+
+    /**
+     * Локальная корзина узла на время недоступности Redis
+     */
+    private static final class LocalBucket {
+        private final int capacity;
+        private final double ratePerMilli;
+        private double tokens;
+        private long updatedAt;
+
+        LocalBucket(Limit limit) {
+            this.capacity = limit.capacity;
+            this.ratePerMilli = limit.ratePerMilli();
+            this.tokens = limit.capacity;
+            this.updatedAt = System.currentTimeMillis();
+        }
+
+        synchronized Decision tryAcquire() {
+            long now = System.currentTimeMillis();
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return new Decision(true, 0, (int) tokens);
+            }
+            return new Decision(false, (long) Math.ceil((1 - tokens) / ratePerMilli), 0);
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + Math.max(0, now - updatedAt) * ratePerMilli);
+            updatedAt = now;
+        }
+    }
+}
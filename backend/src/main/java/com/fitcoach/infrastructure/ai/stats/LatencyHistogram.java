@@ -0,0 +1,99 @@
+package com.fitcoach.infrastructure.ai.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Лог-линейная гистограмма задержек (в духе HdrHistogram)
+ *
+ * Значения до 16 мс хранятся точно, дальше каждая степень двойки делится
+ * на 16 корзин - относительная погрешность перцентиля не больше 6.25%.
+ * Значения от 2^18 мс (~262 с) попадают в последнюю корзину. Запись - один
+ * атомарный инкремент без блокировок и без выделения памяти.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 17;
+    static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long valueMs) {
+        counts.incrementAndGet(bucketOf(valueMs));
+    }
+
+    /**
+     * Прибавляет счетчики корзин к target (для слияния окон)
+     */
+    public void addTo(long[] target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            target[i] += counts.get(i);
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Наибольшее значение, попадающее в корзину
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Перцентили p50/p90/p95/p99 и максимум по счетчикам корзин
+     */
+    static Map<String, Long> percentiles(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        Map<String, Long> result = new LinkedHashMap<>();
+        if (total == 0) {
+            return result;
+        }
+        result.put("p50", valueAt(counts, total, 0.50));
+        result.put("p90", valueAt(counts, total, 0.90));
+        result.put("p95", valueAt(counts, total, 0.95));
+        result.put("p99", valueAt(counts, total, 0.99));
+        result.put("max", valueAt(counts, total, 1.0));
+        return result;
+    }
+
+    private static long valueAt(long[] counts, long total, double quantile) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+}
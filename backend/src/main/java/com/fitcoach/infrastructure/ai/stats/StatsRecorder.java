@@ -0,0 +1,146 @@
+package com.fitcoach.infrastructure.ai.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики и задержки одного измерения (тип запроса, провайдер/модель)
+ *
+ * Итоги с запуска хранятся в LongAdder/DoubleAdder, скользящие окна 1m
+ * и 5m - в кольце 10-секундных интервалов, 1h - в кольце минутных.
+ * record() не блокирует и не выделяет память: смена интервала (раз в
+ * 10 с / минуту) сбрасывает слот под его монитором.
+ */
+public final class StatsRecorder {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final DoubleAdder costUsd = new DoubleAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final RollingWindow fine = new RollingWindow(10_000, 30);
+    private final RollingWindow coarse = new RollingWindow(60_000, 60);
+
+    public void record(long latencyMs, boolean success, long tokensUsed, double cost) {
+        requests.increment();
+        if (!success) {
+            errors.increment();
+        }
+        tokens.add(tokensUsed);
+        costUsd.add(cost);
+        latency.record(latencyMs);
+
+        long now = System.currentTimeMillis();
+        fine.record(now, latencyMs, success, tokensUsed, cost);
+        coarse.record(now, latencyMs, success, tokensUsed, cost);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Итоги с запуска и окна 1m/5m/1h с перцентилями задержки
+     */
+    public Map<String, Object> snapshot() {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        latency.addTo(counts);
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("total", summary(requests.sum(), errors.sum(), tokens.sum(), costUsd.sum(), counts));
+        long now = System.currentTimeMillis();
+        snapshot.put("1m", fine.summary(now, 6));
+        snapshot.put("5m", fine.summary(now, 30));
+        snapshot.put("1h", coarse.summary(now, 60));
+        return snapshot;
+    }
+
+    private static Map<String, Object> summary(long requests, long errors, long tokens, double cost, long[] counts) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", requests);
+        summary.put("errors", errors);
+        summary.put("error_rate", requests == 0 ? 0.0 : (double) errors / requests);
+        summary.put("tokens", tokens);
+        summary.put("cost_usd", cost);
+        summary.put("latency_ms", LatencyHistogram.percentiles(counts));
+        return summary;
+    }
+
+    /**
+     * Кольцо интервалов фиксированной длины
+     */
+    private static final class RollingWindow {
+        private final long slotMillis;
+        private final Slot[] slots;
+
+        RollingWindow(long slotMillis, int slotCount) {
+            this.slotMillis = slotMillis;
+            this.slots = new Slot[slotCount];
+            for (int i = 0; i < slotCount; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+        void record(long now, long latencyMs, boolean success, long tokensUsed, double cost) {
+            long epoch = now / slotMillis;
+            Slot slot = slots[(int) (epoch % slots.length)];
+            if (slot.epoch != epoch) {
+                slot.rotate(epoch);
+            }
+            slot.requests.increment();
+            if (!success) {
+                slot.errors.increment();
+            }
+            slot.tokens.add(tokensUsed);
+            slot.costUsd.add(cost);
+            slot.latency.record(latencyMs);
+        }
+
+        /**
+         * Сумма последних span интервалов, включая текущий
+         */
+        Map<String, Object> summary(long now, int span) {
+            long current = now / slotMillis;
+            long requests = 0;
+            long errors = 0;
+            long tokens = 0;
+            double cost = 0;
+            long[] counts = new long[LatencyHistogram.BUCKETS];
+            for (Slot slot : slots) {
+                long epoch = slot.epoch;
+                if (epoch > current - span && epoch <= current) {
+                    requests += slot.requests.sum();
+                    errors += slot.errors.sum();
+                    tokens += slot.tokens.sum();
+                    cost += slot.costUsd.sum();
+                    slot.latency.addTo(counts);
+                }
+            }
+            return StatsRecorder.summary(requests, errors, tokens, cost, counts);
+        }
+    }
+
+    private static final class Slot {
+        private volatile long epoch = -1;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder tokens = new LongAdder();
+        private final DoubleAdder costUsd = new DoubleAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        synchronized void rotate(long newEpoch) {
+            if (epoch == newEpoch) {
+                return;
+            }
+            requests.reset();
+            errors.reset();
+            tokens.reset();
+            costUsd.reset();
+            latency.reset();
+            epoch = newEpoch;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.fitcoach.infrastructure.nutrition;
 
+import com.fitcoach.infrastructure.ai.cache.CacheCodec;
+import com.fitcoach.infrastructure.ai.cache.CacheNamespaces;
+import com.fitcoach.infrastructure.ai.cache.CacheRefresher;
+import com.fitcoach.infrastructure.ai.cache.CachedValue;
 import com.fitcoach.infrastructure.nutrition.fatsecret.FatSecretService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,8 +29,13 @@ public class NutritionApiService {
     
     private static final Logger log = LoggerFactory.getLogger(NutritionApiService.class);
     
+    private static final Duration GLOBAL_CACHE_TTL = Duration.ofHours(24);
+    
     private final FatSecretService fatSecretService;
-    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final CacheCodec<CachedValue<NutritionInfo>> cacheCodec;
+    private final CacheNamespaces cacheNamespaces;
+    private final CacheRefresher cacheRefresher;
     
     // TODO: Добавить другие сервисы когда будут реализованы
     // private final USDAFdcService usdaFdcService;
@@ -34,9 +43,15 @@ public class NutritionApiService {
     // private final LocalNutritionDatabase localDatabase;
     
     public NutritionApiService(FatSecretService fatSecretService,
-                              RedisTemplate<String, String> redisTemplate) {
+                              RedisTemplate<String, byte[]> binaryRedisTemplate,
+                              CacheCodec<CachedValue<NutritionInfo>> cacheCodec,
+                              CacheNamespaces cacheNamespaces,
+                              CacheRefresher cacheRefresher) {
         this.fatSecretService = fatSecretService;
-        this.redisTemplate = redisTemplate;
+        this.redisTemplate = binaryRedisTemplate;
+        this.cacheCodec = cacheCodec;
+        this.cacheNamespaces = cacheNamespaces;
+        this.cacheRefresher = cacheRefresher;
         
         log.info("🍎 Nutrition API Service инициализирован:");
         log.info("   - FatSecret: {}", fatSecretService != null ? "✅" : "❌");
@@ -58,45 +73,24 @@ public class NutritionApiService {
             log.info("🔍 Поиск питания: '{}' ({}г)", foodName, weight);
             
             // Проверяем общий кэш
-            String globalCacheKey = "nutrition:global:" + foodName.toLowerCase() + ":" + weight;
-            String cachedResult = getCachedResult(globalCacheKey);
-            if (cachedResult != null) {
+            String globalCacheKey = cacheNamespaces.key(CacheNamespaces.NUTRITION,
+                    foodName.toLowerCase() + ":" + weight);
+            CachedValue<NutritionInfo> cached = getCachedResult(globalCacheKey);
+            if (cached != null) {
+                // Устаревшее значение отдаем сразу, источники опрашиваем в фоне
+                if (cacheRefresher.shouldRefresh(cached)) {
+                    cacheRefresher.refreshAsync("nutrition", cached, globalCacheKey,
+                            () -> findInSources(foodName, weight, globalCacheKey));
+                }
                 log.info("✅ Найден в общем кэше: '{}'", foodName);
-                return NutritionInfo.fromJson(cachedResult);
+                return cached.getValue();
             }
             
-            // 1. Пробуем FatSecret (приоритет #1)
-            Optional<NutritionInfo> result = tryFatSecret(foodName, weight);
+            Optional<NutritionInfo> result = findInSources(foodName, weight, globalCacheKey);
             if (result.isPresent()) {
-                cacheGlobalResult(globalCacheKey, result.get());
-                logSuccess("FatSecret", result.get(), startTime);
                 return result.get();
             }
             
-            // 2. TODO: Пробуем USDA FDC (приоритет #2)
-            // result = tryUSDAFdc(foodName, weight);
-            // if (result.isPresent()) {
-            //     cacheGlobalResult(globalCacheKey, result.get());
-            //     logSuccess("USDA FDC", result.get(), startTime);
-            //     return result.get();
-            // }
-            
-            // 3. TODO: Пробуем Edamam (приоритет #3)
-            // result = tryEdamam(foodName, weight);
-            // if (result.isPresent()) {
-            //     cacheGlobalResult(globalCacheKey, result.get());
-            //     logSuccess("Edamam", result.get(), startTime);
-            //     return result.get();
-            // }
-            
-            // 4. TODO: Пробуем локальную базу (fallback)
-            // result = tryLocalDatabase(foodName, weight);
-            // if (result.isPresent()) {
-            //     cacheGlobalResult(globalCacheKey, result.get());
-            //     logSuccess("Local DB", result.get(), startTime);
-            //     return result.get();
-            // }
-            
             // Если ничего не найдено
             long duration = System.currentTimeMillis() - startTime;
             log.warn("❌ Продукт '{}' не найден ни в одном источнике ({}мс)", foodName, duration);
@@ -110,6 +104,47 @@ public class NutritionApiService {
         }
     }
     
+    /**
+     * Каскадный опрос источников; найденное сохраняется в общий кэш
+     */
+    private Optional<NutritionInfo> findInSources(String foodName, double weight, String globalCacheKey) {
+        long startTime = System.currentTimeMillis();
+        
+        // 1. Пробуем FatSecret (приоритет #1)
+        Optional<NutritionInfo> result = tryFatSecret(foodName, weight);
+        if (result.isPresent()) {
+            cacheGlobalResult(globalCacheKey, result.get(), System.currentTimeMillis() - startTime);
+            logSuccess("FatSecret", result.get(), startTime);
+            return result;
+        }
+        
+        // 2. TODO: Пробуем USDA FDC (приоритет #2)
+        // result = tryUSDAFdc(foodName, weight);
+        // if (result.isPresent()) {
+        //     cacheGlobalResult(globalCacheKey, result.get(), System.currentTimeMillis() - startTime);
+        //     logSuccess("USDA FDC", result.get(), startTime);
+        //     return result;
+        // }
+        
+        // 3. TODO: Пробуем Edamam (приоритет #3)
+        // result = tryEdamam(foodName, weight);
+        // if (result.isPresent()) {
+        //     cacheGlobalResult(globalCacheKey, result.get(), System.currentTimeMillis() - startTime);
+        //     logSuccess("Edamam", result.get(), startTime);
+        //     return result;
+        // }
+        
+        // 4. TODO: Пробуем локальную базу (fallback)
+        // result = tryLocalDatabase(foodName, weight);
+        // if (result.isPresent()) {
+        //     cacheGlobalResult(globalCacheKey, result.get(), System.currentTimeMillis() - startTime);
+        //     logSuccess("Local DB", result.get(), startTime);
+        //     return result;
+        // }
+        
+        return Optional.empty();
+    }
+    
     /**
      * Поиск через FatSecret API
      */
@@ -131,10 +166,11 @@ public class NutritionApiService {
     /**
      * Получение результата из общего кэша
      */
-    private String getCachedResult(String key) {
+    private CachedValue<NutritionInfo> getCachedResult(String key) {
         if (redisTemplate != null) {
             try {
-                return redisTemplate.opsForValue().get(key);
+                byte[] stored = redisTemplate.opsForValue().get(key);
+                return stored != null ? cacheCodec.decode(stored) : null;
             } catch (Exception e) {
                 log.warn("⚠️ Ошибка доступа к кэшу: {}", e.getMessage());
             }
@@ -143,12 +179,14 @@ public class NutritionApiService {
     }
     
     /**
-     * Кэширование в общий кэш
+     * Кэширование в общий кэш: 24 часа свежести, затем до жесткого TTL отдается с фоновым обновлением
      */
-    private void cacheGlobalResult(String key, NutritionInfo nutritionInfo) {
+    private void cacheGlobalResult(String key, NutritionInfo nutritionInfo, long computeMillis) {
         if (redisTemplate != null) {
             try {
-                redisTemplate.opsForValue().set(key, nutritionInfo.toJson(), Duration.ofHours(24));
+                CachedValue<NutritionInfo> cached = CachedValue.fresh(nutritionInfo, GLOBAL_CACHE_TTL, computeMillis);
+                redisTemplate.opsForValue().set(key, cacheCodec.encode(cached),
+                        cacheRefresher.hardTtl(GLOBAL_CACHE_TTL));
                 log.debug("📦 Закэширован в общий кэш: {}", key);
             } catch (Exception e) {
                 log.warn("⚠️ Ошибка кэширования: {}", e.getMessage());
@@ -193,14 +231,13 @@ public class NutritionApiService {
      * Очистка всех кэшей питания
      */
     public void clearAllCaches() {
-        if (redisTemplate != null) {
-            try {
-                redisTemplate.delete("nutrition:*");
-                redisTemplate.delete("fatsecret:*");
-                log.info("🧹 Очищены все кэши питания");
-            } catch (Exception e) {
-                log.error("❌ Ошибка очистки кэшей: {}", e.getMessage());
-            }
+        // Токен FatSecret не кэш данных - его не сбрасываем
+        try {
+            cacheNamespaces.bump(CacheNamespaces.NUTRITION);
+            cacheNamespaces.bump(CacheNamespaces.FATSECRET_SEARCH);
+            log.info("🧹 Очищены все кэши питания");
+        } catch (Exception e) {
+            log.error("❌ Ошибка очистки кэшей: {}", e.getMessage());
         }
     }
     
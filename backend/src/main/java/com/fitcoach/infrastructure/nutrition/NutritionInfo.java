@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import java.time.LocalDateTime;
 
@@ -15,6 +16,9 @@ import java.time.LocalDateTime;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class NutritionInfo {
     
+    // Общий экземпляр; без JavaTimeModule fetchedAt не сериализуется
+    private static final ObjectMapper MAPPER = new ObjectMapper().registerModule(new JavaTimeModule());
+    
     private String name;
     private double calories;
     private double protein;      // граммы
@@ -167,7 +171,7 @@ public class NutritionInfo {
      */
     public String toJson() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return MAPPER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             return "{\"error\":\"Serialization failed\"}";
         }
@@ -178,7 +182,7 @@ public class NutritionInfo {
      */
     public static NutritionInfo fromJson(String json) {
         try {
-            return new ObjectMapper().readValue(json, NutritionInfo.class);
+            return MAPPER.readValue(json, NutritionInfo.class);
         } catch (Exception e) {
             return new NutritionInfo("Error", 0, 0, 0, 0, 0, "error");
         }
@@ -2,6 +2,8 @@ package com.fitcoach.infrastructure.nutrition.fatsecret;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitcoach.infrastructure.ai.cache.CacheCodec;
+import com.fitcoach.infrastructure.ai.cache.CacheNamespaces;
 import com.fitcoach.infrastructure.nutrition.NutritionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,13 +45,22 @@ public class FatSecretService {
     private final RestTemplate restTemplate;
     private final RedisTemplate<String, String> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final CacheNamespaces cacheNamespaces;
+    private final RedisTemplate<String, byte[]> binaryRedisTemplate;
+    private final CacheCodec<NutritionInfo> nutritionCodec;
     
     public FatSecretService(RestTemplate restTemplate, 
                            RedisTemplate<String, String> redisTemplate,
-                           ObjectMapper objectMapper) {
+                           ObjectMapper objectMapper,
+                           CacheNamespaces cacheNamespaces,
+                           RedisTemplate<String, byte[]> binaryRedisTemplate,
+                           CacheCodec<NutritionInfo> nutritionCodec) {
         this.restTemplate = restTemplate;
         this.redisTemplate = redisTemplate;
         this.objectMapper = objectMapper;
+        this.cacheNamespaces = cacheNamespaces;
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.nutritionCodec = nutritionCodec;
     }
     
     /**
@@ -64,11 +75,10 @@ public class FatSecretService {
             log.info("🔍 FatSecret поиск: '{}' ({}г)", foodName, weight);
             
             // Проверяем кэш
-            String cacheKey = "fatsecret:search:" + foodName.toLowerCase();
-            String cachedResult = getCachedResult(cacheKey);
-            if (cachedResult != null) {
+            String cacheKey = cacheNamespaces.key(CacheNamespaces.FATSECRET_SEARCH, foodName.toLowerCase());
+            NutritionInfo cached = getCachedNutrition(cacheKey);
+            if (cached != null) {
                 log.info("✅ Найден кэш для '{}'", foodName);
-                NutritionInfo cached = NutritionInfo.fromJson(cachedResult);
                 return Optional.of(cached.scaleToWeight(weight));
             }
             
@@ -91,7 +101,7 @@ public class FatSecretService {
             NutritionInfo nutritionInfo = convertToNutritionInfo(food, weight);
             
             // Кэшируем результат на 24 часа
-            cacheResult(cacheKey, nutritionInfo.scaleToWeight(100)); // Кэшируем базовую порцию 100г
+            cacheNutrition(cacheKey, nutritionInfo.scaleToWeight(100)); // Кэшируем базовую порцию 100г
             
             log.info("✅ FatSecret результат: {}", nutritionInfo.getSummary());
             return Optional.of(nutritionInfo);
@@ -223,18 +233,41 @@ public class FatSecretService {
     }
     
     /**
-     * Кэширование результата
+     * Продукт из кэша поиска (двоичный формат CacheCodec)
      */
-    private void cacheResult(String key, Object value) {
-        cacheResult(key, value, Duration.ofHours(24));
+    private NutritionInfo getCachedNutrition(String key) {
+        if (binaryRedisTemplate != null) {
+            try {
+                byte[] stored = binaryRedisTemplate.opsForValue().get(key);
+                return stored != null ? nutritionCodec.decode(stored) : null;
+            } catch (Exception e) {
+                log.warn("⚠️ Ошибка доступа к кэшу: {}", e.getMessage());
+            }
+        }
+        return null;
     }
     
+    /**
+     * Кэширование найденного продукта на 24 часа
+     */
+    private void cacheNutrition(String key, NutritionInfo nutritionInfo) {
+        if (binaryRedisTemplate != null) {
+            try {
+                binaryRedisTemplate.opsForValue().set(key, nutritionCodec.encode(nutritionInfo), Duration.ofHours(24));
+                log.debug("📦 Закэширован результат: {}", key);
+            } catch (Exception e) {
+                log.warn("⚠️ Ошибка кэширования: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Кэширование результата
+     */
     private void cacheResult(String key, Object value, Duration ttl) {
         if (redisTemplate != null) {
             try {
-                String json = value instanceof String ? (String) value : 
-                             value instanceof NutritionInfo ? ((NutritionInfo) value).toJson() : 
-                             objectMapper.writeValueAsString(value);
+                String json = value instanceof String ? (String) value : objectMapper.writeValueAsString(value);
                 redisTemplate.opsForValue().set(key, json, ttl);
                 log.debug("📦 Закэширован результат: {} на {}", key, ttl);
             } catch (Exception e) {
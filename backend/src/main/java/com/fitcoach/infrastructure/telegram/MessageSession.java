@@ -0,0 +1,249 @@
+package com.fitcoach.infrastructure.telegram;
+
+import com.fitcoach.infrastructure.ai.common.ChatStreamListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Одно сообщение Telegram на все взаимодействие: заглушка, затем правки
+ *
+ * update() только запоминает последний текст: правка уходит не чаще
+ * min-edit-interval, промежуточные тексты между правками схлопываются
+ * (первая правка - не раньше интервала после заглушки, поэтому быстрый
+ * ответ стоит двух вызовов: заглушка и итог). На 429 следующая правка
+ * откладывается на retry_after. complete() отправляет итог сразу после
+ * ближайшего разрешенного момента, текст длиннее max-length дописывается
+ * отдельными сообщениями.
+ *
+ * Если заглушку отправить не удалось, итог уходит обычным сообщением.
+ */
+public class MessageSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSession.class);
+
+    private static final String CURSOR = " ▌";
+    private static final String ELLIPSIS = "…";
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final MessageSessionFactory factory;
+    private final AbsSender sender;
+    private final long chatId;
+    private final Integer messageId;
+    private final long minEditIntervalMs;
+    // Вызовы API по порядку: поздняя правка не должна обогнать более раннюю
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    private String pendingText;
+    private String sentText;
+    private volatile long nextEditAt;
+    private boolean flushScheduled;
+    private boolean completed;
+
+    MessageSession(MessageSessionFactory factory, AbsSender sender, long chatId, String placeholder) {
+        this.factory = factory;
+        this.sender = sender;
+        this.chatId = chatId;
+        this.minEditIntervalMs = factory.getMinEditInterval().toMillis();
+        this.messageId = sendNew(placeholder);
+        this.sentText = placeholder;
+        this.nextEditAt = System.currentTimeMillis() + minEditIntervalMs;
+    }
+
+    /**
+     * Новый промежуточный текст (стадия анализа, накопленный ответ)
+     */
+    public void update(String text) {
+        synchronized (this) {
+            if (completed || messageId == null) {
+                return;
+            }
+            pendingText = text;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Получатель потокового ответа: текст растет в сообщении под заголовком с курсором
+     */
+    public ChatStreamListener streamListener(String header) {
+        StringBuilder answer = new StringBuilder();
+        return delta -> {
+            answer.append(delta);
+            update(header + answer + CURSOR);
+        };
+    }
+
+    /**
+     * Итоговый текст: промежуточные правки отменяются, итог уходит в ближайший
+     * разрешенный момент (блокирует вызывающий поток до отправки)
+     */
+    public void complete(String finalText) {
+        synchronized (this) {
+            completed = true;
+        }
+        sendLock.lock();
+        try {
+            List<String> parts = split(finalText, factory.getMaxLength());
+            int from = 0;
+            if (messageId != null && edit(parts.get(0), true)) {
+                from = 1;
+            }
+            for (int i = from; i < parts.size(); i++) {
+                sendNew(parts.get(i));
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void scheduleFlush() {
+        long delay;
+        synchronized (this) {
+            if (flushScheduled || completed) {
+                return;
+            }
+            flushScheduled = true;
+            delay = Math.max(0, nextEditAt - System.currentTimeMillis());
+        }
+        factory.getScheduler().schedule(() -> factory.getExecutor().execute(this::flush), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        sendLock.lock();
+        try {
+            String text;
+            synchronized (this) {
+                flushScheduled = false;
+                if (completed) {
+                    return;
+                }
+                text = pendingText;
+            }
+            edit(truncate(text, factory.getMaxLength()), false);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Правка сообщения в пределах лимита правок
+     *
+     * @param wait ждать разрешенного момента (итог) или вернуть false, если лимит получен в ответ
+     */
+    private boolean edit(String text, boolean wait) {
+        if (text.equals(sentText)) {
+            return true;
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (wait) {
+                sleepUntil(nextEditAt);
+            }
+            EditMessageText edit = new EditMessageText();
+            edit.setChatId(String.valueOf(chatId));
+            edit.setMessageId(messageId);
+            edit.setText(text);
+            try {
+                sender.execute(edit);
+                factory.getEdits().increment();
+                sentText = text;
+                nextEditAt = System.currentTimeMillis() + minEditIntervalMs;
+                return true;
+            } catch (TelegramApiRequestException e) {
+                if (e.getErrorCode() != null && e.getErrorCode() == TOO_MANY_REQUESTS) {
+                    long retryAfterMs = e.getParameters() != null && e.getParameters().getRetryAfter() != null
+                        ? e.getParameters().getRetryAfter() * 1000L : minEditIntervalMs;
+                    nextEditAt = System.currentTimeMillis() + retryAfterMs;
+                    logger.warn("🐢 Telegram ограничил правки в чате {}: повтор через {} мс", chatId, retryAfterMs);
+                    if (wait) {
+                        continue;
+                    }
+                    // Повтор с последним текстом, который накопится к моменту retry_after
+                    scheduleFlush();
+                    return false;
+                }
+                if (e.getApiResponse() != null && e.getApiResponse().contains("message is not modified")) {
+                    sentText = text;
+                    return true;
+                }
+                logger.error("Ошибка правки сообщения: {}", e.getMessage());
+                return false;
+            } catch (TelegramApiException e) {
+                logger.error("Ошибка правки сообщения: {}", e.getMessage());
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private Integer sendNew(String text) {
+        SendMessage message = new SendMessage();
+        message.setChatId(String.valueOf(chatId));
+        message.setText(text);
+        try {
+            Message sent = sender.execute(message);
+            factory.getSends().increment();
+            return sent != null ? sent.getMessageId() : null;
+        } catch (TelegramApiException e) {
+            logger.error("Ошибка отправки сообщения: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private static void sleepUntil(long time) {
+        long delay = time - System.currentTimeMillis();
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Промежуточный текст длиннее лимита: последние символы (растущий ответ виден целиком в итоге)
+     */
+    private static String truncate(String text, int maxLength) {
+        if (text.length() <= maxLength) {
+            return text;
+        }
+        int start = text.length() - maxLength + ELLIPSIS.length();
+        if (Character.isLowSurrogate(text.charAt(start))) {
+            start++;
+        }
+        return ELLIPSIS + text.substring(start);
+    }
+
+    /**
+     * Делит итог на сообщения не длиннее лимита, по возможности по переводам строк
+     */
+    static List<String> split(String text, int maxLength) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > maxLength) {
+            int end = text.lastIndexOf('\n', start + maxLength);
+            if (end <= start + maxLength / 2) {
+                end = start + maxLength;
+                if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            parts.add(text.substring(start, end));
+            start = end < text.length() && text.charAt(end) == '\n' ? end + 1 : end;
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+}
@@ -0,0 +1,71 @@
+package com.fitcoach.infrastructure.telegram;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Создает сессии сообщений Telegram (одно сообщение, обновляемое правками)
+ *
+ * Общие для всех сессий: таймер отложенных правок (один поток, только
+ * планирование), виртуальные потоки для вызовов Bot API и счетчики
+ * telegram.api.calls{method=send|edit}.
+ *
+ * Настройки: telegram.message-session.min-edit-interval (Telegram
+ * допускает около одного сообщения в секунду на чат), max-length
+ */
+@Component
+public class MessageSessionFactory {
+
+    private final Duration minEditInterval;
+    private final int maxLength;
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("telegram-edits").daemon().factory());
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter sends;
+    private final Counter edits;
+
+    public MessageSessionFactory(@Value("${telegram.message-session.min-edit-interval:1s}") Duration minEditInterval,
+                                 @Value("${telegram.message-session.max-length:4096}") int maxLength,
+                                 MeterRegistry meterRegistry) {
+        this.minEditInterval = minEditInterval;
+        this.maxLength = maxLength;
+        this.sends = apiCalls(meterRegistry, "send");
+        this.edits = apiCalls(meterRegistry, "edit");
+    }
+
+    /**
+     * Отправляет заглушку и возвращает сессию для ее обновления
+     */
+    public MessageSession open(AbsSender sender, long chatId, String placeholder) {
+        return new MessageSession(this, sender, chatId, placeholder);
+    }
+
+    Duration getMinEditInterval() { return minEditInterval; }
+    int getMaxLength() { return maxLength; }
+    ScheduledExecutorService getScheduler() { return scheduler; }
+    ExecutorService getExecutor() { return executor; }
+    Counter getSends() { return sends; }
+    Counter getEdits() { return edits; }
+
+    private static Counter apiCalls(MeterRegistry meterRegistry, String method) {
+        return Counter.builder("telegram.api.calls")
+            .tag("method", method)
+            .description("Вызовы Telegram Bot API из сессий сообщений")
+            .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,159 @@
+package com.fitcoach.infrastructure.telegram;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitcoach.infrastructure.ai.NutritionAnalysis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Индекс уже проанализированных фото Telegram по file_unique_id
+ *
+ * file_unique_id одинаков для пересланных и повторно отправленных фото,
+ * поэтому повторное фото отвечается сразу: без GetFile, скачивания и
+ * вызова OpenAI.
+ *
+ * Два уровня: локальный LRU в памяти и Redis (общий для всех узлов,
+ * переживает перезапуск). Запись живет ttl с последнего сохранения на
+ * обоих уровнях. Без Redis индекс работает только локально.
+ *
+ * Запись помнит пользователей, в чью историю питания анализ уже внесен:
+ * пересланное фото добавляется в историю каждого получателя один раз.
+ */
+@Component
+public class PhotoAnalysisIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhotoAnalysisIndex.class);
+
+    private static final String KEY_PREFIX = "telegram:photo:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final Map<String, IndexedPhoto> localTier;
+
+    public PhotoAnalysisIndex(RedisTemplate<String, String> redisTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${telegram.photo-index.ttl:30d}") Duration ttl,
+                              @Value("${telegram.photo-index.local-max-entries:5000}") int localMaxEntries) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.ttl = ttl;
+        this.localTier = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IndexedPhoto> eldest) {
+                return size() > localMaxEntries;
+            }
+        });
+    }
+
+    /**
+     * Ищет сохраненный анализ: сначала в памяти, затем в Redis
+     */
+    public Optional<IndexedPhoto> find(String fileUniqueId) {
+        if (fileUniqueId == null) {
+            return Optional.empty();
+        }
+
+        IndexedPhoto local = localTier.get(fileUniqueId);
+        if (local != null && !local.isExpired(System.currentTimeMillis(), ttl)) {
+            return Optional.of(local);
+        }
+        if (local != null) {
+            localTier.remove(fileUniqueId);
+        }
+
+        if (redisTemplate != null) {
+            try {
+                String json = redisTemplate.opsForValue().get(KEY_PREFIX + fileUniqueId);
+                if (json != null) {
+                    IndexedPhoto indexed = objectMapper.readValue(json, IndexedPhoto.class);
+                    localTier.put(fileUniqueId, indexed);
+                    return Optional.of(indexed);
+                }
+            } catch (Exception e) {
+                logger.warn("⚠️ Ошибка чтения индекса фото из Redis: {}", e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Запоминает анализ фото, уже внесенный в историю пользователя
+     */
+    public void save(String fileUniqueId, NutritionAnalysis analysis, String telegramUserId) {
+        IndexedPhoto indexed = new IndexedPhoto();
+        indexed.setAnalysis(analysis);
+        indexed.getRecordedFor().add(telegramUserId);
+        store(fileUniqueId, indexed);
+    }
+
+    /**
+     * Отмечает, что анализ внесен в историю еще одного пользователя
+     */
+    public void markRecorded(String fileUniqueId, IndexedPhoto indexed, String telegramUserId) {
+        IndexedPhoto updated = new IndexedPhoto();
+        updated.setAnalysis(indexed.getAnalysis());
+        updated.getRecordedFor().addAll(indexed.getRecordedFor());
+        updated.getRecordedFor().add(telegramUserId);
+        store(fileUniqueId, updated);
+    }
+
+    private void store(String fileUniqueId, IndexedPhoto indexed) {
+        if (fileUniqueId == null) {
+            return;
+        }
+
+        indexed.setSavedAt(System.currentTimeMillis());
+        localTier.put(fileUniqueId, indexed);
+
+        if (redisTemplate != null) {
+            try {
+                redisTemplate.opsForValue().set(KEY_PREFIX + fileUniqueId, objectMapper.writeValueAsString(indexed), ttl);
+            } catch (Exception e) {
+                logger.warn("⚠️ Ошибка записи индекса фото в Redis: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Сохраненный результат анализа фото
+     */
+    public static class IndexedPhoto {
+        private NutritionAnalysis analysis;
+        private Set<String> recordedFor = new LinkedHashSet<>();
+        private long savedAt;
+
+        public IndexedPhoto() {}
+
+        /**
+         * Фото уже записано в историю этого пользователя
+         */
+        public boolean isRecordedFor(String telegramId) {
+            return telegramId != null && recordedFor.contains(telegramId);
+        }
+
+        boolean isExpired(long now, Duration ttl) {
+            return now - savedAt >= ttl.toMillis();
+        }
+
+        public NutritionAnalysis getAnalysis() { return analysis; }
+        public void setAnalysis(NutritionAnalysis analysis) { this.analysis = analysis; }
+
+        public Set<String> getRecordedFor() { return recordedFor; }
+        public void setRecordedFor(Set<String> recordedFor) { this.recordedFor = recordedFor; }
+
+        public long getSavedAt() { return savedAt; }
+        public void setSavedAt(long savedAt) { this.savedAt = savedAt; }
+    }
+}
@@ -2,6 +2,11 @@ package com.fitcoach.infrastructure.telegram;
 
 import com.fitcoach.infrastructure.ai.NutritionAnalysis;
 import com.fitcoach.infrastructure.ai.OpenAIService;
+import com.fitcoach.infrastructure.ai.ProductsDatabase;
+import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.infrastructure.ai.router.AIRequestType;
+import com.fitcoach.infrastructure.ai.router.LLMRouterService;
+import com.fitcoach.infrastructure.ai.router.UserRateLimiter;
 import com.fitcoach.model.NutritionEntry;
 import com.fitcoach.model.User;
 import com.fitcoach.service.NutritionService;
@@ -30,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Component
@@ -37,6 +43,10 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
     
     private static final Logger logger = LoggerFactory.getLogger(SimpleTelegramBot.class);
     
+    private static final String AI_CHAT_HEADER = "🤖 AI Консультант:\n\n";
+    private static final String AI_CHAT_UNAVAILABLE =
+        "🤖 Извините, сейчас я немного занят. Попробуйте позже или проверьте настройки AI.";
+    
     @Value("${telegram.bot.token}")
     private String botToken;
     
@@ -54,6 +64,21 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
     
     @Autowired
     private NutritionService nutritionService;
+    
+    @Autowired
+    private PhotoAnalysisIndex photoAnalysisIndex;
+    
+    @Autowired
+    private UserRateLimiter rateLimiter;
+    
+    @Autowired
+    private ProductsDatabase productsDatabase;
+    
+    @Autowired
+    private MessageSessionFactory messageSessions;
+    
+    @Autowired
+    private LLMRouterService llmRouterService;
 
     @Override
     public String getBotUsername() {
@@ -104,6 +129,7 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
      * Обработка фото сообщений - анализ еды через OpenAI
      */
     private void handlePhotoMessage(Message message, User user) {
+        MessageSession session = null;
         try {
             String firstName = message.getFrom().getFirstName();
             logger.info("Получено фото от пользователя: {}", firstName);
@@ -112,6 +138,13 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
             List<PhotoSize> photos = message.getPhoto();
             PhotoSize photo = photos.get(photos.size() - 1);
             
+            // Повторное или пересланное фото - отвечаем сразу, без скачивания и AI
+            Optional<PhotoAnalysisIndex.IndexedPhoto> indexed = photoAnalysisIndex.find(photo.getFileUniqueId());
+            if (indexed.isPresent()) {
+                handleRepeatedPhoto(message, user, photo.getFileUniqueId(), indexed.get());
+                return;
+            }
+            
             // Проверяем размер файла (ужесточили лимиты)
             if (photo.getFileSize() != null && photo.getFileSize() > 500 * 1024) { // 500KB вместо 1MB
                 sendMessage(message.getChatId(), 
@@ -124,35 +157,39 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
                 return;
             }
 
+            // Лимит частоты фото: сверх него - без скачивания и без вызова OpenAI
+            // (после проверки размера, чтобы отклоненное фото не тратило токен)
+            UserRateLimiter.Decision rate = rateLimiter.tryAcquire(user.getTelegramId(), AIRequestType.FOOD_ANALYSIS);
+            if (!rate.isAllowed()) {
+                handleRateLimitedPhoto(message, rate);
+                return;
+            }
+            
             String fileId = photo.getFileId();
             
-            // Отправляем сообщение о начале анализа
-            sendMessage(message.getChatId(), "📸 Отлично! Анализирую ваше фото еды...\n⏳ Оптимизирую изображение для экономии токенов.");
-            
-            // Скачиваем файл и конвертируем в base64
-            String imageBase64 = downloadAndConvertToBase64(fileId);
-            
-            if (imageBase64 != null) {
-                // СУПЕР агрессивная проверка размера base64
-                if (imageBase64.length() > 200_000) { // ~150KB оригинального изображения (экономия 75% токенов!)
-                    sendMessage(message.getChatId(), 
-                        "⚠️ Изображение все еще слишком детализированное для экономии токенов.\n\n" +
-                        "📸 Нужны ОЧЕНЬ компактные изображения (до 150KB):\n" +
-                        "• Максимально простое фото блюда\n" +
-                        "• Без фона, рук, столовых приборов\n" +
-                        "• Близко к еде, четкий фокус\n" +
-                        "• Сжатие JPEG максимальное\n\n" +
-                        "🔄 Используем базу данных продуктов для анализа...");
-                }
+            // Одно сообщение на весь анализ: стадии и результат - правками заглушки
+            session = messageSessions.open(this, message.getChatId(),
+                "📸 Отлично! Анализирую ваше фото еды...\n⏳ Оптимизирую изображение для экономии токенов.");
+            
+            // Скачиваем файл
+            byte[] imageBytes = downloadPhoto(fileId);
+            
+            if (imageBytes != null) {
+                session.update("📸 Фото получено!\n🧠 Распознаю блюда и считаю КБЖУ...");
                 
-                // Анализируем изображение (с fallback в случае ошибок)
-                NutritionAnalysis analysis = openAIService.analyzeFoodImage(imageBase64);
+                // Анализируем изображение: сжатие до 512px, кэш похожих фото, fallback в случае ошибок
+                NutritionAnalysis analysis = openAIService.analyzeFoodImageFromBytes(imageBytes, fileId + ".jpg", user.getTelegramId());
                 
                 // Сохраняем результат анализа в историю питания
                 try {
+                    String imageBase64 = Base64.getEncoder().encodeToString(imageBytes);
                     List<NutritionEntry> savedEntries = nutritionService.saveNutritionAnalysis(user, analysis, imageBase64);
                     logger.info("💾 Сохранено {} записей в историю питания для пользователя: {}", 
                                savedEntries.size(), user.getUsername());
+                    
+                    if (analysis.getDetectedFoods() != null && !analysis.getDetectedFoods().isEmpty()) {
+                        photoAnalysisIndex.save(photo.getFileUniqueId(), analysis, user.getTelegramId());
+                    }
                 } catch (Exception saveException) {
                     logger.error("Ошибка сохранения анализа в историю для пользователя {}: {}", 
                                user.getUsername(), saveException.getMessage());
@@ -160,24 +197,67 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
                 
                 // Отправляем результат
                 String response = formatNutritionAnalysis(analysis, firstName);
-                sendMessage(message.getChatId(), response);
+                session.complete(response);
             } else {
-                sendMessage(message.getChatId(), "❌ Не удалось скачать изображение. Попробуйте еще раз.");
+                session.complete("❌ Не удалось скачать изображение. Попробуйте еще раз.");
             }
             
         } catch (Exception e) {
             logger.error("Ошибка при обработке фото", e);
-            sendMessage(message.getChatId(), 
-                "❌ Произошла ошибка при анализе фото.\n\n" +
+            String errorText = "❌ Произошла ошибка при анализе фото.\n\n" +
                 "🔄 Попробуйте:\n" +
                 "• Отправить другое фото\n" +
                 "• Описать блюдо текстом\n" +
-                "• Обратиться к AI чату");
+                "• Обратиться к AI чату";
+            if (session != null) {
+                session.complete(errorText);
+            } else {
+                sendMessage(message.getChatId(), errorText);
+            }
         }
         
         logger.info("Анализ фото завершен для пользователя: {}", message.getFrom().getFirstName());
     }
 
+    /**
+     * Ответ сверх лимита частоты фото: оценка по подписи к фото из базы продуктов
+     */
+    private void handleRateLimitedPhoto(Message message, UserRateLimiter.Decision rate) {
+        long retryAfterSeconds = Math.max(1, (rate.getRetryAfterMillis() + 999) / 1000);
+        Optional<NutritionAnalysis> estimate = productsDatabase.estimateFromText(message.getCaption());
+        if (estimate.isPresent()) {
+            sendMessage(message.getChatId(),
+                "⏳ Слишком много фото подряд - оценил по подписи без ИИ.\n\n" +
+                formatNutritionAnalysis(estimate.get(), message.getFrom().getFirstName()));
+            return;
+        }
+        sendMessage(message.getChatId(),
+            "⏳ Слишком много фото подряд. Повторите через " + retryAfterSeconds + " с.\n\n" +
+            "💡 Или добавьте к фото подпись с блюдом и весом, например: гречка 200г, курица 150г");
+    }
+
+    /**
+     * Ответ на уже проанализированное фото из индекса file_unique_id
+     */
+    private void handleRepeatedPhoto(Message message, User user, String fileUniqueId,
+                                     PhotoAnalysisIndex.IndexedPhoto indexed) {
+        NutritionAnalysis analysis = indexed.getAnalysis();
+        logger.info("♻️ Повторное фото от пользователя {}: ответ из индекса", user.getUsername());
+        
+        // Пересланное чужое фото записываем в историю текущего пользователя
+        if (!indexed.isRecordedFor(user.getTelegramId())) {
+            try {
+                nutritionService.saveNutritionAnalysis(user, analysis, null);
+                photoAnalysisIndex.markRecorded(fileUniqueId, indexed, user.getTelegramId());
+            } catch (Exception saveException) {
+                logger.error("Ошибка сохранения анализа в историю для пользователя {}: {}", 
+                           user.getUsername(), saveException.getMessage());
+            }
+        }
+        
+        sendMessage(message.getChatId(), formatNutritionAnalysis(analysis, message.getFrom().getFirstName()));
+    }
+
     /**
      * Обработка текстовых сообщений
      */
@@ -343,7 +423,7 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
             default:
                 // Если это не команда, пробуем обработать как вопрос к AI
                 if (!messageText.startsWith("/")) {
-                    handleAiChatMessage(chatId, messageText, userName);
+                    handleAiChatMessage(chatId, messageText, userName, user.getTelegramId());
                     return;
                 } else {
                     responseText = "🤔 Неизвестная команда: " + messageText + "\n\n" +
@@ -361,30 +441,50 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
     /**
      * Обработка сообщений для AI чата
      */
-    private void handleAiChatMessage(long chatId, String messageText, String userName) {
+    private void handleAiChatMessage(long chatId, String messageText, String userName, String telegramId) {
+        MessageSession session = null;
         try {
             logger.info("AI чат запрос от {}: {}", userName, messageText);
             
-            sendMessage(chatId, "🤖 Думаю над вашим вопросом...");
-            
-            String userContext = "Пользователь: " + userName + ", Платформа: Telegram";
-            String aiResponse = openAIService.chatWithNutritionBot(messageText, userContext);
+            session = messageSessions.open(this, chatId, "🤖 Думаю над вашим вопросом...");
             
-            String formattedResponse = "🤖 AI Консультант:\n\n" + aiResponse + 
-                                     "\n\n💡 Есть еще вопросы? Просто напишите!";
+            // Через роутер: лимит частоты, дневной бюджет и учет токенов пользователя;
+            // ответ появляется в том же сообщении по мере генерации
+            AIResponse aiResponse = llmRouterService.streamChat(messageText, telegramId,
+                session.streamListener(AI_CHAT_HEADER));
             
-            sendMessage(chatId, formattedResponse);
+            if (aiResponse.isSuccessful()) {
+                session.complete(AI_CHAT_HEADER + aiResponse.getContent() + 
+                                 "\n\n💡 Есть еще вопросы? Просто напишите!");
+            } else if (isLimitResponse(aiResponse)) {
+                session.complete("⏳ " + aiResponse.getErrorMessage());
+            } else {
+                session.complete(AI_CHAT_UNAVAILABLE);
+            }
             
         } catch (Exception e) {
             logger.error("Ошибка в AI чате: {}", e.getMessage(), e);
-            sendMessage(chatId, "🤖 Извините, сейчас я немного занят. Попробуйте позже или проверьте настройки AI.");
+            if (session != null) {
+                session.complete(AI_CHAT_UNAVAILABLE);
+            } else {
+                sendMessage(chatId, AI_CHAT_UNAVAILABLE);
+            }
         }
     }
 
     /**
-     * Скачивает фото и конвертирует в base64
+     * Отказ роутера по лимиту частоты или дневному бюджету (текст для пользователя в errorMessage)
+     */
+    private static boolean isLimitResponse(AIResponse response) {
+        Map<String, Object> metadata = response.getMetadata();
+        return metadata != null && response.getErrorMessage() != null
+            && (metadata.containsKey("rate_limited") || metadata.containsKey("budget_exceeded"));
+    }
+
+    /**
+     * Скачивает фото из Telegram
      */
-    private String downloadAndConvertToBase64(String fileId) {
+    private byte[] downloadPhoto(String fileId) {
         try {
             // Получаем информацию о файле
             GetFile getFile = new GetFile();
@@ -394,10 +494,8 @@ public class SimpleTelegramBot extends TelegramLongPollingBot {
             // Формируем URL для скачивания
             String fileUrl = "https://api.telegram.org/file/bot" + botToken + "/" + file.getFilePath();
             
-            // Скачиваем и конвертируем в base64
             try (InputStream inputStream = new URL(fileUrl).openStream()) {
-                byte[] imageBytes = inputStream.readAllBytes();
-                return Base64.getEncoder().encodeToString(imageBytes);
+                return inputStream.readAllBytes();
             }
             
         } catch (TelegramApiException | IOException e) {
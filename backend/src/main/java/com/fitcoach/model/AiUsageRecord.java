@@ -0,0 +1,92 @@
+package com.fitcoach.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Учет одного вызова AI: токены и стоимость по пользователю, провайдеру и типу запроса
+ */
+@Entity
+@Table(name = "ai_usage_records", indexes = {
+    @Index(name = "idx_ai_usage_user_created", columnList = "user_id, created_at"),
+    @Index(name = "idx_ai_usage_created", columnList = "created_at")
+})
+public class AiUsageRecord {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false, length = 64)
+    private String userId;
+
+    @Column(nullable = false, length = 32)
+    private String provider;
+
+    @Column(length = 64)
+    private String model;
+
+    @Column(name = "request_type", nullable = false, length = 32)
+    private String requestType;
+
+    // Входящие/исходящие токены известны не для всех провайдеров
+    private Integer promptTokens;
+
+    private Integer completionTokens;
+
+    @Column(nullable = false)
+    private Integer totalTokens;
+
+    @Column(nullable = false)
+    private Double costUsd;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public AiUsageRecord() {}
+
+    public AiUsageRecord(String userId, String provider, String model, String requestType,
+                         Integer promptTokens, Integer completionTokens, int totalTokens,
+                         double costUsd, LocalDateTime createdAt) {
+        this.userId = userId;
+        this.provider = provider;
+        this.model = model;
+        this.requestType = requestType;
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+        this.totalTokens = totalTokens;
+        this.costUsd = costUsd;
+        this.createdAt = createdAt;
+    }
+
+    // Getters и Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public String getProvider() { return provider; }
+    public void setProvider(String provider) { this.provider = provider; }
+
+    public String getModel() { return model; }
+    public void setModel(String model) { this.model = model; }
+
+    public String getRequestType() { return requestType; }
+    public void setRequestType(String requestType) { this.requestType = requestType; }
+
+    public Integer getPromptTokens() { return promptTokens; }
+    public void setPromptTokens(Integer promptTokens) { this.promptTokens = promptTokens; }
+
+    public Integer getCompletionTokens() { return completionTokens; }
+    public void setCompletionTokens(Integer completionTokens) { this.completionTokens = completionTokens; }
+
+    public Integer getTotalTokens() { return totalTokens; }
+    public void setTotalTokens(Integer totalTokens) { this.totalTokens = totalTokens; }
+
+    public Double getCostUsd() { return costUsd; }
+    public void setCostUsd(Double costUsd) { this.costUsd = costUsd; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,113 @@
+package com.fitcoach.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Агрегат использования AI за минуту, час или день (UTC)
+ * по пользователю, провайдеру и типу запроса
+ */
+@Entity
+@Table(name = "ai_usage_rollups",
+    uniqueConstraints = @UniqueConstraint(name = "uk_ai_usage_rollup",
+        columnNames = {"granularity", "bucket_start", "user_id", "provider", "request_type"}),
+    indexes = {
+        @Index(name = "idx_ai_rollup_user_bucket", columnList = "user_id, granularity, bucket_start"),
+        @Index(name = "idx_ai_rollup_bucket", columnList = "granularity, bucket_start")
+    })
+public class AiUsageRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    private Granularity granularity;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "user_id", nullable = false, length = 64)
+    private String userId;
+
+    @Column(nullable = false, length = 32)
+    private String provider;
+
+    @Column(name = "request_type", nullable = false, length = 32)
+    private String requestType;
+
+    @Column(nullable = false)
+    private Long calls;
+
+    @Column(nullable = false)
+    private Long totalTokens;
+
+    @Column(nullable = false)
+    private Double costUsd;
+
+    public AiUsageRollup() {}
+
+    public AiUsageRollup(Granularity granularity, LocalDateTime bucketStart, String userId, String provider,
+                         String requestType, long calls, long totalTokens, double costUsd) {
+        this.granularity = granularity;
+        this.bucketStart = bucketStart;
+        this.userId = userId;
+        this.provider = provider;
+        this.requestType = requestType;
+        this.calls = calls;
+        this.totalTokens = totalTokens;
+        this.costUsd = costUsd;
+    }
+
+    // Getters и Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Granularity getGranularity() { return granularity; }
+    public void setGranularity(Granularity granularity) { this.granularity = granularity; }
+
+    public LocalDateTime getBucketStart() { return bucketStart; }
+    public void setBucketStart(LocalDateTime bucketStart) { this.bucketStart = bucketStart; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public String getProvider() { return provider; }
+    public void setProvider(String provider) { this.provider = provider; }
+
+    public String getRequestType() { return requestType; }
+    public void setRequestType(String requestType) { this.requestType = requestType; }
+
+    public Long getCalls() { return calls; }
+    public void setCalls(Long calls) { this.calls = calls; }
+
+    public Long getTotalTokens() { return totalTokens; }
+    public void setTotalTokens(Long totalTokens) { this.totalTokens = totalTokens; }
+
+    public Double getCostUsd() { return costUsd; }
+    public void setCostUsd(Double costUsd) { this.costUsd = costUsd; }
+
+    /**
+     * Размер интервала агрегации
+     */
+    public enum Granularity {
+        MINUTE(ChronoUnit.MINUTES),
+        HOUR(ChronoUnit.HOURS),
+        DAY(ChronoUnit.DAYS);
+
+        private final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * Начало интервала, в который попадает момент
+         */
+        public LocalDateTime bucketStart(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+    }
+}
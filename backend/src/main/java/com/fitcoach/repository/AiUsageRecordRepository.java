@@ -0,0 +1,31 @@
+package com.fitcoach.repository;
+
+import com.fitcoach.model.AiUsageRecord;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository для учета отдельных вызовов AI
+ */
+@Repository
+public interface AiUsageRecordRepository extends JpaRepository<AiUsageRecord, Long> {
+
+    /**
+     * Последние вызовы пользователя
+     */
+    List<AiUsageRecord> findByUserIdOrderByCreatedAtDesc(String userId, Pageable pageable);
+
+    /**
+     * Удалить записи старше границы хранения
+     */
+    @Modifying
+    @Query("DELETE FROM AiUsageRecord r WHERE r.createdAt < :before")
+    int deleteOlderThan(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,76 @@
+package com.fitcoach.repository;
+
+import com.fitcoach.model.AiUsageRollup;
+import com.fitcoach.model.AiUsageRollup.Granularity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository для агрегатов использования AI (минута/час/день)
+ */
+@Repository
+public interface AiUsageRollupRepository extends JpaRepository<AiUsageRollup, Long> {
+
+    /**
+     * Атомарно прибавить к существующему агрегату
+     *
+     * @return 0, если агрегата за этот интервал еще нет
+     */
+    @Modifying
+    @Query("UPDATE AiUsageRollup r SET r.calls = r.calls + :calls, r.totalTokens = r.totalTokens + :tokens, " +
+           "r.costUsd = r.costUsd + :cost " +
+           "WHERE r.granularity = :granularity AND r.bucketStart = :bucketStart AND r.userId = :userId " +
+           "AND r.provider = :provider AND r.requestType = :requestType")
+    int increment(@Param("granularity") Granularity granularity,
+                  @Param("bucketStart") LocalDateTime bucketStart,
+                  @Param("userId") String userId,
+                  @Param("provider") String provider,
+                  @Param("requestType") String requestType,
+                  @Param("calls") long calls,
+                  @Param("tokens") long tokens,
+                  @Param("cost") double cost);
+
+    /**
+     * Агрегаты пользователя за период
+     */
+    @Query("SELECT r FROM AiUsageRollup r WHERE r.userId = :userId AND r.granularity = :granularity " +
+           "AND r.bucketStart >= :from AND r.bucketStart < :to ORDER BY r.bucketStart")
+    List<AiUsageRollup> findForUser(@Param("userId") String userId,
+                                    @Param("granularity") Granularity granularity,
+                                    @Param("from") LocalDateTime from,
+                                    @Param("to") LocalDateTime to);
+
+    /**
+     * Стоимость пользователя за интервал (по всем провайдерам и типам)
+     */
+    @Query("SELECT COALESCE(SUM(r.costUsd), 0) FROM AiUsageRollup r WHERE r.userId = :userId " +
+           "AND r.granularity = :granularity AND r.bucketStart = :bucketStart")
+    Double getCostForBucket(@Param("userId") String userId,
+                            @Param("granularity") Granularity granularity,
+                            @Param("bucketStart") LocalDateTime bucketStart);
+
+    /**
+     * Пользователи с наибольшей стоимостью за период: userId, вызовы, токены, стоимость
+     */
+    @Query("SELECT r.userId, SUM(r.calls), SUM(r.totalTokens), SUM(r.costUsd) FROM AiUsageRollup r " +
+           "WHERE r.granularity = :granularity AND r.bucketStart >= :from AND r.bucketStart < :to " +
+           "GROUP BY r.userId ORDER BY SUM(r.costUsd) DESC")
+    List<Object[]> findTopUsers(@Param("granularity") Granularity granularity,
+                                @Param("from") LocalDateTime from,
+                                @Param("to") LocalDateTime to,
+                                Pageable pageable);
+
+    /**
+     * Удалить агрегаты старше границы хранения
+     */
+    @Modifying
+    @Query("DELETE FROM AiUsageRollup r WHERE r.granularity = :granularity AND r.bucketStart < :before")
+    int deleteOlderThan(@Param("granularity") Granularity granularity, @Param("before") LocalDateTime before);
+}
@@ -0,0 +1,408 @@
+package com.fitcoach.service;
+
+import com.fitcoach.infrastructure.ai.common.AIResponse;
+import com.fitcoach.model.AiUsageRecord;
+import com.fitcoach.model.AiUsageRollup;
+import com.fitcoach.model.AiUsageRollup.Granularity;
+import com.fitcoach.repository.AiUsageRecordRepository;
+import com.fitcoach.repository.AiUsageRollupRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Учет токенов и стоимости AI вызовов с агрегатами по минутам, часам и дням
+ *
+ * record() только кладет запись в ограниченную очередь и никогда не ждет
+ * БД: при переполнении запись отбрасывается (ai.ledger.records{result=dropped}).
+ * Фоновый сброс пишет пачку записей и прибавляет ее агрегаты к строкам
+ * ai_usage_rollups одним UPDATE на ключ (вставка - если строки еще нет;
+ * гонку вставки между узлами решает повтор пачки).
+ *
+ * Дневной бюджет пользователя: сохраненная стоимость за сегодня (UTC)
+ * плюс еще не сброшенные записи этого узла. Между узлами расхождение -
+ * не больше одного интервала сброса.
+ *
+ * Настройки: app.ai.ledger.queue-capacity/batch-size/flush-interval/daily-budget-usd/retention.*
+ */
+@Service
+public class AiUsageLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiUsageLedger.class);
+
+    /** Фоновое обновление кэша: расход не относится к пользователю, чтение которого его запустило */
+    public static final String SYSTEM_REFRESH = "system:refresh";
+
+    private static final String UNKNOWN_USER = "anonymous";
+    private static final int MAX_TOP_USERS = 100;
+    private static final int INSERT_ATTEMPTS = 3;
+
+    private final AiUsageRecordRepository recordRepository;
+    private final AiUsageRollupRepository rollupRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final double dailyBudgetUsd;
+    private final Duration recordRetention;
+    private final Duration minuteRetention;
+    private final Duration hourRetention;
+
+    private final BlockingQueue<Entry> queue;
+    private final Map<String, DailySpend> dailySpend = new ConcurrentHashMap<>();
+    private final Counter queued;
+    private final Counter dropped;
+    private final Counter written;
+    private final Counter failed;
+
+    public AiUsageLedger(AiUsageRecordRepository recordRepository,
+                         AiUsageRollupRepository rollupRepository,
+                         PlatformTransactionManager transactionManager,
+                         MeterRegistry meterRegistry,
+                         @Value("${app.ai.ledger.queue-capacity:10000}") int queueCapacity,
+                         @Value("${app.ai.ledger.batch-size:500}") int batchSize,
+                         @Value("${app.ai.ledger.daily-budget-usd:0}") double dailyBudgetUsd,
+                         @Value("${app.ai.ledger.retention.records:30d}") Duration recordRetention,
+                         @Value("${app.ai.ledger.retention.minute:2d}") Duration minuteRetention,
+                         @Value("${app.ai.ledger.retention.hour:90d}") Duration hourRetention) {
+        this.recordRepository = recordRepository;
+        this.rollupRepository = rollupRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.dailyBudgetUsd = dailyBudgetUsd;
+        this.recordRetention = recordRetention;
+        this.minuteRetention = minuteRetention;
+        this.hourRetention = hourRetention;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+
+        this.queued = records(meterRegistry, "queued");
+        this.dropped = records(meterRegistry, "dropped");
+        this.written = records(meterRegistry, "written");
+        this.failed = records(meterRegistry, "failed");
+        Gauge.builder("ai.ledger.queue", queue, BlockingQueue::size)
+            .description("Записи учета AI, ожидающие сброса в БД")
+            .register(meterRegistry);
+
+        logger.info("📒 Учет AI: очередь {}, пачка {}, дневной бюджет {}",
+            queueCapacity, this.batchSize, dailyBudgetUsd > 0 ? "$" + dailyBudgetUsd : "выключен");
+    }
+
+    /**
+     * Учитывает ответ провайдера (без токенов и стоимости - не учитывается)
+     */
+    public void record(String userId, String requestType, AIResponse response) {
+        if (response == null || (response.getTokensUsed() == null && response.getCostUsd() == null)) {
+            return;
+        }
+        record(userId, response.getProvider(), response.getModel(), requestType, null, null,
+            response.getTokensUsed() != null ? response.getTokensUsed() : 0,
+            response.getCostUsd() != null ? response.getCostUsd() : 0.0);
+    }
+
+    /**
+     * Учитывает вызов; не блокирует (при заполненной очереди запись теряется)
+     */
+    public void record(String userId, String provider, String model, String requestType,
+                       Integer promptTokens, Integer completionTokens, int totalTokens, double costUsd) {
+        String user = userId != null && !userId.isBlank() ? userId : UNKNOWN_USER;
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+
+        // Стоимость сразу видна проверке бюджета, до сброса в БД; сохраненная
+        // сумма за день читается позже, при первой проверке (record не ждет БД)
+        LocalDate today = now.toLocalDate();
+        DailySpend spend = dailySpend.compute(user,
+            (key, existing) -> existing != null && existing.day.equals(today) ? existing : new DailySpend(key, today));
+        spend.pending.add(costUsd);
+
+        Entry entry = new Entry(user, Objects.requireNonNullElse(provider, "unknown"), model, requestType,
+            promptTokens, completionTokens, totalTokens, costUsd, now, spend);
+        if (queue.offer(entry)) {
+            queued.increment();
+        } else {
+            spend.pending.add(-costUsd);
+            dropped.increment();
+            logger.debug("⚠️ Очередь учета AI заполнена, запись {} / {} потеряна", user, requestType);
+        }
+    }
+
+    /**
+     * Превышен ли дневной бюджет пользователя (бюджет 0 - проверка выключена)
+     */
+    public boolean isOverBudget(String userId) {
+        return dailyBudgetUsd > 0 && getTodayCost(userId) >= dailyBudgetUsd;
+    }
+
+    /**
+     * Стоимость пользователя за сегодня (UTC), включая еще не сброшенные записи
+     */
+    public double getTodayCost(String userId) {
+        DailySpend spend = spendFor(userId != null && !userId.isBlank() ? userId : UNKNOWN_USER);
+        return spend.flushed + spend.pending.sum();
+    }
+
+    public double getDailyBudgetUsd() {
+        return dailyBudgetUsd;
+    }
+
+    /**
+     * Агрегаты пользователя за период [from, to)
+     */
+    public List<AiUsageRollup> getUsage(String userId, Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        return rollupRepository.findForUser(userId, granularity, granularity.bucketStart(from), to);
+    }
+
+    /**
+     * Пользователи с наибольшей стоимостью за период [from, to)
+     */
+    public List<Map<String, Object>> getTopUsers(LocalDateTime from, LocalDateTime to, int limit) {
+        List<Map<String, Object>> users = new ArrayList<>();
+        for (Object[] row : rollupRepository.findTopUsers(Granularity.DAY, Granularity.DAY.bucketStart(from), to,
+                PageRequest.of(0, Math.min(Math.max(1, limit), MAX_TOP_USERS)))) {
+            Map<String, Object> user = new LinkedHashMap<>();
+            user.put("user_id", row[0]);
+            user.put("calls", row[1]);
+            user.put("tokens", row[2]);
+            user.put("cost_usd", row[3]);
+            users.add(user);
+        }
+        return users;
+    }
+
+    /**
+     * Сброс очереди в БД пачками
+     */
+    @Scheduled(fixedDelayString = "${app.ai.ledger.flush-interval:PT5S}")
+    public synchronized void flush() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        dailySpend.values().removeIf(spend -> !spend.day.equals(today));
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        // Пачка сворачивается в агрегаты заранее: одна строка на ключ, а не на запись
+        Map<RollupKey, Totals> rollups = new HashMap<>();
+        for (Entry entry : batch) {
+            for (Granularity granularity : Granularity.values()) {
+                RollupKey key = new RollupKey(granularity, granularity.bucketStart(entry.createdAt),
+                    entry.userId, entry.provider, entry.requestType);
+                rollups.computeIfAbsent(key, k -> new Totals()).add(entry);
+            }
+        }
+
+        boolean saved = false;
+        for (int attempt = 1; attempt <= INSERT_ATTEMPTS && !saved; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    recordRepository.saveAll(batch.stream().map(Entry::toRecord).toList());
+                    rollups.forEach(this::upsert);
+                });
+                saved = true;
+            } catch (DataIntegrityViolationException e) {
+                // Другой узел вставил тот же агрегат - повторяем пачку, теперь это UPDATE
+                logger.debug("Гонка вставки агрегата учета AI, попытка {}", attempt);
+            } catch (Exception e) {
+                logger.error("❌ Ошибка записи учета AI ({} записей): {}", batch.size(), e.getMessage());
+                break;
+            }
+        }
+        (saved ? written : failed).increment(batch.size());
+
+        // Сначала перечитываем сохраненную стоимость, потом снимаем учтенное с ожидающих:
+        // бюджет на мгновение завышается, но не занижается
+        Set<DailySpend> touched = new HashSet<>();
+        for (Entry entry : batch) {
+            if (entry.spend != null) {
+                touched.add(entry.spend);
+            }
+        }
+        if (saved) {
+            touched.forEach(this::reloadFlushed);
+        }
+        for (Entry entry : batch) {
+            if (entry.spend != null) {
+                entry.spend.pending.add(-entry.costUsd);
+            }
+        }
+    }
+
+    private void upsert(RollupKey key, Totals totals) {
+        int updated = rollupRepository.increment(key.granularity, key.bucketStart, key.userId, key.provider,
+            key.requestType, totals.calls, totals.tokens, totals.cost);
+        if (updated == 0) {
+            rollupRepository.saveAndFlush(new AiUsageRollup(key.granularity, key.bucketStart, key.userId,
+                key.provider, key.requestType, totals.calls, totals.tokens, totals.cost));
+        }
+    }
+
+    private DailySpend spendFor(String userId) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        DailySpend spend = dailySpend.compute(userId,
+            (key, existing) -> existing != null && existing.day.equals(today) ? existing : new DailySpend(key, today));
+        if (!spend.loaded) {
+            reloadFlushed(spend);
+        }
+        return spend;
+    }
+
+    private void reloadFlushed(DailySpend spend) {
+        try {
+            Double cost = rollupRepository.getCostForBucket(spend.userId, Granularity.DAY, spend.day.atStartOfDay());
+            spend.flushed = cost != null ? cost : 0.0;
+            spend.loaded = true;
+        } catch (Exception e) {
+            logger.warn("⚠️ Не удалось прочитать дневную стоимость AI пользователя {}: {}", spend.userId, e.getMessage());
+        }
+    }
+
+    /**
+     * Удаление старых записей и мелких агрегатов (дневные хранятся всегда)
+     */
+    @Scheduled(fixedDelayString = "${app.ai.ledger.retention.interval:PT1H}",
+               initialDelayString = "${app.ai.ledger.retention.initial-delay:PT5M}")
+    public void purgeExpired() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        try {
+            Integer deleted = transactionTemplate.execute(status ->
+                recordRepository.deleteOlderThan(now.minus(recordRetention))
+                    + rollupRepository.deleteOlderThan(Granularity.MINUTE, now.minus(minuteRetention))
+                    + rollupRepository.deleteOlderThan(Granularity.HOUR, now.minus(hourRetention)));
+            if (deleted != null && deleted > 0) {
+                logger.info("🧹 Учет AI: удалено {} устаревших строк", deleted);
+            }
+        } catch (Exception e) {
+            logger.warn("⚠️ Ошибка очистки учета AI: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private static Counter records(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ai.ledger.records")
+            .tag("result", result)
+            .description("Записи учета AI: queued, dropped (очередь заполнена), written, failed")
+            .register(meterRegistry);
+    }
+
+    private static final class Entry {
+        private final String userId;
+        private final String provider;
+        private final String model;
+        private final String requestType;
+        private final Integer promptTokens;
+        private final Integer completionTokens;
+        private final int totalTokens;
+        private final double costUsd;
+        private final LocalDateTime createdAt;
+        private final DailySpend spend;
+
+        Entry(String userId, String provider, String model, String requestType, Integer promptTokens,
+              Integer completionTokens, int totalTokens, double costUsd, LocalDateTime createdAt, DailySpend spend) {
+            this.userId = userId;
+            this.provider = provider;
+            this.model = model;
+            this.requestType = requestType;
+            this.promptTokens = promptTokens;
+            this.completionTokens = completionTokens;
+            this.totalTokens = totalTokens;
+            this.costUsd = costUsd;
+            this.createdAt = createdAt;
+            this.spend = spend;
+        }
+
+        AiUsageRecord toRecord() {
+            return new AiUsageRecord(userId, provider, model, requestType, promptTokens, completionTokens,
+                totalTokens, costUsd, createdAt);
+        }
+    }
+
+    private static final class RollupKey {
+        private final Granularity granularity;
+        private final LocalDateTime bucketStart;
+        private final String userId;
+        private final String provider;
+        private final String requestType;
+
+        RollupKey(Granularity granularity, LocalDateTime bucketStart, String userId, String provider, String requestType) {
+            this.granularity = granularity;
+            this.bucketStart = bucketStart;
+            this.userId = userId;
+            this.provider = provider;
+            this.requestType = requestType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RollupKey other)) return false;
+            return granularity == other.granularity && bucketStart.equals(other.bucketStart)
+                && userId.equals(other.userId) && provider.equals(other.provider)
+                && requestType.equals(other.requestType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(granularity, bucketStart, userId, provider, requestType);
+        }
+    }
+
+    private static final class Totals {
+        private long calls;
+        private long tokens;
+        private double cost;
+
+        void add(Entry entry) {
+            calls++;
+            tokens += entry.totalTokens;
+            cost += entry.costUsd;
+        }
+    }
+
+    /**
+     * Стоимость пользователя за день: сохраненная в БД и еще в очереди
+     */
+    private static final class DailySpend {
+        private final String userId;
+        private final LocalDate day;
+        private final DoubleAdder pending = new DoubleAdder();
+        private volatile double flushed;
+        // flushed прочитан из БД (запись, созданная в record(), читается при первой проверке)
+        private volatile boolean loaded;
+
+        DailySpend(String userId, LocalDate day) {
+            this.userId = userId;
+            this.day = day;
+        }
+    }
+}
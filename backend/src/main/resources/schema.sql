@@ -47,17 +47,51 @@ CREATE TABLE IF NOT EXISTS nutrition_entries (
     timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
 
+-- Учет вызовов AI (токены и стоимость)
+CREATE TABLE IF NOT EXISTS ai_usage_records (
+    id BIGSERIAL PRIMARY KEY,
+    user_id VARCHAR(64) NOT NULL,
+    provider VARCHAR(32) NOT NULL,
+    model VARCHAR(64),
+    request_type VARCHAR(32) NOT NULL,
+    prompt_tokens INTEGER,
+    completion_tokens INTEGER,
+    total_tokens INTEGER NOT NULL DEFAULT 0,
+    cost_usd DOUBLE PRECISION NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL
+);
+
+-- Агрегаты использования AI за минуту/час/день (UTC)
+CREATE TABLE IF NOT EXISTS ai_usage_rollups (
+    id BIGSERIAL PRIMARY KEY,
+    granularity VARCHAR(8) NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    user_id VARCHAR(64) NOT NULL,
+    provider VARCHAR(32) NOT NULL,
+    request_type VARCHAR(32) NOT NULL,
+    calls BIGINT NOT NULL DEFAULT 0,
+    total_tokens BIGINT NOT NULL DEFAULT 0,
+    cost_usd DOUBLE PRECISION NOT NULL DEFAULT 0,
+    CONSTRAINT uk_ai_usage_rollup UNIQUE (granularity, bucket_start, user_id, provider, request_type)
+);
+
 -- Индексы для производительности
 CREATE INDEX IF NOT EXISTS idx_users_telegram_id ON users(telegram_id);
 CREATE INDEX IF NOT EXISTS idx_user_profiles_user_id ON user_profiles(user_id);
 CREATE INDEX IF NOT EXISTS idx_nutrition_entries_user_id ON nutrition_entries(user_id);
 CREATE INDEX IF NOT EXISTS idx_nutrition_entries_date ON nutrition_entries(date);
 CREATE INDEX IF NOT EXISTS idx_nutrition_entries_user_date ON nutrition_entries(user_id, date);
+CREATE INDEX IF NOT EXISTS idx_ai_usage_user_created ON ai_usage_records(user_id, created_at);
+CREATE INDEX IF NOT EXISTS idx_ai_usage_created ON ai_usage_records(created_at);
+CREATE INDEX IF NOT EXISTS idx_ai_rollup_user_bucket ON ai_usage_rollups(user_id, granularity, bucket_start);
+CREATE INDEX IF NOT EXISTS idx_ai_rollup_bucket ON ai_usage_rollups(granularity, bucket_start);
 
 -- Комментарии к таблицам
 COMMENT ON TABLE users IS 'Пользователи системы из Telegram';
 COMMENT ON TABLE user_profiles IS 'Профили пользователей с целями и параметрами';
 COMMENT ON TABLE nutrition_entries IS 'Записи о питании пользователей';
+COMMENT ON TABLE ai_usage_records IS 'Учет отдельных вызовов AI: токены и стоимость';
+COMMENT ON TABLE ai_usage_rollups IS 'Агрегаты использования AI по пользователю, провайдеру и типу запроса';
 
 -- Комментарии к важным полям
 COMMENT ON COLUMN users.telegram_id IS 'Уникальный ID пользователя в Telegram';
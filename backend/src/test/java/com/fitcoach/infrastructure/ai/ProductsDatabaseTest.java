@@ -0,0 +1,55 @@
+package com.fitcoach.infrastructure.ai;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ProductsDatabaseTest {
+
+    private static final ProductsDatabase DATABASE = new ProductsDatabase();
+
+    @ParameterizedTest
+    @CsvSource({
+        "гречневая каша 200г, гречневая каша, 200",
+        "творог 150 гр., творог, 150",
+        "кефир 120 граммов, кефир, 120"
+    })
+    void estimateFromTextParsesGrams(String description, String name, double weight) {
+        NutritionAnalysis analysis = DATABASE.estimateFromText(description).orElseThrow();
+        ProductsDatabase.FoodProduct product = DATABASE.findProduct(name).orElseThrow();
+
+        assertThat(analysis.getDetectedFoods()).singleElement().satisfies(food -> {
+            assertThat(food.getFoodName()).isEqualTo(product.getName());
+            assertThat(food.getQuantity()).isEqualTo(Math.round(weight) + " г");
+            assertThat(food.getCalories()).isCloseTo(product.getCalories() * weight / 100, within(0.01));
+        });
+    }
+
+    @Test
+    void countIsNotGrams() {
+        // "2 груши": "г" - начало слова, а не граммы; груши в базе нет
+        assertThat(DATABASE.estimateFromText("2 груши")).isEmpty();
+
+        NutritionAnalysis analysis = DATABASE.estimateFromText("творог 2 груши").orElseThrow();
+        assertThat(analysis.getDetectedFoods()).singleElement().satisfies(food -> {
+            assertThat(food.getFoodName()).isEqualTo("творог");
+            assertThat(food.getQuantity()).isEqualTo("100 г");
+        });
+    }
+
+    @Test
+    void productStartingWithGIsNotGrams() {
+        // "100 гречки" не превращается в 100 г продукта "речки" (гречки в базе нет)
+        assertThat(DATABASE.estimateFromText("100 гречки")).isEmpty();
+
+        // "150 гречки" - не граммы: вес по умолчанию
+        NutritionAnalysis analysis = DATABASE.estimateFromText("сырники 150 гречки").orElseThrow();
+        assertThat(analysis.getDetectedFoods()).singleElement().satisfies(food -> {
+            assertThat(food.getFoodName()).isEqualTo("сырники");
+            assertThat(food.getQuantity()).isEqualTo("100 г");
+        });
+    }
+}
@@ -0,0 +1,117 @@
+package com.fitcoach.infrastructure.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Аллокации на тело запроса анализа фото: прежний String.format и потоковое тело
+ *
+ * formattedString повторяет прежний sendImageToOpenAI: base64 строкой,
+ * JSON через String.format и байты UTF-8, как в BodyPublishers.ofString.
+ * streamingBody читает VisionRequestBody буфером HTTP клиента (16 КБ).
+ * Байт на запрос - gc.alloc.rate.norm профайлера gc.
+ *
+ * Запуск: mvn -q test-compile, затем main этого класса с test classpath
+ * (аргументы - опции JMH, например -p imageKb=300).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisionRequestBodyBenchmark {
+
+    private static final String PROMPT =
+        "Проанализируй это фото еды и определи все блюда, их вес, калории и БЖУ. " +
+        "Верни результат строго в формате JSON с полями foods, total_calories, confidence.";
+    private static final int HTTP_BUFFER_SIZE = 16 * 1024;
+
+    private static final String TEMPLATE = """
+        {
+          "model": "gpt-4o",
+          "messages": [
+            {
+              "role": "user",
+              "content": [
+                {
+                  "type": "text",
+                  "text": "%s"
+                },
+                {
+                  "type": "image_url",
+                  "image_url": {
+                    "url": "data:image/jpeg;base64,%s"
+                  }
+                }
+              ]
+            }
+          ],
+          "max_tokens": 800,
+          "temperature": 0.1
+        }
+        """;
+
+    @Param({"50", "300"})
+    private int imageKb;
+
+    private byte[] jpeg;
+    private final byte[] buffer = new byte[HTTP_BUFFER_SIZE];
+
+    @Setup
+    public void setUp() {
+        jpeg = new byte[imageKb * 1024];
+        new Random(1).nextBytes(jpeg);
+    }
+
+    @Benchmark
+    public byte[] formattedString() {
+        String base64Image = Base64.getEncoder().encodeToString(jpeg);
+        String cleanPrompt = PROMPT.replace("\"", "\\\"").replace("\n", " ");
+        String requestBody = String.format(TEMPLATE, cleanPrompt, base64Image);
+        return requestBody.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void streamingBody(Blackhole blackhole) throws IOException {
+        VisionRequestBody body = VisionRequestBody.ofJpeg(jpeg).prompt(PROMPT).build();
+        try (InputStream in = body.newStream()) {
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+                blackhole.consume(n);
+            }
+        }
+        blackhole.consume(buffer);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .include(VisionRequestBodyBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package com.fitcoach.infrastructure.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisionRequestBodyTest {
+
+    private static final String DATA_URL_PREFIX = "data:image/jpeg;base64,";
+    private static final String PROMPT = "Проанализируй фото еды.\nВерни JSON: {\"foods\": [...]} \\ \"кавычки\" 🍎";
+    // Длины со всеми остатками по модулю 3, в том числе пустое и короче одной группы
+    private static final int[] IMAGE_LENGTHS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 299, 300, 301, 4096, 65537};
+    // 1 байт и меньше группы base64, размеры не кратные 4 и типичный буфер HTTP клиента
+    private static final int[] BUFFER_SIZES = {1, 2, 3, 4, 5, 7, 13, 64, 1000, 16384};
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void streamedBase64MatchesJdkEncoderForAnyBufferSize() throws IOException {
+        Random random = new Random(42);
+        for (int length : IMAGE_LENGTHS) {
+            byte[] jpeg = new byte[length];
+            random.nextBytes(jpeg);
+            byte[] expectedBase64 = Base64.getEncoder().encode(jpeg);
+            byte[] reference = readAll(body(VisionRequestBody.ofBase64(new String(expectedBase64))), 8192);
+
+            for (int bufferSize : BUFFER_SIZES) {
+                VisionRequestBody body = body(VisionRequestBody.ofJpeg(jpeg));
+                byte[] streamed = readAll(body, bufferSize);
+
+                assertThat(streamed).as("длина %d, буфер %d", length, bufferSize).isEqualTo(reference);
+                assertThat((long) streamed.length).isEqualTo(body.contentLength());
+                assertThat(payload(streamed)).as("длина %d, буфер %d", length, bufferSize).isEqualTo(expectedBase64);
+            }
+        }
+    }
+
+    @Test
+    void singleByteReadsMatchBulkReads() throws IOException {
+        byte[] jpeg = new byte[1001];
+        new Random(7).nextBytes(jpeg);
+        VisionRequestBody body = body(VisionRequestBody.ofJpeg(jpeg));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = body.newStream()) {
+            int b;
+            while ((b = in.read()) >= 0) {
+                out.write(b);
+            }
+        }
+        assertThat(out.toByteArray()).isEqualTo(readAll(body, 8192));
+    }
+
+    @Test
+    void bodyIsValidJsonWithRequestParameters() throws IOException {
+        byte[] jpeg = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 0x00};
+        VisionRequestBody body = VisionRequestBody.ofJpeg(jpeg)
+            .model("gpt-4o").prompt(PROMPT).detail("low").maxTokens(400).temperature(0.1).build();
+
+        JsonNode json = objectMapper.readTree(readAll(body, 8192));
+        JsonNode content = json.path("messages").path(0).path("content");
+
+        assertThat(json.path("model").asText()).isEqualTo("gpt-4o");
+        assertThat(content.path(0).path("text").asText()).isEqualTo(PROMPT);
+        assertThat(content.path(1).path("image_url").path("url").asText())
+            .isEqualTo(DATA_URL_PREFIX + Base64.getEncoder().encodeToString(jpeg));
+        assertThat(content.path(1).path("image_url").path("detail").asText()).isEqualTo("low");
+        assertThat(json.path("max_tokens").asInt()).isEqualTo(400);
+        assertThat(json.path("temperature").asDouble()).isEqualTo(0.1);
+    }
+
+    private static VisionRequestBody body(VisionRequestBody.Builder builder) {
+        return builder.prompt(PROMPT).detail("high").build();
+    }
+
+    private static byte[] readAll(VisionRequestBody body, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        try (InputStream in = body.newStream()) {
+            int n;
+            while ((n = in.read(buffer, 0, bufferSize)) >= 0) {
+                assertThat(n).isPositive();
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Байты между "data:image/jpeg;base64," и закрывающей кавычкой
+     */
+    private static byte[] payload(byte[] body) {
+        byte[] marker = DATA_URL_PREFIX.getBytes(StandardCharsets.US_ASCII);
+        int start = -1;
+        for (int i = 0; i + marker.length <= body.length && start < 0; i++) {
+            if (Arrays.equals(body, i, i + marker.length, marker, 0, marker.length)) {
+                start = i + marker.length;
+            }
+        }
+        int end = start;
+        while (body[end] != '"') {
+            end++;
+        }
+        return Arrays.copyOfRange(body, start, end);
+    }
+}
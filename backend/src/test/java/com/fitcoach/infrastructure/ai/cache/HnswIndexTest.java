@@ -0,0 +1,126 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final long COMPACTION_TIMEOUT_MS = 30_000;
+
+    @Test
+    void recallSurvivesChurnBeyondMaxEntries() throws InterruptedException {
+        int maxEntries = 300;
+        int inserted = 3000;
+        float[][] vectors = randomVectors(inserted, 1);
+        HnswIndex<Integer> index = new HnswIndex<>(16, 100);
+
+        // Вытеснение как в SemanticCache: самый старый уходит, когда индекс полон
+        for (int i = 0; i < inserted; i++) {
+            while (index.size() >= maxEntries) {
+                index.removeOldest();
+            }
+            index.add(vectors[i], i);
+        }
+        awaitCompaction(index);
+
+        assertThat(index.size()).isEqualTo(maxEntries);
+        assertThat(index.graphSize()).as("удаленные узлы вычищены перестройкой").isLessThanOrEqualTo(2 * maxEntries + 1);
+
+        int found = 0;
+        for (int i = inserted - maxEntries; i < inserted; i++) {
+            List<HnswIndex.Match<Integer>> matches = index.search(vectors[i], 1, 64);
+            assertThat(matches).singleElement()
+                .satisfies(match -> assertThat(match.getValue()).isGreaterThanOrEqualTo(inserted - maxEntries));
+            if (matches.get(0).getValue() == i) {
+                found++;
+            }
+        }
+        assertThat((double) found / maxEntries).as("recall@1").isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void clearDuringRebuildDiscardsRebuiltGraph() throws InterruptedException {
+        int inserted = 2000;
+        float[][] vectors = randomVectors(inserted + 10, 2);
+        HnswIndex<Integer> index = new HnswIndex<>(16, 100);
+        for (int i = 0; i < inserted; i++) {
+            index.add(vectors[i], i);
+        }
+
+        // Удаленных больше живых - перестройка из 999 живых узлов в фоне
+        index.removeIf(value -> value <= inserted / 2);
+        assertThat(index.isCompacting()).isTrue();
+        index.clear();
+        for (int i = inserted; i < inserted + 10; i++) {
+            index.add(vectors[i], i);
+        }
+        awaitCompaction(index);
+
+        assertThat(index.size()).isEqualTo(10);
+        assertThat(index.graphSize()).as("граф, начатый до очистки, не подменил текущий").isEqualTo(10);
+        assertThat(index.search(vectors[inserted / 2 + 1], 10, 64))
+            .extracting(HnswIndex.Match::getValue)
+            .allSatisfy(value -> assertThat(value).isGreaterThanOrEqualTo(inserted));
+    }
+
+    @Test
+    void removeOldestKeepsInsertionOrderAfterSwap() throws InterruptedException {
+        int inserted = 1000;
+        float[][] vectors = randomVectors(inserted + 200, 3);
+        HnswIndex<Integer> index = new HnswIndex<>(16, 100);
+        for (int i = 0; i < inserted; i++) {
+            index.add(vectors[i], i);
+        }
+
+        // 501-е вытеснение запускает перестройку; вставки за время перестройки
+        // переносятся в новый граф после живых узлов
+        for (int i = 0; i <= inserted / 2; i++) {
+            index.removeOldest();
+        }
+        for (int i = inserted; i < inserted + 200; i++) {
+            index.add(vectors[i], i);
+        }
+        awaitCompaction(index);
+        assertThat(index.graphSize()).as("перестройка выполнена").isLessThan(inserted + 200);
+
+        int oldest = inserted / 2 + 1;
+        for (int evicted = 1; evicted <= 300; evicted++) {
+            index.removeOldest();
+            int threshold = oldest + evicted;
+            // Все значения меньше порога уже вытеснены (removeIf ничего не находит),
+            // а остальные живы
+            assertThat(index.removeIf(value -> value < threshold)).isZero();
+            assertThat(index.size()).isEqualTo(inserted + 200 - threshold);
+        }
+    }
+
+    private static void awaitCompaction(HnswIndex<?> index) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + COMPACTION_TIMEOUT_MS;
+        while (index.isCompacting()) {
+            assertThat(System.currentTimeMillis()).as("перестройка завершилась").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static float[][] randomVectors(int count, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][DIMENSIONS];
+        for (float[] vector : vectors) {
+            double norm = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = (float) random.nextGaussian();
+                norm += vector[d] * vector[d];
+            }
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] *= scale;
+            }
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,93 @@
+package com.fitcoach.infrastructure.ai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JacksonCacheCodecTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int COMPRESS_THRESHOLD = 256;
+
+    private final JacksonCacheCodec<Payload> codec = new JacksonCacheCodec<>(MAPPER, Payload.class, COMPRESS_THRESHOLD);
+    private final CachedValueCodec<Payload> cachedCodec = new CachedValueCodec<>(codec);
+
+    @Test
+    void smallValueRoundTripsUncompressed() {
+        Payload payload = new Payload("Гречка с курицей", 42);
+
+        byte[] encoded = codec.encode(payload);
+
+        assertThat(encoded[0]).isEqualTo(JacksonCacheCodec.VERSION);
+        assertThat(encoded[1]).as("флаги").isZero();
+        assertThat(codec.decode(encoded)).usingRecursiveComparison().isEqualTo(payload);
+    }
+
+    @Test
+    void largeValueRoundTripsCompressed() throws Exception {
+        Payload payload = new Payload("Овсянка на завтрак, курица и рис на обед. ".repeat(50), 7);
+        int jsonLength = MAPPER.writeValueAsBytes(payload).length;
+
+        byte[] encoded = codec.encode(payload);
+
+        assertThat(encoded[1]).as("флаг Deflate").isEqualTo((byte) 1);
+        assertThat(encoded.length).isLessThan(jsonLength / 2);
+        assertThat(codec.decode(encoded)).usingRecursiveComparison().isEqualTo(payload);
+    }
+
+    @Test
+    void legacyJsonEntryIsDecoded() throws Exception {
+        Payload payload = new Payload("Борщ", 1);
+        byte[] legacy = MAPPER.writeValueAsString(payload).getBytes(StandardCharsets.UTF_8);
+
+        assertThat(codec.decode(legacy)).usingRecursiveComparison().isEqualTo(payload);
+
+        CachedValue<Payload> cached = cachedCodec.decode(legacy);
+        assertThat(cached.getValue()).usingRecursiveComparison().isEqualTo(payload);
+        assertThat(cached.isStale(System.currentTimeMillis())).as("мягкий срок записи без заголовка истек").isTrue();
+    }
+
+    @Test
+    void unknownVersionIsMiss() {
+        byte[] encoded = codec.encode(new Payload("Плов", 3));
+        encoded[0] = JacksonCacheCodec.VERSION + 1;
+        assertThat(codec.decode(encoded)).isNull();
+
+        byte[] cached = cachedCodec.encode(new CachedValue<>(new Payload("Плов", 3), 1, 1));
+        cached[0] = 2;
+        assertThat(cachedCodec.decode(cached)).isNull();
+    }
+
+    @Test
+    void cachedValueKeepsSoftExpiryAndComputeTime() {
+        Payload payload = new Payload("Сырники со сметаной. ".repeat(40), 5);
+        CachedValue<Payload> cached = new CachedValue<>(payload, 1_700_000_000_000L, 850);
+
+        CachedValue<Payload> decoded = cachedCodec.decode(cachedCodec.encode(cached));
+
+        assertThat(decoded.getSoftExpiresAt()).isEqualTo(1_700_000_000_000L);
+        assertThat(decoded.getComputeMillis()).isEqualTo(850);
+        assertThat(decoded.getValue()).usingRecursiveComparison().isEqualTo(payload);
+    }
+
+    public static class Payload {
+        private String text;
+        private int count;
+
+        public Payload() {}
+
+        Payload(String text, int count) {
+            this.text = text;
+            this.count = count;
+        }
+
+        public String getText() { return text; }
+        public void setText(String text) { this.text = text; }
+
+        public int getCount() { return count; }
+        public void setCount(int count) { this.count = count; }
+    }
+}
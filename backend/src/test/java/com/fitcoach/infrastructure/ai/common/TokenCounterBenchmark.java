@@ -0,0 +1,75 @@
+package com.fitcoach.infrastructure.ai.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Скорость локального подсчета и обрезки токенов
+ *
+ * Токенов в секунду = ops/s × tokens (число токенов текста печатается в setup).
+ * Запуск: mvn -q test-compile, затем main этого класса с test classpath
+ * (аргументы - опции JMH, например -wi 2 -i 3 -p repeat=200).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenCounterBenchmark {
+
+    private static final String QUESTION =
+        "Подскажите, сколько белка нужно в день при весе 80 кг и тренировках три раза в неделю? " +
+        "How many calories are in 200 g of buckwheat with chicken breast? 🍗🥦 ";
+
+    @Param({"1", "20", "200"})
+    private int repeat;
+
+    private TokenCounter counter;
+    private String text;
+    private int halfTokens;
+
+    @Setup
+    public void setUp() {
+        counter = new TokenCounter(new MockEnvironment());
+        text = QUESTION.repeat(repeat);
+        int tokens = counter.count(text);
+        halfTokens = tokens / 2;
+        System.out.println("tokens=" + tokens);
+    }
+
+    @Benchmark
+    public int count() {
+        return counter.count(text);
+    }
+
+    @Benchmark
+    public void truncateToHalf(Blackhole blackhole) {
+        blackhole.consume(counter.truncateToTokens(text, halfTokens));
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .include(TokenCounterBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
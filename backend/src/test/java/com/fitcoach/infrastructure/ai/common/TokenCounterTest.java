@@ -0,0 +1,63 @@
+package com.fitcoach.infrastructure.ai.common;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenCounterTest {
+
+    private static final String MULTIBYTE = "Сколько белка в 🍎 и 🥑? Овсянка 🥣 на завтрак, 🍗 на обед. ".repeat(20);
+
+    private static final TokenCounter COUNTER = new TokenCounter(new MockEnvironment());
+    private static final Encoding ENCODING = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    @Test
+    void truncateDropsIncompleteUtf8Tail() {
+        List<Integer> tokens = ENCODING.encodeOrdinary(MULTIBYTE);
+        int cutInsideCharacter = -1;
+        for (int n = 1; n < tokens.size(); n++) {
+            if (ENCODING.decode(tokens.subList(0, n)).contains("�")) {
+                cutInsideCharacter = n;
+                break;
+            }
+        }
+        assertThat(cutInsideCharacter).as("граница токенов внутри символа").isPositive();
+
+        String truncated = COUNTER.truncateToTokens(MULTIBYTE, cutInsideCharacter);
+
+        assertThat(truncated).doesNotContain("�");
+        assertThat(MULTIBYTE).startsWith(truncated);
+        assertThat(COUNTER.count(truncated)).isLessThanOrEqualTo(cutInsideCharacter);
+        assertThat(COUNTER.count(truncated)).isGreaterThanOrEqualTo(cutInsideCharacter - 3);
+    }
+
+    @Test
+    void truncateKeepsTextWithinLimit() {
+        assertThat(COUNTER.truncateToTokens(MULTIBYTE, COUNTER.count(MULTIBYTE))).isEqualTo(MULTIBYTE);
+        assertThat(COUNTER.truncateToTokens(MULTIBYTE, 0)).isEmpty();
+    }
+
+    @Test
+    void shortTextSkipsTokenization() {
+        String text = "Сколько калорий в гречке?";
+        int maxTokens = text.length() * 3;
+
+        assertThat(COUNTER.fits(text, maxTokens)).isTrue();
+        assertThat(COUNTER.truncateToTokens(text, maxTokens)).isSameAs(text);
+    }
+
+    @Test
+    void fitsMatchesCountAboveFastPath() {
+        int tokens = COUNTER.count(MULTIBYTE);
+        assertThat(MULTIBYTE.length() * 3).isGreaterThan(tokens);
+
+        assertThat(COUNTER.fits(MULTIBYTE, tokens)).isTrue();
+        assertThat(COUNTER.fits(MULTIBYTE, tokens - 1)).isFalse();
+    }
+}
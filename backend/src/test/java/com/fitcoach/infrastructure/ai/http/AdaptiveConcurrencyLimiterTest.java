@@ -0,0 +1,122 @@
+package com.fitcoach.infrastructure.ai.http;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import javax.net.ssl.SSLSession;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final Duration NO_WAIT = Duration.ZERO;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @ParameterizedTest
+    @CsvSource({
+        "6m0s, 360000",
+        "20ms, 20",
+        "1.5s, 1500",
+        "1h2m3.5s, 3723500",
+        "0.5ms, 1",
+        "soon, 1000"
+    })
+    void parseReset(String value, long millis) {
+        assertThat(AdaptiveConcurrencyLimiter.parseReset(value)).isEqualTo(Duration.ofMillis(millis));
+    }
+
+    @Test
+    void successAtFullLimitIncreasesAdditively() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 0.5);
+
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(100, NO_WAIT);
+        AdaptiveConcurrencyLimiter.Permit second = limiter.acquire(100, NO_WAIT);
+        limiter.release(first, response(200, Map.of()));
+        assertThat(limit()).isCloseTo(2.5, within(1e-9));
+
+        // Лимит больше не занят целиком - успех его не меняет
+        limiter.release(second, response(200, Map.of()));
+        assertThat(limit()).isCloseTo(2.5, within(1e-9));
+    }
+
+    @Test
+    void nearCeilingDecreasesMultiplicatively() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 0.5);
+
+        limiter.release(limiter.acquire(100, NO_WAIT), response(200, Map.of(
+            "x-ratelimit-remaining-requests", "5",
+            "x-ratelimit-limit-requests", "100",
+            "x-ratelimit-reset-requests", "6m0s")));
+
+        assertThat(limit()).isCloseTo(9.0, within(1e-9));
+    }
+
+    @Test
+    void tooManyRequestsBacksOffUntilRetryAfter() {
+        AdaptiveConcurrencyLimiter limiter = limiter(8, 0.5);
+
+        limiter.release(limiter.acquire(100, NO_WAIT), response(429, Map.of("retry-after-ms", "300")));
+
+        assertThat(limit()).isCloseTo(4.0, within(1e-9));
+        assertThat(meterRegistry.get("ai.http.limiter.throttled").counter().count()).isEqualTo(1.0);
+        assertThatThrownBy(() -> limiter.acquire(100, NO_WAIT))
+            .isInstanceOfSatisfying(AiRateLimitedException.class,
+                e -> assertThat(e.getRetryAfter()).isPositive().isLessThanOrEqualTo(Duration.ofMillis(300)));
+
+        long start = System.nanoTime();
+        limiter.acquire(100, Duration.ofSeconds(5));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+    }
+
+    @Test
+    void backoffStopsAtMinLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 0.5);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.release(limiter.acquire(100, Duration.ofSeconds(5)), response(429, Map.of("retry-after-ms", "1")));
+        }
+
+        assertThat(limit()).isEqualTo(1.0);
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(int initialLimit, double backoffRatio) {
+        return new AdaptiveConcurrencyLimiter(AiProvider.OPENAI, initialLimit, 1, 64, backoffRatio,
+            0.1, 16, Duration.ofSeconds(5), meterRegistry);
+    }
+
+    private double limit() {
+        return meterRegistry.get("ai.http.limiter.limit").gauge().value();
+    }
+
+    private static HttpResponse<Void> response(int status, Map<String, String> headers) {
+        HttpHeaders httpHeaders = HttpHeaders.of(
+            headers.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> List.of(e.getValue()))),
+            (name, value) -> true);
+        return new HttpResponse<>() {
+            @Override public int statusCode() { return status; }
+            @Override public HttpRequest request() { return null; }
+            @Override public Optional<HttpResponse<Void>> previousResponse() { return Optional.empty(); }
+            @Override public HttpHeaders headers() { return httpHeaders; }
+            @Override public Void body() { return null; }
+            @Override public Optional<SSLSession> sslSession() { return Optional.empty(); }
+            @Override public URI uri() { return URI.create("https://api.openai.com/v1/chat/completions"); }
+            @Override public HttpClient.Version version() { return HttpClient.Version.HTTP_1_1; }
+        };
+    }
+}
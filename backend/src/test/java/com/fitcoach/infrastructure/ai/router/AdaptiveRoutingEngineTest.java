@@ -0,0 +1,98 @@
+package com.fitcoach.infrastructure.ai.router;
+
+import com.fitcoach.infrastructure.ai.http.AiProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.core.convert.support.ConfigurableConversionService;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveRoutingEngineTest {
+
+    private static final AIRequestType FOOD = AIRequestType.FOOD_ANALYSIS;
+
+    @Test
+    void coldStartKeepsFallbackChainOrder() {
+        AdaptiveRoutingEngine engine = engine(0.0);
+
+        assertThat(engine.rank(FOOD)).containsExactly(AiProvider.DEEPSEEK, AiProvider.GEMINI, AiProvider.OPENAI);
+    }
+
+    @Test
+    void probesReachHealthyProvidersWithoutCostSample() {
+        AdaptiveRoutingEngine engine = engine(1.0);
+        engine.record(FOOD, AiProvider.DEEPSEEK, 800, true, 0.0002, "deepseek-chat");
+
+        Set<AiProvider> primaries = EnumSet.noneOf(AiProvider.class);
+        for (int i = 0; i < 200; i++) {
+            primaries.add(engine.rank(FOOD).get(0));
+        }
+        assertThat(primaries).containsExactlyInAnyOrder(AiProvider.GEMINI, AiProvider.OPENAI);
+    }
+
+    @Test
+    void switchesToCheapestProviderOnceCostsAreMeasured() {
+        AdaptiveRoutingEngine engine = engine(0.05);
+
+        // Пробные запросы доходят до всех кандидатов - стоимость измеряется у каждого
+        for (int i = 0; i < 2000 && !allMeasured(engine); i++) {
+            AiProvider provider = engine.rank(FOOD).get(0);
+            engine.record(FOOD, provider, 900, true, cost(provider), null);
+        }
+
+        assertThat(allMeasured(engine)).isTrue();
+        assertThat(rankWithoutProbes(engine)).containsExactly(
+            AiProvider.GEMINI.getKey(), AiProvider.DEEPSEEK.getKey(), AiProvider.OPENAI.getKey());
+    }
+
+    @Test
+    void failingCheapestProviderIsDemoted() {
+        AdaptiveRoutingEngine engine = engine(0.0);
+        for (AiProvider provider : List.of(AiProvider.DEEPSEEK, AiProvider.GEMINI, AiProvider.OPENAI)) {
+            engine.record(FOOD, provider, 900, true, cost(provider), null);
+        }
+        for (int i = 0; i < 10; i++) {
+            engine.record(FOOD, AiProvider.GEMINI, 900, false, null, null);
+        }
+
+        assertThat(engine.rank(FOOD)).containsExactly(AiProvider.DEEPSEEK, AiProvider.OPENAI, AiProvider.GEMINI);
+    }
+
+    private static double cost(AiProvider provider) {
+        return switch (provider) {
+            case GEMINI -> 0.0001;
+            case DEEPSEEK -> 0.0003;
+            default -> 0.004;
+        };
+    }
+
+    private static boolean allMeasured(AdaptiveRoutingEngine engine) {
+        return providers(engine).values().stream().allMatch(stats -> (Long) stats.get("samples") > 0);
+    }
+
+    /**
+     * Порядок без проб: провайдеры снимка идут в порядке ранжирования
+     */
+    private static List<String> rankWithoutProbes(AdaptiveRoutingEngine engine) {
+        return List.copyOf(providers(engine).keySet());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> providers(AdaptiveRoutingEngine engine) {
+        Map<String, Object> food = (Map<String, Object>) engine.snapshot().get("food_analysis");
+        return (Map<String, Map<String, Object>>) food.get("providers");
+    }
+
+    private static AdaptiveRoutingEngine engine(double probeRatio) {
+        MockEnvironment environment = new MockEnvironment();
+        environment.setConversionService((ConfigurableConversionService) ApplicationConversionService.getSharedInstance());
+        environment.setProperty("app.ai.routing.probe-ratio", String.valueOf(probeRatio));
+        return new AdaptiveRoutingEngine(environment);
+    }
+}